@@ -0,0 +1,24 @@
+package com.example.loader.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * benchmarks.jar 的入口：参数与 JMH 命令行一致（例如 `Validation -p badRatio=0.05`），
+ * 默认挂上 GC profiler，结果里的 gc.alloc.rate.norm 即「每行分配字节数」（各基准按行计 op）。
+ */
+public final class BenchMain {
+
+    private BenchMain() { }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.loader.bench;
+
+import com.example.loader.pipeline.EquityBinaryCopyFormat;
+import com.example.loader.pipeline.RowBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * COPY 批缓冲组装（每批 5 万行，不连库）：
+ * - legacy：每批 new ByteArrayOutputStream，逐行 write，toByteArray 再包成输入流；
+ * - rowBuffer：复用 RowBuffer，直接包装内部数组；
+ * - binary：同样复用 RowBuffer，逐行编码为 COPY binary 元组。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(LoaderState.ROWS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CopyBufferBenchmark {
+
+    private static final int BATCH_SIZE = 50_000;
+
+    private final RowBuffer buffer = new RowBuffer(8 << 20);
+    private final EquityBinaryCopyFormat binary = new EquityBinaryCopyFormat();
+
+    @Benchmark
+    public void legacy(LoaderState s, Blackhole bh) throws IOException {
+        for (int done = 0; done < LoaderState.ROWS; done += BATCH_SIZE) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            for (int i = done; i < done + BATCH_SIZE; i++) baos.write(s.rows[i % s.goodRows]);
+            bh.consume(new ByteArrayInputStream(baos.toByteArray()));
+        }
+    }
+
+    @Benchmark
+    public void rowBuffer(LoaderState s, Blackhole bh) {
+        for (int done = 0; done < LoaderState.ROWS; done += BATCH_SIZE) {
+            buffer.reset();
+            for (int i = done; i < done + BATCH_SIZE; i++) {
+                byte[] r = s.rows[i % s.goodRows];
+                buffer.append(r, 0, r.length, 1);
+            }
+            InputStream in = buffer.asInputStream();
+            bh.consume(in);
+        }
+    }
+
+    @Benchmark
+    public void binary(LoaderState s, Blackhole bh) {
+        for (int done = 0; done < LoaderState.ROWS; done += BATCH_SIZE) {
+            buffer.reset();
+            for (int i = done; i < done + BATCH_SIZE; i++) {
+                byte[] r = s.rows[i % s.goodRows];
+                binary.encode(r, 0, r.length, 1, buffer);
+            }
+            bh.consume(buffer.asInputStream());
+        }
+    }
+}
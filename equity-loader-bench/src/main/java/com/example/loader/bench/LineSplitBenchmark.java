@@ -0,0 +1,45 @@
+package com.example.loader.bench;
+
+import com.example.loader.pipeline.ByteLineReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 切行：旧实现 BufferedReader.readLine（解码 + 每行一个 String）对比 ByteLineReader（字节上找换行）。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(LoaderState.ROWS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LineSplitBenchmark {
+
+    @Benchmark
+    public void readLine(LoaderState s, Blackhole bh) throws Exception {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(s.file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) bh.consume(line);
+        }
+    }
+
+    @Benchmark
+    public long byteLineReader(LoaderState s, Blackhole bh) throws Exception {
+        return new ByteLineReader(new ByteArrayInputStream(s.file), 1 << 20)
+                .forEachLine((buf, from, to, end) -> bh.consume(to - from));
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.loader.bench;
+
+import com.example.loader.pipeline.EquityLineParser;
+import com.example.loader.pipeline.LineParser;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 所有基准共用的数据：一份 ROWS 行的合成文件，以及预先切好的行、字段和规整后的行。
+ * 坏行比例用 -p badRatio=... 调整。
+ */
+@State(Scope.Benchmark)
+public class LoaderState {
+
+    /** 每次调用处理的行数（各基准用 @OperationsPerInvocation(ROWS) 换算成「每行」） */
+    public static final int ROWS = 100_000;
+
+    public static final int SHARDS = 16;
+
+    @Param({"0", "0.01", "0.1"})
+    public double badRatio;
+
+    /** 整个文件 */
+    public byte[] file;
+    public ByteBuffer fileBuf;
+    /** 第 i 行在 file 中的 [start[i], end[i])，不含换行 */
+    public int[] start, end;
+    /** 各字段原文（已 trim），坏行也照样切出来；列数不足的行补空串 */
+    public String[] ts, cust, acc, bal;
+
+    /** 解析成功的规整行（COPY text 格式） */
+    public byte[][] rows;
+    public int goodRows;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        file = SyntheticEquityFile.generate(ROWS, badRatio, 42);
+        fileBuf = ByteBuffer.wrap(file);
+
+        start = new int[ROWS];
+        end = new int[ROWS];
+        int n = 0, s = 0;
+        for (int i = 0; i < file.length; i++) {
+            if (file[i] == '\n') {
+                start[n] = s;
+                end[n] = i;
+                n++;
+                s = i + 1;
+            }
+        }
+
+        ts = new String[ROWS];
+        cust = new String[ROWS];
+        acc = new String[ROWS];
+        bal = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            String line = new String(file, start[i], end[i] - start[i], StandardCharsets.UTF_8);
+            String[] f = Arrays.copyOf(line.split("\\|", -1), 5);
+            ts[i] = trim(f[0]);
+            cust[i] = trim(f[1]);
+            acc[i] = trim(f[2]);
+            bal[i] = trim(f[4]);
+        }
+
+        EquityLineParser parser = new EquityLineParser();
+        byte[] out = new byte[LineParser.MAX_ROW];
+        List<byte[]> ok = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            int len = parser.parse(fileBuf, start[i], end[i], out, 0);
+            if (len > 0) ok.add(Arrays.copyOf(out, len));
+        }
+        goodRows = ok.size();
+        rows = ok.toArray(new byte[0][]);
+    }
+
+    private static String trim(String s) {
+        return s == null ? "" : s.trim();
+    }
+}
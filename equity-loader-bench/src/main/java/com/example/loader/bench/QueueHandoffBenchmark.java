@@ -0,0 +1,121 @@
+package com.example.loader.bench;
+
+import com.example.loader.pipeline.CopyPipeline;
+import com.example.loader.pipeline.EquityLineParser;
+import com.example.loader.pipeline.FileSegments;
+import com.example.loader.pipeline.RejectSink;
+import com.example.loader.pipeline.ShardWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读线程 → 写线程的交接：用装载里的 CopyPipeline 跑整份合成文件，读线程按 routeKey 把行追加进 ChunkPool 借来的块、
+ * 整块交给 LaneScheduler，写线程认领 lane、写完把块还回池里；写入端不连库，只累计字节数。
+ * 每行成本 = 读 + 解析 + 路由 + 交接，减去 ValidationBenchmark.byteParser 即交接本身；
+ * 调 writers / readers / chunkKB 看竞争与块大小的影响（readers &gt; 1 为 mmap 多段并行读）。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(LoaderState.ROWS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class QueueHandoffBenchmark {
+
+    /** 写线程数（lane 数固定为 SHARDS） */
+    @Param({"4", "16"})
+    public int writers;
+
+    /** 读线程数：1 为整文件顺序读，更多为 mmap 分段并行读 */
+    @Param({"1", "4"})
+    public int readers;
+
+    /** 单个数据块大小（装载默认 256KB；小块时每条 lane 交接次数多，更能看出池与调度的开销） */
+    @Param({"16", "256"})
+    public int chunkKB;
+
+    private Path dir;
+    private Path input;
+    private List<FileSegments.Segment> segments;
+
+    @Setup(Level.Trial)
+    public void setup(LoaderState s) throws IOException {
+        dir = Files.createTempDirectory("handoff-bench");
+        input = dir.resolve("equity.txt");
+        Files.write(input, s.file);
+        try (FileChannel ch = FileChannel.open(input, StandardOpenOption.READ)) {
+            segments = FileSegments.split(ch, readers);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("equity.bad"));
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(dir);
+    }
+
+    /** @return 写入端收到的字节数之和（交给 JMH 消费，防止写入端被优化掉） */
+    @Benchmark
+    public long handoff() throws IOException {
+        CountingWriter[] sinks = new CountingWriter[LoaderState.SHARDS];
+        CopyPipeline pipeline = new CopyPipeline("BENCH", LoaderState.SHARDS, EquityLineParser::new,
+                (lane, listener) -> sinks[lane] = new CountingWriter());
+        pipeline.writers(writers);
+        pipeline.buffers(64L << 20, chunkKB << 10);
+        pipeline.progressLog(0);
+        try (RejectSink rejects = new RejectSink(dir.resolve("equity.bad"), 10_000, "bench-rejects")) {
+            pipeline.run(input, segments, readers > 1, rejects);
+        }
+        long bytes = 0;
+        for (CountingWriter w : sinks) if (w != null) bytes += w.bytes + w.tail;
+        return bytes;
+    }
+
+    /** 不连库的写入端：只累计字节数与行数，finish 即「提交」 */
+    private static final class CountingWriter implements ShardWriter {
+        long bytes;
+        long rows;
+        /** 每块最后一个字节之和：保证块内容真的被写线程读到 */
+        long tail;
+
+        @Override
+        public void write(byte[] buf, int off, int len, int rows) {
+            this.bytes += len;
+            this.tail += buf[off + len - 1];
+            this.rows += rows;
+        }
+
+        @Override
+        public void finish() { }
+
+        @Override
+        public long committedRows() {
+            return rows;
+        }
+
+        @Override
+        public void close() { }
+    }
+}
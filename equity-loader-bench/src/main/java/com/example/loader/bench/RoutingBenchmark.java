@@ -0,0 +1,81 @@
+package com.example.loader.bench;
+
+import com.example.loader.pipeline.EquityLineParser;
+import com.example.loader.pipeline.LineParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片路由：装载按 EquityLineParser.routeKey() % 分片数选 lane，路由键由解析器在校验客户号时算出，
+ * 没有单独的路由函数，因此这里对只含好行的输入各走一遍解析器的两条路径再取 lane：
+ * - stringPath：parseSlow，客户号补齐成 String 后 Long.parseLong（旧口径）；
+ * - bytePath：parse（字节快路径），在客户号字节上边校验边累加。
+ * 与 ValidationBenchmark 的差别是输入不含坏行，只看好行上的规整 + 路由。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(LoaderState.ROWS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RoutingBenchmark {
+
+    private final EquityLineParser parser = new EquityLineParser();
+    private final byte[] out = new byte[LineParser.MAX_ROW];
+
+    /** 好行（规整后的行，去掉换行）连成的缓冲，第 i 行为 [start[i], end[i]) */
+    private ByteBuffer good;
+    private int[] start, end;
+
+    @Setup
+    public void setup(LoaderState s) {
+        int total = 0;
+        for (int i = 0; i < s.goodRows; i++) total += s.rows[i].length;
+        byte[] buf = new byte[total];
+        start = new int[s.goodRows];
+        end = new int[s.goodRows];
+        int p = 0;
+        for (int i = 0; i < s.goodRows; i++) {
+            byte[] r = s.rows[i];
+            System.arraycopy(r, 0, buf, p, r.length);
+            start[i] = p;
+            end[i] = p + r.length - 1;
+            p += r.length;
+        }
+        good = ByteBuffer.wrap(buf);
+    }
+
+    @Benchmark
+    public void stringPath(LoaderState s, Blackhole bh) {
+        for (int i = 0; i < LoaderState.ROWS; i++) {
+            int k = i % s.goodRows;
+            if (parser.parseSlow(good, start[k], end[k], out, 0) > 0) {
+                bh.consume((int) (parser.routeKey() % LoaderState.SHARDS));
+            }
+        }
+    }
+
+    @Benchmark
+    public void bytePath(LoaderState s, Blackhole bh) {
+        for (int i = 0; i < LoaderState.ROWS; i++) {
+            int k = i % s.goodRows;
+            if (parser.parse(good, start[k], end[k], out, 0) > 0) {
+                bh.consume((int) (parser.routeKey() % LoaderState.SHARDS));
+            }
+        }
+    }
+}
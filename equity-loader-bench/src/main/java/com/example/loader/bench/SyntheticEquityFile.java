@@ -0,0 +1,45 @@
+package com.example.loader.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * 合成资产文件：与生产文件同样的 `biz_dt|customer_no|account_no|ccy|balance` 格式，
+ * 按 badRatio 混入各类坏行（时间非法、客户号超长/含字母、账号超长、币种非法、金额非法、列数不对），
+ * 同时带一些首尾空格、短客户号（需左补 0）等要走规整逻辑的好行。
+ */
+public final class SyntheticEquityFile {
+
+    private static final String[] CCY = {"CNY", "USD", "HKD", "EUR", "JPY", "cny"};
+
+    private SyntheticEquityFile() { }
+
+    public static byte[] generate(int rows, double badRatio, long seed) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder(rows * 64);
+        for (int i = 0; i < rows; i++) {
+            String ts = String.format("2025-%02d-%02d %02d:%02d:%02d",
+                    1 + rnd.nextInt(12), 1 + rnd.nextInt(28), rnd.nextInt(24), rnd.nextInt(60), rnd.nextInt(60));
+            String cust = String.valueOf(rnd.nextInt(rnd.nextInt(8) == 0 ? 100000 : 1_000_000_000));
+            String acc = "6222" + String.format("%012d", (long) (rnd.nextDouble() * 1e12));
+            String ccy = CCY[rnd.nextInt(CCY.length)];
+            String bal = (rnd.nextInt(20) == 0 ? "-" : "") + rnd.nextInt(10_000_000)
+                    + (rnd.nextBoolean() ? "." + rnd.nextInt(100) : "");
+
+            if (rnd.nextDouble() < badRatio) {
+                switch (rnd.nextInt(6)) {
+                    case 0: ts = "2025-13-01 10:00:00"; break;
+                    case 1: cust = "12345678901"; break;
+                    case 2: acc = "62220000000000000000"; break;
+                    case 3: ccy = "C1Y"; break;
+                    case 4: bal = "12.345"; break;
+                    default: bal = bal + "|extra"; break;
+                }
+            }
+            if (rnd.nextInt(50) == 0) cust = " " + cust + " ";
+            sb.append(ts).append('|').append(cust).append('|').append(acc).append('|')
+              .append(ccy).append('|').append(bal).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.loader.bench;
+
+import com.example.loader.pipeline.EquityLineParser;
+import com.example.loader.pipeline.LineParser;
+import com.example.loader.pipeline.TextChecks;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 校验与规整（都调用 EquityLineParser 本身）：
+ * - legacyRow：只走慢路径 parseSlow，即旧实现整行口径（解码 → split → trim → isTs/isAllDigits/isAlpha/正则 → 拼接 → getBytes）；
+ * - byteParser：parse，纯 ASCII 行走字节快路径，坏行回退慢路径（装载实际走的路径）；
+ * - 其余为单个字段的旧校验，便于看清每项各占多少。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(LoaderState.ROWS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ValidationBenchmark {
+
+    /** 慢路径用 String.matches，每次都会重新编译；对比预编译 */
+    private static final Pattern BALANCE = Pattern.compile(TextChecks.BALANCE_REGEX);
+
+    private final EquityLineParser parser = new EquityLineParser();
+    private final byte[] out = new byte[LineParser.MAX_ROW];
+
+    @Benchmark
+    public void legacyRow(LoaderState s, Blackhole bh) {
+        for (int i = 0; i < LoaderState.ROWS; i++) {
+            bh.consume(parser.parseSlow(s.fileBuf, s.start[i], s.end[i], out, 0));
+        }
+    }
+
+    @Benchmark
+    public void byteParser(LoaderState s, Blackhole bh) {
+        for (int i = 0; i < LoaderState.ROWS; i++) {
+            bh.consume(parser.parse(s.fileBuf, s.start[i], s.end[i], out, 0));
+        }
+    }
+
+    @Benchmark
+    public void isTs(LoaderState s, Blackhole bh) {
+        for (String v : s.ts) bh.consume(TextChecks.isTs(v));
+    }
+
+    @Benchmark
+    public void isAllDigits(LoaderState s, Blackhole bh) {
+        for (String v : s.acc) bh.consume(TextChecks.isAllDigits(v));
+    }
+
+    @Benchmark
+    public void balanceMatches(LoaderState s, Blackhole bh) {
+        for (String v : s.bal) bh.consume(v.matches(TextChecks.BALANCE_REGEX));
+    }
+
+    @Benchmark
+    public void balancePrecompiled(LoaderState s, Blackhole bh) {
+        for (String v : s.bal) bh.consume(BALANCE.matcher(v).matches());
+    }
+
+    @Benchmark
+    public void leftPadToLen(LoaderState s, Blackhole bh) {
+        for (String v : s.cust) bh.consume(TextChecks.leftPadToLen(v, 10));
+    }
+}
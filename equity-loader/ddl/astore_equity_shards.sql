@@ -62,6 +62,46 @@ CREATE INDEX IF NOT EXISTS idx_relation_mgr
 COMMENT ON TABLE tb_customer_relation IS '客户-客户经理关系（一对多：经理 -> 多客户）';
 
 
+-- 装载检查点（断点续传）：每个 (输入文件, 分表, 文件段) 一行，与该分表的 COPY 同事务提交
+-- 装载器启动时也会 CREATE IF NOT EXISTS
+CREATE TABLE IF NOT EXISTS loader_checkpoint (
+  file_key        VARCHAR(512) NOT NULL,   -- 输入文件绝对路径
+  tbl             VARCHAR(64)  NOT NULL,   -- 目标分表
+  segment         INT          NOT NULL,   -- 文件段号（stream 模式只有 0）
+  seg_start       BIGINT       NOT NULL,
+  seg_end         BIGINT       NOT NULL,
+  byte_offset     BIGINT       NOT NULL,   -- 该段内结束偏移 <= 此值、路由到该表的行均已提交
+  committed_rows  BIGINT       NOT NULL,   -- 该段路由到该表并已提交的行数
+  file_size       BIGINT       NOT NULL,
+  file_mtime      BIGINT       NOT NULL,
+  updated_at      TIMESTAMP    NOT NULL,
+  PRIMARY KEY (file_key, tbl, segment)
+);
+
+-- 多节点协同装载（loader.coordinator.enabled=true）：一个输入文件一个 job，按字节切成工作单元，
+-- 各节点 FOR UPDATE SKIP LOCKED 认领；装载器启动时也会 CREATE IF NOT EXISTS
+CREATE TABLE IF NOT EXISTS loader_work_job (
+  job_key      VARCHAR(600) NOT NULL PRIMARY KEY,  -- 文件绝对路径@大小:修改时间
+  units        INT          NOT NULL,
+  created_at   TIMESTAMP    NOT NULL,
+  reported_by  VARCHAR(128),                       -- 发出回调的节点
+  reported_at  TIMESTAMP
+);
+CREATE TABLE IF NOT EXISTS loader_work_unit (
+  job_key      VARCHAR(600) NOT NULL,
+  unit         INT          NOT NULL,   -- 单元号，亦即检查点里的段号
+  seg_start    BIGINT       NOT NULL,
+  seg_end      BIGINT       NOT NULL,
+  status       VARCHAR(8)   NOT NULL,   -- pending / running / done
+  owner        VARCHAR(128),            -- 认领（完成）的节点
+  attempts     INT          NOT NULL,   -- 被认领次数，>1 说明被接手过
+  heartbeat_at TIMESTAMP,               -- 租约：过期的 running 单元可被其他节点接手
+  ok_rows      BIGINT,
+  bad_rows     BIGINT,
+  skipped_rows BIGINT,
+  PRIMARY KEY (job_key, unit)
+);
+
 -- 防止插重
 CREATE TABLE IF NOT EXISTS mq_inbox (
   tx_id VARCHAR(32) PRIMARY KEY
@@ -0,0 +1,34 @@
+package com.example.loader.controller;
+
+import com.example.loader.pipeline.LoadMetrics;
+import com.example.loader.service.LoadMetricsRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * 装载过程中的实时指标：各 lane 行/字节速率、队列深度、读写两侧阻塞时间、COPY 延迟分布。
+ */
+@RestController
+@RequiredArgsConstructor
+public class LoadMetricsController {
+
+  private final LoadMetricsRegistry registry;
+
+  // 全部装载
+  @GetMapping("/loader/metrics")
+  public Map<String, Object> all() {
+    return registry.snapshot();
+  }
+
+  // 单个装载：EQUITY / RELATION
+  @GetMapping("/loader/metrics/{name}")
+  public ResponseEntity<Map<String, Object>> one(@PathVariable("name") String name) {
+    LoadMetrics m = registry.get(name.toUpperCase());
+    return m == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(m.snapshot());
+  }
+}
@@ -0,0 +1,130 @@
+package com.example.loader.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个分片（lane）的自适应 COPY 批大小（按字节），在 [minBytes, maxBytes] 内随实测吞吐与延迟调整：
+ * - 爬坡：每 WINDOW 批算一次吞吐（字节/秒），比上一窗口好就沿当前方向继续（×1.25 或 ×0.8），
+ *   明显变差就掉头；撞到上下界也掉头。库空闲时批会逐步变大，WAL/检查点压力上来后又会退回来；
+ * - 退避：单批「每字节耗时」超过基线（指数滑动平均）的 spikeFactor 倍，或单批耗时超过 maxLatencyMs，
+ *   立即减半并重新开始爬坡；尖峰只按小权重计入基线，持续变慢时基线会慢慢跟上，不会一直退到下界。
+ * 只由该 lane 的写线程调用 copied()；当前批大小与决策计数可被指标接口并发读取。
+ */
+@Slf4j
+public class AdaptiveBatchSizer {
+
+    /** 每几批做一次爬坡决策（单批抖动太大） */
+    private static final int WINDOW = 3;
+    /** 吞吐变化小于此比例视为持平 */
+    private static final double TOLERANCE = 0.05;
+    private static final double GROW = 1.25;
+    private static final double SHRINK = 0.8;
+
+    private final String label;
+    private final long minBytes;
+    private final long maxBytes;
+    private final double spikeFactor;
+    private final long maxLatencyNanos;
+
+    private volatile long targetBytes;
+    private volatile String lastDecision = "init";
+    private volatile long grows, shrinks, backoffs;
+
+    private int direction = 1;
+    private double baselineNsPerByte;
+    private double prevRate;
+    private int windowBatches;
+    private long windowBytes, windowNanos;
+
+    /**
+     * @param initialBytes 初始批大小
+     * @param spikeFactor  单批每字节耗时超过基线多少倍算尖峰
+     * @param maxLatencyMs 单批耗时上限（毫秒），超过也退避；&lt;=0 不限
+     */
+    public AdaptiveBatchSizer(String label, long minBytes, long maxBytes, long initialBytes,
+                              double spikeFactor, long maxLatencyMs) {
+        this.label = label;
+        this.minBytes = Math.max(LineParser.MAX_ROW, minBytes);
+        this.maxBytes = Math.max(this.minBytes, maxBytes);
+        this.spikeFactor = spikeFactor;
+        this.maxLatencyNanos = maxLatencyMs > 0 ? TimeUnit.MILLISECONDS.toNanos(maxLatencyMs) : Long.MAX_VALUE;
+        this.targetBytes = clamp(initialBytes);
+    }
+
+    /** 当前批大小（字节），攒到这么多就提交一批 */
+    public long targetBytes() { return targetBytes; }
+
+    /** 一批提交完成后回报（写线程调用） */
+    public void copied(long bytes, long nanos) {
+        if (bytes <= 0 || nanos <= 0) return;
+        double nsPerByte = (double) nanos / bytes;
+        boolean spike = nanos > maxLatencyNanos
+                || (baselineNsPerByte > 0 && nsPerByte > baselineNsPerByte * spikeFactor);
+        baselineNsPerByte = baselineNsPerByte == 0 ? nsPerByte
+                : baselineNsPerByte * (spike ? 0.9 : 0.7) + nsPerByte * (spike ? 0.1 : 0.3);
+        if (spike) {
+            long was = targetBytes;
+            targetBytes = clamp(was / 2);
+            backoffs++;
+            lastDecision = "backoff";
+            restartWindow();
+            direction = 1;
+            prevRate = 0;
+            log.info("{} COPY latency spike ({} ms for {} bytes), batch {} -> {} bytes",
+                    label, TimeUnit.NANOSECONDS.toMillis(nanos), bytes, was, targetBytes);
+            return;
+        }
+
+        windowBatches++;
+        windowBytes += bytes;
+        windowNanos += nanos;
+        if (windowBatches < WINDOW) return;
+        double rate = (double) windowBytes / windowNanos;
+        restartWindow();
+        if (prevRate > 0 && rate < prevRate * (1 - TOLERANCE)) direction = -direction; // 上一步变差了，掉头
+        prevRate = rate;
+
+        long next = clamp((long) (targetBytes * (direction > 0 ? GROW : SHRINK)));
+        if (next == targetBytes) {
+            direction = -direction; // 撞到边界
+            lastDecision = "hold";
+            return;
+        }
+        if (next > targetBytes) {
+            grows++;
+            lastDecision = "grow";
+        } else {
+            shrinks++;
+            lastDecision = "shrink";
+        }
+        log.debug("{} batch {} -> {} bytes ({} MB/s)", label, targetBytes, next, (long) (rate * 1e9 / (1 << 20)));
+        targetBytes = next;
+    }
+
+    private void restartWindow() {
+        windowBatches = 0;
+        windowBytes = 0;
+        windowNanos = 0;
+    }
+
+    private long clamp(long bytes) {
+        return Math.max(minBytes, Math.min(maxBytes, bytes));
+    }
+
+    /** 指标：当前批大小、上下界与各类决策次数 */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("batchBytes", targetBytes);
+        m.put("batchMinBytes", minBytes);
+        m.put("batchMaxBytes", maxBytes);
+        m.put("batchGrows", grows);
+        m.put("batchShrinks", shrinks);
+        m.put("batchBackoffs", backoffs);
+        m.put("batchLastDecision", lastDecision);
+        return m;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.loader.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于字节的顺序行读取器（替代 BufferedReader.readLine，不解码、不建 String）：
+ * - 从 InputStream 整块读入可复用的 byte[]，用 {@link Swar} 找行结束符后逐行回调；
+ * - 行结束符口径与 readLine 一致：'\n'、'\r'、"\r\n"；末尾无换行的最后一行同样回调；
+ * - 跨块的半行会被挪到缓冲头部续读，超长行自动扩容。
+ */
+public final class ByteLineReader {
+
+    private final InputStream in;
+    private byte[] buf;
+    private ByteBuffer view;
+    /** buf[0] 在输入流中的字节偏移 */
+    private long base;
+
+    public ByteLineReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buf = new byte[bufferSize];
+        this.view = ByteBuffer.wrap(buf);
+    }
+
+    /**
+     * 读完整个输入流。
+     * @return 回调的行数
+     */
+    public long forEachLine(LineHandler handler) throws Exception {
+        long lines = 0;
+        int start = 0, limit = 0;
+        boolean eof = false;
+        while (true) {
+            int scan = start;
+            while (true) {
+                int i = Swar.indexOfLineEnd(view, scan, limit);
+                if (i < 0) break;
+                // '\r' 落在已读数据末尾：要等下一块才知道后面是不是 '\n'
+                if (buf[i] == '\r' && i == limit - 1 && !eof) break;
+                int next = (buf[i] == '\r' && i + 1 < limit && buf[i + 1] == '\n') ? i + 2 : i + 1;
+                handler.onLine(view, start, i, base + next);
+                lines++;
+                start = scan = next;
+            }
+            if (eof) {
+                if (start < limit) {
+                    handler.onLine(view, start, limit, base + limit);
+                    lines++;
+                }
+                return lines;
+            }
+
+            // 把未完成的半行挪到头部，必要时扩容，再继续读
+            int rest = limit - start;
+            if (rest == buf.length) {
+                byte[] bigger = new byte[buf.length * 2];
+                System.arraycopy(buf, start, bigger, 0, rest);
+                buf = bigger;
+                view = ByteBuffer.wrap(buf);
+            } else if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, rest);
+            }
+            base += start;
+            start = 0;
+            limit = rest;
+            int n = readFully(limit);
+            if (n < 0) eof = true; else limit += n;
+        }
+    }
+
+    private int readFully(int off) throws IOException {
+        int total = 0;
+        while (off + total < buf.length) {
+            int n = in.read(buf, off + total, buf.length - off - total);
+            if (n < 0) return total == 0 ? -1 : total;
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.loader.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * 装载检查点表 loader_checkpoint 的读写：
+ * - 一行 = (输入文件, 目标表, 文件段)：该段中路由到该表的行，结束偏移 ≤ byte_offset 的都已提交，共 committed_rows 行；
+ * - 写入由 {@link ShardCheckpoint} 在 COPY 的同一事务里完成，提交即生效，不会出现「数据已提交、检查点没跟上」；
+ * - 同时记下文件大小、修改时间和段边界，续传时不一致就拒绝，避免拿旧检查点跳过新文件的数据。
+ */
+@Slf4j
+public class CheckpointStore {
+
+    static final String TABLE = "loader_checkpoint";
+
+    static final String UPSERT_SQL = "INSERT INTO " + TABLE +
+            " (file_key, tbl, segment, seg_start, seg_end, byte_offset, committed_rows, file_size, file_mtime, updated_at)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, now())" +
+            " ON CONFLICT (file_key, tbl, segment) DO UPDATE SET byte_offset = EXCLUDED.byte_offset," +
+            " committed_rows = EXCLUDED.committed_rows, updated_at = now()";
+
+    /** 单个分表的检查点（提交结果未知时用来确认） */
+    static final String SELECT_SHARD_SQL = "SELECT segment, byte_offset, committed_rows FROM " + TABLE +
+            " WHERE file_key = ? AND tbl = ?";
+
+    private final DataSource dataSource;
+
+    public CheckpointStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /** 建表（与 ddl/astore_equity_shards.sql 中一致） */
+    public void ensureTable() throws SQLException {
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+                    " file_key VARCHAR(512) NOT NULL, tbl VARCHAR(64) NOT NULL, segment INT NOT NULL," +
+                    " seg_start BIGINT NOT NULL, seg_end BIGINT NOT NULL," +
+                    " byte_offset BIGINT NOT NULL, committed_rows BIGINT NOT NULL," +
+                    " file_size BIGINT NOT NULL, file_mtime BIGINT NOT NULL, updated_at TIMESTAMP NOT NULL," +
+                    " PRIMARY KEY (file_key, tbl, segment))");
+        }
+    }
+
+    /** 新一轮全量装载：清掉该文件的旧检查点 */
+    public void clear(String fileKey) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement("DELETE FROM " + TABLE + " WHERE file_key = ?")) {
+            ps.setString(1, fileKey);
+            int n = ps.executeUpdate();
+            if (n > 0) log.info("cleared {} checkpoints of {}", n, fileKey);
+        }
+    }
+
+    /**
+     * 读取续传水位。
+     * @return watermark[table][segment]：该段中结束偏移 ≤ 水位的行已提交；没有检查点的取段起点
+     * @throws IllegalStateException 检查点与当前文件或切段不一致
+     */
+    public long[][] load(String fileKey, long fileSize, long fileMtime,
+                         List<FileSegments.Segment> segments, List<String> tables) throws SQLException {
+        long[][] watermark = new long[tables.size()][segments.size()];
+        for (long[] w : watermark) {
+            for (int s = 0; s < segments.size(); s++) w[s] = segments.get(s).start;
+        }
+        String sql = "SELECT tbl, segment, seg_start, seg_end, byte_offset, committed_rows, file_size, file_mtime" +
+                " FROM " + TABLE + " WHERE file_key = ?";
+        int found = 0;
+        long committed = 0;
+        try (Connection conn = dataSource.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, fileKey);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String tbl = rs.getString(1);
+                    int seg = rs.getInt(2);
+                    if (rs.getLong(7) != fileSize || rs.getLong(8) != fileMtime) {
+                        throw new IllegalStateException("检查点对应的文件已变化（大小/修改时间不一致），请清空目标表后关闭 loader.resume 重新装载: " + fileKey);
+                    }
+                    int t = tables.indexOf(tbl);
+                    if (t < 0) continue;
+                    if (seg >= segments.size() || segments.get(seg).start != rs.getLong(3)
+                            || segments.get(seg).end != rs.getLong(4)) {
+                        throw new IllegalStateException("检查点的切段与本次不一致（readMode/readers 改过？）: " + tbl + " segment#" + seg);
+                    }
+                    watermark[t][seg] = rs.getLong(5);
+                    committed += rs.getLong(6);
+                    found++;
+                }
+            }
+        }
+        log.info("resume {}: {} checkpoints, {} rows already committed", fileKey, found, committed);
+        return watermark;
+    }
+
+    /**
+     * 续传前核对影子表/增量表：它们只装本文件的数据，行数应正好等于检查点记下的已提交行数。
+     * 不一致（例如旧版本留下的 UNLOGGED 表在数据库崩溃后被清空）就拒绝续传，避免把丢掉的行当成已装完跳过。
+     * @throws IllegalStateException 行数不一致
+     */
+    public void verifyRows(String fileKey, List<String> tables) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            java.util.Map<String, Long> committed = new java.util.HashMap<>();
+            try (PreparedStatement ps = conn.prepareStatement("SELECT tbl, SUM(committed_rows) FROM " + TABLE +
+                    " WHERE file_key = ? GROUP BY tbl")) {
+                ps.setString(1, fileKey);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) committed.put(rs.getString(1), rs.getLong(2));
+                }
+            }
+            try (Statement st = conn.createStatement()) {
+                for (String t : tables) {
+                    long expected = committed.getOrDefault(t, 0L);
+                    long actual;
+                    try (ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + t)) {
+                        rs.next();
+                        actual = rs.getLong(1);
+                    }
+                    if (actual != expected) {
+                        throw new IllegalStateException("续传核对失败：" + t + " 有 " + actual + " 行，检查点记录已提交 " + expected
+                                + " 行（UNLOGGED 表崩溃后会被清空），请关闭 loader.resume 重新装载: " + fileKey);
+                    }
+                }
+            }
+        }
+        log.info("resume {}: row counts of {} tables match checkpoints", fileKey, tables.size());
+    }
+
+    /** 为一个分表创建检查点记录器 */
+    public ShardCheckpoint open(String fileKey, String table, long fileSize, long fileMtime,
+                                List<FileSegments.Segment> segments) {
+        return open(fileKey, table, fileSize, fileMtime, segments, null);
+    }
+
+    /**
+     * 多节点协同装载用：每次提交前在同一事务里确认单元仍归 owner（fileKey 为 job 键，段号即单元号）。
+     */
+    public ShardCheckpoint open(String fileKey, String table, long fileSize, long fileMtime,
+                                List<FileSegments.Segment> segments, String owner) {
+        return new ShardCheckpoint(dataSource, fileKey, table, fileSize, fileMtime, segments, owner);
+    }
+}
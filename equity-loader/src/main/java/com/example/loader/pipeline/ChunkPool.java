@@ -0,0 +1,73 @@
+package com.example.loader.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RowChunk 池：读写线程之间交接的数据块全部从这里借还，
+ * 块数上限 × 块大小就是一次装载在途数据的内存上限（替代原来「队列数 × 队列行数」的隐式上限）。
+ * - 块按需创建，达到上限后 acquire 阻塞，直到写线程归还；
+ * - 写线程失败时 abort：唤醒所有等待中的读线程并让其抛错，不会因为没人归还而永远卡住。
+ */
+final class ChunkPool {
+
+    private final int chunkBytes;
+    private final int maxChunks;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<RowChunk> free = new ArrayDeque<>();
+    private int created;
+    private Throwable failure;
+
+    ChunkPool(int chunkBytes, int maxChunks) {
+        this.chunkBytes = chunkBytes;
+        this.maxChunks = maxChunks;
+    }
+
+    int maxChunks() {
+        return maxChunks;
+    }
+
+    /** 借一个空块；池已用尽时等待归还，池被 abort 时抛 IllegalStateException */
+    RowChunk acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (failure != null) throw new IllegalStateException("chunk pool aborted", failure);
+                RowChunk c = free.poll();
+                if (c != null) return c;
+                if (created < maxChunks) {
+                    created++;
+                    break;
+                }
+                available.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new RowChunk(chunkBytes); // 在锁外分配
+    }
+
+    void release(RowChunk c) {
+        c.reset();
+        lock.lock();
+        try {
+            free.push(c);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void abort(Throwable cause) {
+        lock.lock();
+        try {
+            if (failure == null) failure = cause;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.loader.pipeline;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * ShardWriter 提交事务时的回调：
+ * beforeCommit 与 COPY 在同一连接、同一事务内执行（例如写检查点），随 COPY 一起提交或回滚；
+ * afterCommit 在提交成功后调用；
+ * commitApplied 在 COMMIT 本身出错（例如提交途中断连，结果未知）时调用，由监听方查库判断该事务是否已生效。
+ */
+public interface CommitListener {
+
+    CommitListener NONE = new CommitListener() {
+        @Override
+        public void beforeCommit(Connection conn) { }
+
+        @Override
+        public void afterCommit() { }
+    };
+
+    void beforeCommit(Connection conn) throws SQLException;
+
+    void afterCommit();
+
+    /**
+     * 刚才那次 COMMIT 的结果未知时，另取连接确认它是否已生效。
+     * @return true 已提交；false 未提交（可安全重放）；null 无法判断
+     */
+    default Boolean commitApplied() throws SQLException {
+        return null;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.loader.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 输入文件压缩格式识别：扩展名 .gz / .gzip，或文件头魔数 1F 8B 即视为 gzip，
+ * 边读边解压（不落地解压文件）；否则按普通文本文件读取。
+ */
+public final class CompressedInput {
+
+    private CompressedInput() { }
+
+    public static boolean isGzip(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".gz") || name.endsWith(".gzip")) return true;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(2);
+            while (head.hasRemaining() && ch.read(head) > 0) { }
+            return head.position() == 2 && (head.get(0) & 0xFF) == 0x1F && (head.get(1) & 0xFF) == 0x8B;
+        }
+    }
+
+    /**
+     * 打开输入流：gzip 文件用 {@link ParallelGzipInputStream}（多成员时并行解压），否则直接读文件。
+     * @param threads    解压线程数
+     * @param chunkBytes 并行解压的切块大小（压缩字节）
+     * @param bufferBytes 并行解压已解出、待读取数据的总字节上限
+     */
+    public static InputStream open(Path file, int threads, int chunkBytes, long bufferBytes) throws IOException {
+        return isGzip(file) ? new ParallelGzipInputStream(file, threads, chunkBytes, bufferBytes) : Files.newInputStream(file);
+    }
+}
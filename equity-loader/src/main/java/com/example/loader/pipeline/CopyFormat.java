@@ -0,0 +1,27 @@
+package com.example.loader.pipeline;
+
+/**
+ * COPY 数据格式：把读线程产出的规整 text 行编码成发给 COPY FROM STDIN 的字节。
+ * 队列/缓冲里流转的始终是规整后的 text 行，格式转换只发生在写入 COPY 之前。
+ */
+public interface CopyFormat {
+
+    /** COPY 语句 WITH 之后的选项，例如 (FORMAT text, DELIMITER '|') */
+    String options();
+
+    /** 每次 COPY 开始时先写出的头部（text 格式为空） */
+    byte[] header();
+
+    /** 每次 COPY 结束前写出的尾部（text 格式为空） */
+    byte[] trailer();
+
+    /** 把 rowCount 个完整的规整 text 行编码后追加到 out */
+    void encode(byte[] rows, int off, int len, int rowCount, RowBuffer out);
+
+    /** 按配置名取格式：binary 仅支持资产表的 (biz_dt, customer_no, account_no, ccy, balance) 布局 */
+    static CopyFormat of(String name) {
+        if ("binary".equalsIgnoreCase(name)) return new EquityBinaryCopyFormat();
+        if (name == null || name.isEmpty() || "text".equalsIgnoreCase(name)) return TextCopyFormat.INSTANCE;
+        throw new IllegalArgumentException("unknown copy format: " + name);
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.loader.pipeline;
+
+/**
+ * ShardWriter 每完成一次 COPY 提交时的观测回调（用于吞吐/延迟统计）。
+ * 由写线程调用，实现需轻量。
+ */
+public interface CopyObserver {
+
+    CopyObserver NONE = (rows, bytes, nanos) -> { };
+
+    /**
+     * @param rows  本次提交的行数
+     * @param bytes 本次发给数据库的字节数
+     * @param nanos 本次 COPY（含提交）耗时
+     */
+    void copied(long rows, long bytes, long nanos);
+}
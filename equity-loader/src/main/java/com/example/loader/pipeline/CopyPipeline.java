@@ -0,0 +1,487 @@
+package com.example.loader.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * 通用的「读 → 解析校验 → 路由 → 多路 COPY」流水线（资产、关系装载共用）：
+ *  1) 读：stream 模式单线程顺序读整文件（gzip 输入边读边解压，多成员时并行解压）；
+ *     mmap 模式每个文件段一个线程并行扫描；
+ *  2) 每个读线程持有自己的 LineParser，坏行连同行号、原因码交给 RejectSink 异步写 .bad，好行按「routeKey % lanes」追加到该 lane 的当前数据块，
+ *     块写满（或到检查点）才整块交给对应队列：一次入队交接几千行，不再每行一次加锁、一次分配；
+ *  3) 每条 lane 一个 ShardWriter（由调用方决定写哪张表、batch 还是 stream），写线程数（writers）与 lane 数无关：
+ *     空闲线程认领积压最多的 lane 连续写几块再放手，同一 lane 同时只有一个线程在写；整块写入后把块还回池里复用；
+ *     读完后每条队列放一个结束标记，取到的线程替该 lane 收尾并记下完成时间，所有 lane 收尾后写线程退出；
+ *  4) 数据块来自定长的 ChunkPool，块数 × 块大小即在途数据的内存上限（loader.buffer.*）；
+ *     任一写线程失败会中止池与调度，等块的读线程、其他写线程随之退出，不会卡死；
+ *  5) 可选检查点：读线程定期给各 lane 的当前块附上标记并交出，写线程在 COPY 提交的同一事务里落库；
+ *     续传时结束偏移不超过该 lane 水位的行只计数不入队；
+ *  6) 可选归约（RowReducer，例如每键只留最新一行、按客户号排序）：写线程先把本 lane 的行全部交给归约器，
+ *     读完后只把归约结果写入 COPY；与检查点互斥；
+ *  7) 运行指标（LoadMetrics）：各 lane 吞吐、队列深度、完成时间，读侧阻塞与写线程空闲时间、COPY 提交延迟，
+ *     运行中可随时读取，并按 progressLogSeconds 周期打印一行进度。
+ */
+@Slf4j
+public class CopyPipeline {
+
+    /** 为第 lane 条写线程创建 ShardWriter；listener 需在其每次提交时回调 */
+    public interface WriterFactory {
+        ShardWriter open(int lane, CommitListener listener) throws Exception;
+    }
+
+    /** 行来源：把每一行交给回调（ByteLineReader / MappedLineScanner） */
+    private interface LineSource {
+        long forEachLine(LineHandler handler) throws Exception;
+    }
+
+    private final String name;
+    private final int lanes;
+    private final Supplier<? extends LineParser> parsers;
+    private final WriterFactory writerFactory;
+
+    private List<ShardCheckpoint> checkpoints;
+    private int checkpointInterval;
+    private long[][] skip;
+
+    private int gzipThreads = 4;
+    private int gzipChunkBytes = 8 << 20;
+    private long gzipBufferBytes = 64L << 20;
+
+    private long bufferBudget = 64L << 20;
+    private int chunkBytes = 256 << 10;
+
+    private final LoadMetrics metrics;
+    private int progressLogSeconds = 10;
+
+    private IntFunction<? extends RowReducer> reducers;
+    private Semaphore readerPermits;
+    private int writerThreads;
+    private final Map<Integer, long[]> segmentCounts = new ConcurrentHashMap<>();
+
+    /** 外部中止（abort）的原因，以及正在进行的 run 的块池与调度器 */
+    private volatile RuntimeException aborted;
+    private volatile ChunkPool runningChunks;
+    private volatile LaneScheduler runningQueues;
+
+    /**
+     * @param name          日志前缀，例如 EQUITY / RELATION
+     * @param lanes         lane（队列、目标表）数
+     * @param parsers       解析器工厂（解析器非线程安全，每个读线程一个）
+     * @param writerFactory 每条 lane 的 ShardWriter 工厂
+     */
+    public CopyPipeline(String name, int lanes,
+                        Supplier<? extends LineParser> parsers, WriterFactory writerFactory) {
+        this.name = name;
+        this.lanes = lanes;
+        this.parsers = parsers;
+        this.writerFactory = writerFactory;
+        this.metrics = new LoadMetrics(name, lanes);
+    }
+
+    /** 本流水线的运行指标（构造后即可发布出去，run 期间实时更新） */
+    public LoadMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * 开启写入前归约：每条 lane 一个归约器，读完后才把归约结果写入 COPY。
+     * @param reducers lane -> RowReducer
+     */
+    public void reduce(IntFunction<? extends RowReducer> reducers) {
+        this.reducers = reducers;
+    }
+
+    /**
+     * 与其他装载共用的解析线程预算：每个读线程（整文件或一个文件段）开始前拿一个许可，读完归还。
+     * @param permits null 表示不限
+     */
+    public void readerPermits(Semaphore permits) {
+        this.readerPermits = permits;
+    }
+
+    /**
+     * 写线程数，与 lane 数无关：少于 lane 数时空闲线程轮流认领积压最多的 lane；多于 lane 数无意义，按 lane 数封顶。
+     * @param threads &lt;=0 表示每条 lane 一个
+     */
+    public void writers(int threads) {
+        this.writerThreads = threads;
+    }
+
+    /** 进度日志间隔（秒），0 表示不打印 */
+    public void progressLog(int seconds) {
+        this.progressLogSeconds = seconds;
+    }
+
+    /**
+     * 开启检查点。
+     * @param checkpoints   每条 lane 一个记录器
+     * @param intervalLines 每个文件段每读多少行插一次标记
+     * @param skip          续传水位 [lane][segment]；全新装载传 null
+     */
+    public void enableCheckpoints(List<ShardCheckpoint> checkpoints, int intervalLines, long[][] skip) {
+        this.checkpoints = checkpoints;
+        this.checkpointInterval = intervalLines;
+        this.skip = skip;
+    }
+
+    /** gzip 输入的解压线程数、切块大小（压缩字节）与已解压待读数据的总字节上限 */
+    public void decompression(int threads, int chunkBytes, long bufferBytes) {
+        this.gzipThreads = threads;
+        this.gzipChunkBytes = chunkBytes;
+        this.gzipBufferBytes = bufferBytes;
+    }
+
+    /**
+     * 读写之间的数据块缓冲。
+     * @param budgetBytes 所有在途数据块的总字节上限
+     * @param chunkBytes  单个数据块大小（一次交接的数据量）
+     */
+    public void buffers(long budgetBytes, int chunkBytes) {
+        this.bufferBudget = budgetBytes;
+        this.chunkBytes = Math.max(chunkBytes, LineParser.MAX_ROW);
+    }
+
+    /**
+     * 从外部中止正在进行（或即将开始）的 run，例如多节点装载的租约已丢失：
+     * 读写线程尽快退出，未提交的数据作废，run 以 cause 为原因抛出。
+     */
+    public void abort(RuntimeException cause) {
+        aborted = cause;
+        ChunkPool chunks = runningChunks;
+        LaneScheduler queues = runningQueues;
+        if (chunks != null) chunks.abort(cause);
+        if (queues != null) queues.fail();
+    }
+
+    /** 上次 run 中某个文件段的 {ok, bad, skipped}；该段没读完时为 null */
+    public long[] counts(FileSegments.Segment segment) {
+        return segmentCounts.get(segment.index);
+    }
+
+    /**
+     * 跑完整个文件：读完后等所有写线程提交完毕，任一写线程失败则抛出。
+     * @param segments stream 模式只用第 0 段（整文件）；mmap 模式每段一个读线程
+     * @return {ok, bad, skipped}
+     */
+    public long[] run(Path input, List<FileSegments.Segment> segments, boolean mapped, RejectSink rejects) {
+        if (reducers != null && checkpoints != null) {
+            throw new IllegalStateException(name + ": row reduction cannot be combined with checkpoints");
+        }
+        segmentCounts.clear();
+        // 块池：每个读线程每条 lane 各占一个未满的块，再给每条 lane 留一个周转的块，否则可能互相等死
+        int readerThreads = mapped ? Math.max(1, segments.size()) : 1;
+        int minChunks = (readerThreads + 1) * lanes;
+        int maxChunks = (int) Math.min(Integer.MAX_VALUE, bufferBudget / chunkBytes);
+        if (maxChunks < minChunks) {
+            log.warn("{} buffer budget {} bytes < {} chunks x {} bytes needed by {} readers x {} lanes, raised",
+                    name, bufferBudget, minChunks, chunkBytes, readerThreads, lanes);
+            maxChunks = minChunks;
+        }
+        ChunkPool chunks = new ChunkPool(chunkBytes, maxChunks);
+        log.info("{} buffers: {} chunks x {} KB = {} MB max in flight", name, maxChunks, chunkBytes >> 10,
+                ((long) maxChunks * chunkBytes) >> 20);
+
+        // 每条 lane 一条队列；在途块数受池限制，放入永不阻塞
+        LaneScheduler queues = new LaneScheduler(lanes);
+        for (int i = 0; i < lanes; i++) {
+            final int lane = i;
+            metrics.lane(i).queueDepth(() -> queues.depth(lane));
+        }
+        runningChunks = chunks;
+        runningQueues = queues;
+        if (aborted != null) abort(aborted); // run 开始前已被中止
+
+        metrics.start();
+        ScheduledExecutorService reporter = null;
+        if (progressLogSeconds > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, name.toLowerCase() + "-metrics");
+                t.setDaemon(true);
+                return t;
+            });
+            reporter.scheduleAtFixedRate(() -> log.info(metrics.progressLine()),
+                    progressLogSeconds, progressLogSeconds, TimeUnit.SECONDS);
+        }
+
+        // 启动写线程池：线程数与 lane 数无关，空闲线程认领积压最多的 lane；一条 lane 同时只有一个线程在写
+        int threads = Math.max(1, Math.min(writerThreads > 0 ? writerThreads : lanes, lanes));
+        metrics.writers(threads);
+        log.info("{} writers: {} threads over {} lanes", name, threads, lanes);
+        ExecutorService writers = Executors.newFixedThreadPool(threads);
+        List<Future<?>> writerFutures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            writerFutures.add(writers.submit(() -> copyWorker(queues, chunks)));
+        }
+
+        long[] counts = null;
+        Exception readFailure = null;
+        try {
+            counts = mapped ? readMapped(input, segments, queues, chunks, rejects)
+                    : readStream(input, segments, queues, chunks, rejects);
+        } catch (Exception e) {
+            readFailure = e;
+        } finally {
+            // 通知写线程：读已结束（队列里排在它前面的块照常写完）；等待所有写线程退出
+            queues.endOfStream();
+            writers.shutdown();
+            try { writers.awaitTermination(7, TimeUnit.DAYS); } catch (InterruptedException ignored) {}
+            for (int i = 0; i < lanes; i++) closeLane(queues.slot(i)); // 失败时没收尾的 lane，未提交的数据作废
+            runningChunks = null;
+            runningQueues = null;
+            metrics.finish();
+            if (reporter != null) reporter.shutdownNow();
+        }
+        log.info(metrics.progressLine());
+        log.info(metrics.finishLine());
+
+        // 外部中止优先报告（读写线程此时只是随之退出）；其次是写线程失败（读线程此时多半只是因块池中止而退出）
+        if (aborted != null) throw new RuntimeException(name + " aborted", aborted);
+        for (Future<?> f : writerFutures) {
+            try {
+                f.get();
+            } catch (Exception e) {
+                throw new RuntimeException(name + " COPY writer failed", e);
+            }
+        }
+        if (readFailure != null) throw new RuntimeException(readFailure);
+        return counts;
+    }
+
+    /** 单线程顺序读取（原有方式）；gzip 文件在读的同时解压，行偏移按解压后的字节计 */
+    private long[] readStream(Path input, List<FileSegments.Segment> segments,
+                              LaneScheduler queues, ChunkPool chunks, RejectSink rejects)
+            throws Exception {
+        if (segments.isEmpty()) return new long[3];
+        try (InputStream in = CompressedInput.open(input, gzipThreads, gzipChunkBytes, gzipBufferBytes)) {
+            return readLines(new ByteLineReader(in, 1 << 20)::forEachLine, segments.get(0),
+                    name + " stream", queues, chunks, rejects);
+        }
+    }
+
+    /**
+     * 内存映射 + 多段并行读取：
+     * - 每段一个线程独立扫描、校验、路由到同一组队列；
+     * - 坏行交给同一个 RejectSink（段内行号由它换算成文件行号），计数逐段汇总，与单线程结果一致。
+     */
+    private long[] readMapped(Path input, List<FileSegments.Segment> segments,
+                              LaneScheduler queues, ChunkPool chunks, RejectSink rejects)
+            throws Exception {
+        try (FileChannel ch = FileChannel.open(input, StandardOpenOption.READ)) {
+            log.info("{} mmap read {} bytes in {} segments", name, ch.size(), segments.size());
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, segments.size()));
+            try {
+                List<Future<long[]>> futures = new ArrayList<>();
+                for (FileSegments.Segment seg : segments) {
+                    futures.add(pool.submit(() -> readLines(h -> MappedLineScanner.scan(ch, seg, h),
+                            seg, name + " " + seg, queues, chunks, rejects)));
+                }
+                long[] total = new long[3];
+                for (Future<long[]> f : futures) {
+                    long[] c = f.get();
+                    for (int i = 0; i < total.length; i++) total[i] += c[i];
+                }
+                return total;
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 逐行字节级解析 + 路由入块（单线程与 mmap 分段共用）：
+     * 解析器把规整后的行写进复用缓冲，再拷进目标 lane 的当前块，块满即交给该 lane 的队列。
+     * 开启检查点时每块都带着截至最后一行的标记；另外每 checkpointInterval 行、以及段尾，
+     * 给所有 lane 的当前块附上标记并交出（没有新行的 lane 也推进水位）。
+     * @return {ok, bad, skipped}
+     */
+    private long[] readLines(LineSource source, FileSegments.Segment seg, String label,
+                             LaneScheduler queues, ChunkPool chunks, RejectSink rejects)
+            throws Exception {
+        final boolean marking = checkpoints != null;
+        final long[] c = new long[3]; // ok, bad, skipped
+        final long[] laneRows = new long[lanes]; // 本段路由到各 lane 的行数（含跳过的）
+        final RowChunk[] open = new RowChunk[lanes]; // 各 lane 正在填的块
+        final LineParser parser = parsers.get();
+        final byte[] row = new byte[LineParser.MAX_ROW];
+        final long[] lines = {0}; // 段内行号
+        final long[] lastEnd = {seg.start};
+        if (readerPermits != null) readerPermits.acquire();
+        try {
+            source.forEachLine((buf, from, to, end) -> {
+                lastEnd[0] = end;
+                lines[0]++;
+                int n = parser.parse(buf, from, to, row, 0);
+                if (n < 0) {
+                    RejectReason reason = parser.rejectReason();
+                    rejects.reject(seg.index, lines[0], reason, buf, from, to); // 只拷贝入队，不写盘
+                    c[1]++;
+                    metrics.badRow(reason);
+                } else {
+                    // 路由：按解析器给出的键（客户号）取模，分布较均匀
+                    int lane = (int) (parser.routeKey() % lanes);
+                    laneRows[lane]++;
+                    if (skip != null && end <= skip[lane][seg.index]) {
+                        c[2]++; // 上次已提交
+                    } else {
+                        RowChunk chunk = open[lane];
+                        if (chunk != null && !chunk.fits(n)) {
+                            submit(queues, lane, chunk); // 块满，交给写线程
+                            chunk = null;
+                        }
+                        if (chunk == null) chunk = open[lane] = acquire(chunks, lane); // 池用尽时阻塞
+                        chunk.append(row, n);
+                        // 每块都带上截至本行的标记：块一旦写入，它的水位就随同一次提交落库
+                        if (marking) chunk.mark(seg.index, end, laneRows[lane]);
+                    }
+                    if ((++c[0] % 5_000_000) == 0) { // 大文件进度提示
+                        log.info("{} queued {} rows, bad {}", label, c[0], c[1]);
+                    }
+                }
+                // 本行已处理完，end 之前的行都已进块
+                if (marking && lines[0] % checkpointInterval == 0) {
+                    handOff(open, queues, chunks, seg.index, end, laneRows);
+                }
+            });
+            // 段尾：交出所有未满的块；普通文件的标记即段终点，gzip 输入的偏移是解压后的，取最后一行的结束位置
+            handOff(open, queues, chunks, marking ? seg.index : -1, Math.max(seg.end, lastEnd[0]), laneRows);
+            rejects.segmentDone(seg.index, lines[0]);
+        } finally {
+            if (readerPermits != null) readerPermits.release();
+            // 出错时手里没交出的块直接还回池
+            for (RowChunk chunk : open) {
+                if (chunk != null) chunks.release(chunk);
+            }
+        }
+        log.info("{} read done, ok={} bad={} skipped(committed)={}", label, c[0], c[1], c[2]);
+        segmentCounts.put(seg.index, c);
+        return c;
+    }
+
+    /**
+     * 交出各 lane 的当前块。segment >= 0 时给每条 lane 都附上检查点标记
+     * （该段 offset 之前的行都已入队或上次已提交），没有当前块的 lane 也借一个空块来承载标记。
+     */
+    private void handOff(RowChunk[] open, LaneScheduler queues, ChunkPool chunks,
+                         int segment, long offset, long[] laneRows) throws InterruptedException {
+        for (int i = 0; i < lanes; i++) {
+            RowChunk chunk = open[i];
+            if (segment >= 0) {
+                if (chunk == null) chunk = acquire(chunks, i);
+                chunk.mark(segment, offset, laneRows[i]);
+            }
+            if (chunk != null) submit(queues, i, chunk);
+            open[i] = null;
+        }
+    }
+
+    /** 为 lane 借一个空块，等待时间计入该 lane 的读侧阻塞 */
+    private RowChunk acquire(ChunkPool chunks, int lane) throws InterruptedException {
+        long t0 = System.nanoTime();
+        RowChunk chunk = chunks.acquire();
+        metrics.lane(lane).putBlocked(System.nanoTime() - t0);
+        return chunk;
+    }
+
+    private void submit(LaneScheduler queues, int lane, RowChunk chunk) {
+        metrics.lane(lane).queued(chunk.rows, chunk.size);
+        queues.submit(lane, chunk);
+    }
+
+    /**
+     * 写线程：反复认领积压最多的 lane，连续写最多 TURN 块（整块交给该 lane 的 ShardWriter 或归约器，写完还回池里）后放手；
+     * 取到某 lane 的结束标记即替它收尾。所有 lane 收尾后退出。
+     * 失败时中止块池与调度，让等块的读线程、其他写线程都尽快退出。
+     */
+    private void copyWorker(LaneScheduler queues, ChunkPool chunks) {
+        long[] idle = new long[1];
+        LaneScheduler.Slot slot = null;
+        try {
+            while ((slot = queues.claim(idle)) != null) {
+                metrics.writerIdle(idle[0]);
+                boolean ended = false;
+                for (int n = 0; n < LaneScheduler.TURN && !ended; n++) {
+                    RowChunk chunk = queues.poll(slot);
+                    if (chunk == null) break;
+                    ended = chunk == RowChunk.EOS;
+                    if (ended) finishLane(slot);
+                    else copyChunk(slot, chunk, chunks);
+                }
+                if (ended) queues.done(slot);
+                else queues.release(slot);
+                slot = null;
+            }
+            metrics.writerIdle(idle[0]);
+        } catch (Exception e) {
+            chunks.abort(e);
+            queues.fail();
+            throw new RuntimeException(name + " copyWorker" + (slot != null ? " lane " + (slot.lane + 1) : ""), e);
+        }
+    }
+
+    /** 一块交给 lane 的写入端；写入端在 lane 第一次被认领时打开 */
+    private void copyChunk(LaneScheduler.Slot slot, RowChunk chunk, ChunkPool chunks) throws Exception {
+        try {
+            open(slot);
+            // 先记标记再写：write 内部触发的提交包含本块全部行，标记与之同一事务落库，水位不会落后于已提交数据
+            if (slot.cp != null && chunk.hasMark()) slot.cp.mark(chunk.markSegment, chunk.markOffset, chunk.markRows);
+            if (chunk.rows > 0) {
+                if (slot.reducer != null) slot.reducer.add(chunk.data, 0, chunk.size);
+                else slot.writer.write(chunk.data, 0, chunk.size, chunk.rows);
+            }
+        } finally {
+            chunks.release(chunk);
+        }
+    }
+
+    private void open(LaneScheduler.Slot slot) throws Exception {
+        if (slot.writer != null) return;
+        LoadMetrics.Lane m = metrics.lane(slot.lane);
+        slot.cp = checkpoints != null ? checkpoints.get(slot.lane) : null;
+        slot.writer = writerFactory.open(slot.lane, slot.cp != null ? slot.cp : CommitListener.NONE);
+        slot.writer.observe(m);
+        m.batchSizer(slot.writer.batchSizer());
+        if (reducers != null) slot.reducer = reducers.apply(slot.lane);
+    }
+
+    /** 结束标记：归约结果写入 COPY、提交、落最后的检查点，释放写入端并记下该 lane 的完成时间 */
+    private void finishLane(LaneScheduler.Slot slot) throws Exception {
+        open(slot);
+        LoadMetrics.Lane m = metrics.lane(slot.lane);
+        if (slot.reducer != null) {
+            slot.reducer.drainTo(slot.writer);
+            m.collapsed(slot.reducer.collapsed());
+        }
+        slot.writer.finish();
+        long rows = slot.writer.committedRows();
+        ShardCheckpoint cp = slot.cp;
+        // 先关写入端把 COPY 连接还回池子，再补写检查点：一条 lane 同一时刻只占一条连接
+        closeLane(slot);
+        if (cp != null) cp.flush();
+        m.finished();
+        log.info("{} lane {} copied rows = {}", name, slot.lane + 1, rows);
+    }
+
+    private static void closeLane(LaneScheduler.Slot slot) {
+        if (slot.reducer != null) slot.reducer.close();
+        if (slot.writer != null) slot.writer.close();
+        slot.reducer = null;
+        slot.writer = null;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.loader.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 增量装载：文件只含当天变动的持仓，COPY 写进每个分表旁的 UNLOGGED 增量表（表名 + "_delta"；
+ * 崩溃恢复会清空它，续传前由 CheckpointStore.verifyRows 核对行数，对不上就拒绝续传），
+ * 读完后每个分表用一条集合语句并入线上表，耗时随变动行数而不是总持仓数增长：
+ *  1) 增量表内同键多行先按 biz_dt 取最新；同键的最新 biz_dt 有多行且 balance 不同时无从判断先后
+ *     （增量表的物理顺序不是文件顺序），这个键不并入，这几行作为拒绝行（{@link RejectReason#AMBIGUOUS}）
+ *     追加到坏行文件，其余键照常并入；完全相同的重复行不受影响；
+ *  2) INSERT ... ON CONFLICT (customer_no, account_no, ccy) DO UPDATE ... WHERE 新 biz_dt 更大，
+ *     与消费端 upsertLatestByTimeOnly 同一规则：不比线上新的行不覆盖；
+ *  3) 分表之间并行，每表一条连接、一条语句（自动提交），重复执行结果不变，失败后可直接重跑。
+ * 线上分表需有 (customer_no, account_no, ccy) 唯一约束（见 ddl）。
+ */
+@Slf4j
+public class DeltaMerge {
+
+    public static final String DELTA_SUFFIX = "_delta";
+
+    private final DataSource dataSource;
+    private final int mergeThreads;
+
+    public DeltaMerge(DataSource dataSource, int mergeThreads) {
+        this.dataSource = dataSource;
+        this.mergeThreads = mergeThreads;
+    }
+
+    public static String deltaName(String table) {
+        return table + DELTA_SUFFIX;
+    }
+
+    /**
+     * 建 UNLOGGED 增量表（只复制列与默认值）。
+     * @param keep true（续传）时保留已有增量表及其中已提交的数据，否则清空
+     */
+    public void prepare(List<String> tables, boolean keep) throws SQLException {
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            for (String t : tables) {
+                String delta = deltaName(t);
+                st.execute("CREATE UNLOGGED TABLE IF NOT EXISTS " + delta + " (LIKE " + t + " INCLUDING DEFAULTS)");
+                if (!keep) st.execute("TRUNCATE " + delta);
+            }
+        }
+        log.info("delta tables ready: {} x {} (unlogged){}", tables.size(), DELTA_SUFFIX, keep ? " (kept)" : "");
+    }
+
+    /**
+     * 并行把各增量表并入线上表，无法判断先后的行追加到坏行文件。
+     * @param rejectPath 坏行文件（行号列记为增量表名，文件行号已无从得知）
+     * @return {staged, upserted, stale, rejected}：增量表总行数、实际插入或更新的行数、
+     *         不比线上新而未覆盖的行数、同键最新 biz_dt 而 balance 不同被拒绝的行数；
+     *         其余（staged - 后三者）是被文件内同键更新的行取代的旧行
+     */
+    public long[] merge(List<String> tables, Path rejectPath) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(mergeThreads, tables.size())));
+        List<String> rejects = Collections.synchronizedList(new ArrayList<>());
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (String t : tables) futures.add(pool.submit(() -> merge(t, rejects)));
+            long[] total = new long[4];
+            for (Future<long[]> f : futures) {
+                long[] c = f.get();
+                for (int i = 0; i < total.length; i++) total[i] += c[i];
+            }
+            return total;
+        } finally {
+            pool.shutdownNow();
+            writeRejects(rejectPath, rejects);
+        }
+    }
+
+    private long[] merge(String table, List<String> rejects) throws SQLException {
+        String delta = deltaName(table);
+        long t0 = System.currentTimeMillis();
+        // top：每个键最新 biz_dt 的行，balance 只有一种取值的才并入（n = 1），与 ambiguous() 同一口径
+        String sql = "WITH top AS ("
+                + " SELECT customer_no, account_no, ccy, MIN(biz_dt) AS biz_dt, MIN(balance) AS balance,"
+                + " COUNT(DISTINCT balance) AS n"
+                + " FROM " + newest(delta)
+                + " GROUP BY customer_no, account_no, ccy"
+                + "), src AS (SELECT biz_dt, customer_no, account_no, ccy, balance FROM top WHERE n = 1"
+                + "), up AS ("
+                + " INSERT INTO " + table + " (biz_dt, customer_no, account_no, ccy, balance)"
+                + " SELECT biz_dt, customer_no, account_no, ccy, balance FROM src"
+                + " ON CONFLICT (customer_no, account_no, ccy) DO UPDATE"
+                + " SET biz_dt = EXCLUDED.biz_dt, balance = EXCLUDED.balance"
+                + " WHERE EXCLUDED.biz_dt > " + table + ".biz_dt"
+                + " RETURNING 1"
+                + ") SELECT (SELECT COUNT(*) FROM " + delta + "), (SELECT COUNT(*) FROM src), (SELECT COUNT(*) FROM up)";
+        long[] c = new long[4];
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("ANALYZE " + delta); // 刚 COPY 完没有统计信息，先让优化器知道增量有多小
+            List<String> ambiguous = ambiguous(st, delta);
+            try (ResultSet rs = st.executeQuery(sql)) {
+                rs.next();
+                c[0] = rs.getLong(1);
+                c[1] = rs.getLong(3);
+                c[2] = rs.getLong(2) - c[1];
+                c[3] = ambiguous.size();
+            }
+            rejects.addAll(ambiguous);
+        }
+        log.info("{} merged into {}: staged={} upserted={} stale={} rejected={} superseded={} in {} ms",
+                delta, table, c[0], c[1], c[2], c[3], c[0] - c[1] - c[2] - c[3], System.currentTimeMillis() - t0);
+        return c;
+    }
+
+    /** 增量表中每个键最新 biz_dt 的行（子查询） */
+    private static String newest(String delta) {
+        return "(SELECT customer_no, account_no, ccy, biz_dt, balance,"
+                + " biz_dt = MAX(biz_dt) OVER (PARTITION BY customer_no, account_no, ccy) AS newest"
+                + " FROM " + delta + ") d WHERE newest";
+    }
+
+    /**
+     * 同键最新 biz_dt 有多行且 balance 不同：多段并行 COPY 下增量表的物理顺序（ctid）与文件顺序无关，
+     * 没有依据判断哪一行在文件中靠后，这些行不并入，按坏行文件的格式返回（行号列为增量表名）。
+     */
+    private static List<String> ambiguous(Statement st, String delta) throws SQLException {
+        String sql = "SELECT to_char(biz_dt, 'YYYY-MM-DD HH24:MI:SS') || '|' || customer_no || '|' || rtrim(account_no)"
+                + " || '|' || ccy || '|' || balance"
+                + " FROM " + newest(delta) + " AND (customer_no, account_no, ccy) IN ("
+                + " SELECT customer_no, account_no, ccy FROM " + newest(delta)
+                + " GROUP BY customer_no, account_no, ccy HAVING COUNT(DISTINCT balance) > 1)"
+                + " ORDER BY customer_no, account_no, ccy, balance";
+        List<String> rows = new ArrayList<>();
+        try (ResultSet rs = st.executeQuery(sql)) {
+            while (rs.next()) rows.add(delta + '|' + RejectReason.AMBIGUOUS.name() + '|' + rs.getString(1));
+        }
+        if (!rows.isEmpty()) {
+            log.warn("{}: {} rows share their key's newest biz_dt with a different balance, not merged", delta, rows.size());
+        }
+        return rows;
+    }
+
+    private static void writeRejects(Path rejectPath, List<String> rejects) throws IOException {
+        if (rejects.isEmpty()) return;
+        try (BufferedWriter w = Files.newBufferedWriter(rejectPath, StandardCharsets.US_ASCII,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String line : rejects) {
+                w.write(line);
+                w.write('\n');
+            }
+        }
+    }
+
+    /** 并入完成后清空增量表（保留表结构，下次装载复用） */
+    public void clear(List<String> tables) throws SQLException {
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            for (String t : tables) st.execute("TRUNCATE " + deltaName(t));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.loader.pipeline;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 资产表 COPY binary 编码器，列顺序 (biz_dt, customer_no, account_no, ccy, balance)：
+ * - biz_dt：timestamp，int64 = 距 2000-01-01 00:00:00 的微秒数；
+ * - customer_no / account_no / ccy：bpchar，直接发送文本字节（服务端按列定义补齐）；
+ * - balance：numeric 线格式 = ndigits, weight, sign, dscale（各 int16）+ 万进制数字（int16）。
+ * 输入是解析器已校验、规整过的 text 行，因此这里只做定长位置上的数字换算，不再重复校验；
+ * 服务端省去了对每个时间、金额字段的文本解析。
+ */
+public final class EquityBinaryCopyFormat implements CopyFormat {
+
+    /** PGCOPY\n\377\r\n\0 + flags(0) + 扩展区长度(0) */
+    private static final byte[] HEADER;
+    private static final byte[] TRAILER = {(byte) 0xFF, (byte) 0xFF};
+
+    static {
+        byte[] sig = "PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1);
+        HEADER = new byte[sig.length + 8];
+        System.arraycopy(sig, 0, HEADER, 0, sig.length);
+    }
+
+    private static final int NUMERIC_POS = 0x0000;
+    private static final int NUMERIC_NEG = 0x4000;
+
+    /** 1970-01-01 到 2000-01-01 的天数 */
+    private static final long PG_EPOCH_DAYS = 10957;
+
+    /** 单行编码后的最大字节数：规整行不超过 MAX_ROW，加上 5 个列长、列数与 numeric 头部足够 */
+    private static final int MAX_TUPLE = LineParser.MAX_ROW + 64;
+
+    private final byte[] tuple = new byte[MAX_TUPLE];
+    private final short[] digits = new short[8];
+
+    @Override
+    public String options() { return "(FORMAT binary)"; }
+
+    @Override
+    public byte[] header() { return HEADER.clone(); }
+
+    @Override
+    public byte[] trailer() { return TRAILER.clone(); }
+
+    @Override
+    public void encode(byte[] rows, int off, int len, int rowCount, RowBuffer out) {
+        int end = off + len;
+        int start = off;
+        while (start < end) {
+            int nl = start;
+            while (rows[nl] != '\n') nl++;
+            int n = encodeRow(rows, start, nl);
+            out.append(tuple, 0, n, 1);
+            start = nl + 1;
+        }
+    }
+
+    /** 编码一行 [s, e)（不含 '\n'），结果写入 tuple，返回字节数 */
+    private int encodeRow(byte[] r, int s, int e) {
+        int d1 = indexOf(r, s, e), d2 = indexOf(r, d1 + 1, e), d3 = indexOf(r, d2 + 1, e), d4 = indexOf(r, d3 + 1, e);
+        int p = putShort(tuple, 0, 5);
+
+        p = putInt(tuple, p, 8);
+        p = putLong(tuple, p, micros(r, s));
+
+        p = putText(r, d1 + 1, d2, p);
+        p = putText(r, d2 + 1, d3, p);
+        p = putText(r, d3 + 1, d4, p);
+        return putNumeric(r, d4 + 1, e, p);
+    }
+
+    private static int indexOf(byte[] r, int from, int to) {
+        for (int i = from; i < to; i++) if (r[i] == '|') return i;
+        throw new IllegalArgumentException("malformed normalized row");
+    }
+
+    private int putText(byte[] r, int s, int e, int p) {
+        p = putInt(tuple, p, e - s);
+        System.arraycopy(r, s, tuple, p, e - s);
+        return p + e - s;
+    }
+
+    // ======== timestamp ========
+    private static int num(byte[] r, int i, int len) {
+        int v = 0;
+        for (int k = 0; k < len; k++) v = v * 10 + (r[i + k] - '0');
+        return v;
+    }
+
+    /** "yyyy-MM-dd HH:mm:ss" -> 距 2000-01-01 的微秒数 */
+    static long micros(byte[] r, int s) {
+        long days = daysFromCivil(num(r, s, 4), num(r, s + 5, 2), num(r, s + 8, 2)) - PG_EPOCH_DAYS;
+        long secs = days * 86400L + num(r, s + 11, 2) * 3600L + num(r, s + 14, 2) * 60L + num(r, s + 17, 2);
+        return secs * 1_000_000L;
+    }
+
+    /** 公历日期 -> 距 1970-01-01 的天数（Howard Hinnant 的 days_from_civil 算法，无对象分配） */
+    static long daysFromCivil(int y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153L * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    // ======== numeric ========
+    /** 十进制字符串 -?\d{1,18}(\.\d{1,2})? -> numeric 二进制 */
+    private int putNumeric(byte[] r, int s, int e, int p) {
+        boolean neg = r[s] == '-';
+        if (neg) s++;
+        int dot = s;
+        while (dot < e && r[dot] != '.') dot++;
+        int fracDigits = dot < e ? e - dot - 1 : 0;
+
+        // 去掉整数部分前导 0
+        int is = s;
+        while (is < dot && r[is] == '0') is++;
+        int intDigits = dot - is;
+
+        // 整数部分按 4 位一组从高到低切分（首组可能不足 4 位）
+        int n = 0;
+        int first = intDigits % 4 == 0 ? 4 : intDigits % 4;
+        for (int i = is, take = first; i < dot; i += take, take = 4) {
+            digits[n++] = (short) num(r, i, take);
+        }
+        int weight = n - 1;
+        // 小数部分最多 2 位，补齐到 4 位成一组
+        if (fracDigits > 0) {
+            int frac = num(r, dot + 1, fracDigits);
+            digits[n++] = (short) (fracDigits == 1 ? frac * 1000 : frac * 100);
+        }
+
+        // 去掉首尾的 0 组
+        int lead = 0;
+        while (lead < n && digits[lead] == 0) lead++;
+        weight -= lead;
+        int tail = n;
+        while (tail > lead && digits[tail - 1] == 0) tail--;
+        int ndigits = tail - lead;
+        if (ndigits == 0) {
+            weight = 0;
+            neg = false;
+        }
+
+        p = putInt(tuple, p, 8 + ndigits * 2);
+        p = putShort(tuple, p, ndigits);
+        p = putShort(tuple, p, weight);
+        p = putShort(tuple, p, neg ? NUMERIC_NEG : NUMERIC_POS);
+        p = putShort(tuple, p, fracDigits);
+        for (int i = lead; i < tail; i++) p = putShort(tuple, p, digits[i]);
+        return p;
+    }
+
+    // ======== 大端写入 ========
+    private static int putShort(byte[] b, int p, int v) {
+        b[p] = (byte) (v >>> 8);
+        b[p + 1] = (byte) v;
+        return p + 2;
+    }
+
+    private static int putInt(byte[] b, int p, int v) {
+        b[p] = (byte) (v >>> 24);
+        b[p + 1] = (byte) (v >>> 16);
+        b[p + 2] = (byte) (v >>> 8);
+        b[p + 3] = (byte) v;
+        return p + 4;
+    }
+
+    private static int putLong(byte[] b, int p, long v) {
+        p = putInt(b, p, (int) (v >>> 32));
+        return putInt(b, p, (int) v);
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.loader.pipeline;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.example.loader.pipeline.TextChecks.*;
+
+/**
+ * 资产文件行解析器（biz_dt|customer_no|account_no|ccy|balance）：
+ * - 快路径：纯 ASCII 行上用 SWAR 找分隔符，手写字节校验时间/数字/币种/金额，
+ *   规整后的行（客户号左补 0 到 10 位、币种转大写）直接写入输出缓冲，不产生任何对象；
+ * - 慢路径：快路径不认可的行（含非 ASCII、日期越界等）回退到原来基于 String 的校验，
+ *   因此「哪些行算坏行、好行规整成什么样」与旧实现逐行一致；慢路径只在坏行/异常行上触发。
+ */
+public final class EquityLineParser implements LineParser {
+
+    private static final byte[] PAD = "0000000000".getBytes(StandardCharsets.US_ASCII);
+    private static final int[] DAYS = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private long routeKey;
+    private RejectReason rejectReason;
+    private byte[] scratch = new byte[256];
+
+    @Override
+    public long routeKey() { return routeKey; }
+
+    @Override
+    public RejectReason rejectReason() { return rejectReason; }
+
+    @Override
+    public int parse(ByteBuffer src, int from, int to, byte[] out, int off) {
+        int n = Swar.isAscii(src, from, to) ? parseFast(src, from, to, out, off) : -1;
+        return n > 0 ? n : parseSlow(src, from, to, out, off);
+    }
+
+    // ======== 快路径 ========
+    private int parseFast(ByteBuffer src, int from, int to, byte[] out, int off) {
+        int d1 = Swar.indexOfPipe(src, from, to);
+        if (d1 < 0) return -1;
+        int d2 = Swar.indexOfPipe(src, d1 + 1, to);
+        if (d2 < 0) return -1;
+        int d3 = Swar.indexOfPipe(src, d2 + 1, to);
+        if (d3 < 0) return -1;
+        int d4 = Swar.indexOfPipe(src, d3 + 1, to);
+        if (d4 < 0 || Swar.indexOfPipe(src, d4 + 1, to) >= 0) return -1; // 必须恰好 5 列
+
+        int p = off;
+
+        // biz_dt：yyyy-MM-dd HH:mm:ss
+        int s = trimStart(src, from, d1), e = trimEnd(src, s, d1);
+        if (e - s != 19 || !validTs(src, s)) return -1;
+        for (int i = s; i < e; i++) out[p++] = src.get(i);
+        out[p++] = '|';
+
+        // customer_no：1..10 位数字，左补 0 到 10 位
+        s = trimStart(src, d1 + 1, d2); e = trimEnd(src, s, d2);
+        int len = e - s;
+        if (len < 1 || len > 10) return -1;
+        long cust = 0;
+        System.arraycopy(PAD, 0, out, p, 10 - len);
+        p += 10 - len;
+        for (int i = s; i < e; i++) {
+            byte b = src.get(i);
+            if (b < '0' || b > '9') return -1;
+            cust = cust * 10 + (b - '0');
+            out[p++] = b;
+        }
+        out[p++] = '|';
+
+        // account_no：去掉空格后 1..18 位数字，不补 0
+        s = trimStart(src, d2 + 1, d3); e = trimEnd(src, s, d3);
+        int digits = 0;
+        for (int i = s; i < e; i++) {
+            byte b = src.get(i);
+            if (b == ' ') continue;
+            if (b < '0' || b > '9' || ++digits > 18) return -1;
+            out[p++] = b;
+        }
+        if (digits == 0) return -1;
+        out[p++] = '|';
+
+        // ccy：3 位字母，转大写
+        s = trimStart(src, d3 + 1, d4); e = trimEnd(src, s, d4);
+        if (e - s != 3) return -1;
+        for (int i = s; i < e; i++) {
+            byte b = src.get(i);
+            if (b >= 'a' && b <= 'z') b -= 32;
+            else if (b < 'A' || b > 'Z') return -1;
+            out[p++] = b;
+        }
+        out[p++] = '|';
+
+        // balance：-?\d{1,18}(\.\d{1,2})?
+        s = trimStart(src, d4 + 1, to); e = trimEnd(src, s, to);
+        if (!validBalance(src, s, e)) return -1;
+        for (int i = s; i < e; i++) out[p++] = src.get(i);
+        out[p++] = '\n';
+
+        routeKey = cust;
+        return p - off;
+    }
+
+    /** 与 String.trim 一致：去掉首尾 <= ' ' 的字节 */
+    static int trimStart(ByteBuffer src, int s, int e) {
+        while (s < e && (src.get(s) & 0xFF) <= ' ') s++;
+        return s;
+    }
+
+    static int trimEnd(ByteBuffer src, int s, int e) {
+        while (e > s && (src.get(e - 1) & 0xFF) <= ' ') e--;
+        return e;
+    }
+
+    private static int digit(ByteBuffer src, int i) {
+        int d = src.get(i) - '0';
+        return (d >= 0 && d <= 9) ? d : -1000;
+    }
+
+    private static int num2(ByteBuffer src, int i) {
+        return digit(src, i) * 10 + digit(src, i + 1);
+    }
+
+    /** 19 字节的 yyyy-MM-dd HH:mm:ss，逐字节校验格式与取值范围（含闰年） */
+    private static boolean validTs(ByteBuffer src, int s) {
+        if (src.get(s + 4) != '-' || src.get(s + 7) != '-' || src.get(s + 10) != ' '
+                || src.get(s + 13) != ':' || src.get(s + 16) != ':') return false;
+        int year = num2(src, s) * 100 + num2(src, s + 2);
+        int month = num2(src, s + 5);
+        int day = num2(src, s + 8);
+        int hour = num2(src, s + 11);
+        int minute = num2(src, s + 14);
+        int second = num2(src, s + 17);
+        if (year < 1 || month < 1 || month > 12 || day < 1) return false;
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) return false;
+        int maxDay = DAYS[month - 1];
+        if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) maxDay = 29;
+        return day <= maxDay;
+    }
+
+    private static boolean validBalance(ByteBuffer src, int s, int e) {
+        if (s < e && src.get(s) == '-') s++;
+        int i = s;
+        while (i < e && src.get(i) >= '0' && src.get(i) <= '9') i++;
+        int intDigits = i - s;
+        if (intDigits < 1 || intDigits > 18) return false;
+        if (i == e) return true;
+        if (src.get(i) != '.') return false;
+        int fracDigits = e - i - 1;
+        if (fracDigits < 1 || fracDigits > 2) return false;
+        for (int j = i + 1; j < e; j++) if (src.get(j) < '0' || src.get(j) > '9') return false;
+        return true;
+    }
+
+    // ======== 慢路径：原 String 口径（坏行在这里定原因） ========
+
+    /** 只走慢路径解析一行，口径同 {@link #parse}；装载不直接调用，供基准与快路径对比 */
+    public int parseSlow(ByteBuffer src, int from, int to, byte[] out, int off) {
+        String line = decode(src, from, to);
+        // 以 | 分隔，保留空字段
+        String[] arr = line.split("\\|", -1);
+        if (arr.length != 5) return reject(RejectReason.FIELDS); // 基础列数校验
+
+        String tsRaw   = arr[0].trim();
+        String custRaw = arr[1].trim();
+        String accRaw  = arr[2].trim().replace(" ", "");
+        String ccyRaw  = arr[3].trim();
+        String balRaw  = arr[4].trim();
+
+        if (!isTs(tsRaw)) return reject(RejectReason.TS);
+        // customerNo：数字、≤10；短的左补0；>10 fail
+        if (!isAllDigits(custRaw) || custRaw.length() > 10) return reject(RejectReason.CUSTOMER);
+        String cust = leftPadToLen(custRaw, 10);
+        // accountNo：数字、≤18 合规；>18 fail；短的不补0
+        if (!isAllDigits(accRaw) || accRaw.length() > 18) return reject(RejectReason.ACCOUNT);
+        // ccy：严格 3 位字母
+        if (ccyRaw.length() != 3 || !isAlpha(ccyRaw)) return reject(RejectReason.CCY);
+        // balance：数值
+        if (!balRaw.matches(BALANCE_REGEX)) return reject(RejectReason.BALANCE);
+
+        byte[] row = (tsRaw + "|" + cust + "|" + accRaw + "|" + ccyRaw.toUpperCase() + "|" + balRaw + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+        if (row.length > MAX_ROW) return reject(RejectReason.LENGTH);
+        System.arraycopy(row, 0, out, off, row.length);
+        routeKey = Long.parseLong(cust);
+        return row.length;
+    }
+
+    private int reject(RejectReason reason) {
+        rejectReason = reason;
+        return -1;
+    }
+
+    private String decode(ByteBuffer src, int from, int to) {
+        int len = to - from;
+        if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+        for (int i = 0; i < len; i++) scratch[i] = src.get(from + i);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.loader.pipeline;
+
+/**
+ * 资产规整行（ts(19)|cust(10)|acc(1..18)|CCY|balance）的排序/归约键，按 (hi, lo) 无符号比较即按
+ * 客户号、账号、币种排序，与表上 (customer_no, account_no, ccy) 的顺序一致：
+ * - 账号按字符串比较：数字左对齐补到 18 位（acc × 10^(18 - 位数)，60 位内），相同时短的在前（"1" &lt; "10" &lt; "2"）；
+ *   位数参与编码，不补 0，位数不同即视为不同账号，与表上 CHAR(18) 唯一键的口径一致；
+ * - hi = 客户号(34 位) | 补齐账号高 30 位，lo = 补齐账号低 30 位 | 账号位数(5 位) | 币种(3×5 位)（低 50 位）；
+ * - biz_dt 压成 yyyyMMddHHmmss 数值。
+ * 可变对象，解析一行后读取 hi/lo/ts，每个使用方持有一个。
+ */
+final class EquityRowKey {
+
+    private static final long ACC_LOW = (1L << 30) - 1;
+    private static final long[] POW10 = new long[19];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10;
+    }
+
+    long hi, lo, ts;
+
+    /**
+     * 解析 r 中 [s, e) 的一行（不含 '\n'）。
+     * @return 字段不是 ASCII 数字/字母时 false（慢路径放行的全角数字等，无法编码成键）
+     */
+    boolean parse(byte[] r, int s, int e) {
+        long t = 0;
+        for (int i = s; i < s + 19; i++) {
+            byte b = r[i];
+            if (b >= '0' && b <= '9') t = t * 10 + (b - '0');
+            else if (b != '-' && b != ' ' && b != ':') return false;
+        }
+        long cust = 0;
+        int p = s + 20;
+        for (int i = p; i < p + 10; i++) {
+            byte b = r[i];
+            if (b < '0' || b > '9') return false;
+            cust = cust * 10 + (b - '0');
+        }
+        p += 11;
+        long acc = 0;
+        int accLen = 0;
+        for (; p < e && r[p] != '|'; p++, accLen++) {
+            byte b = r[p];
+            if (b < '0' || b > '9' || accLen >= 18) return false;
+            acc = acc * 10 + (b - '0');
+        }
+        if (accLen == 0 || p + 4 > e || r[p + 4] != '|') return false;
+        int ccy = 0;
+        for (int i = p + 1; i <= p + 3; i++) {
+            byte b = r[i];
+            if (b < 'A' || b > 'Z') return false;
+            ccy = ccy << 5 | (b - 'A' + 1);
+        }
+        long padded = acc * POW10[18 - accLen];
+        hi = cust << 30 | padded >>> 30;
+        lo = (padded & ACC_LOW) << 20 | (long) accLen << 15 | ccy;
+        ts = t;
+        return true;
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.loader.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 按 (customer_no, account_no, ccy) 排序写出的外部排序骨架，{@link ClusteringRowSorter} 与 {@link LatestRowReducer} 共用：
+ * - 每行的键（{@link EquityRowKey}）放进并行数组 his/los，行本身放进分页存储，不产生对象；
+ *   条目怎么放（顺序追加还是按键哈希）由子类决定；
+ * - 内存（条目数组 + 行存储）超出预算时，子类调 {@link #spill()} 把当前条目按键排序写成一个有序段文件后清空继续；
+ * - 结束时没有段文件就直接在内存里排序写出，否则把剩余部分也写成段，再 k 路归并，
+ *   归并出的行按 (键, 段号) 顺序交给子类的 {@link #merged}，由它决定写出哪些；
+ * - 字段含非 ASCII 字符、无法编码成键的行用 hi = {@link #UNKEYED}、lo = 到达序号，排在最后并保持到达顺序。
+ * 非线程安全，每条 lane 一个。
+ */
+@Slf4j
+abstract class ExternalRowSorter implements RowReducer {
+
+    static final int PAGE_BITS = 20;
+    static final int PAGE = 1 << PAGE_BITS;
+    static final int MIN_CAPACITY = 1 << 12;
+    private static final int OUT_BYTES = 256 << 10;
+    /** 不可编码行的 hi：比任何真实键都大 */
+    static final long UNKEYED = -1L;
+
+    private final String label;
+    private final String kind;
+    final long memoryBytes;
+    private final Path spillDir;
+    /** 每个条目占用的字节（键数组 + 引用） */
+    private final int entryBytes;
+    private final EquityRowKey key = new EquityRowKey();
+
+    long[] his = new long[MIN_CAPACITY], los = new long[MIN_CAPACITY];
+    /** 行在存储中的位置 + 1；0 表示空 */
+    int[] refs = new int[MIN_CAPACITY];
+    /** 当前条目数 */
+    int size;
+
+    private final List<byte[]> pages = new ArrayList<>();
+    private int page, pageFill;
+
+    private final List<Path> runs = new ArrayList<>();
+    private long unkeyed;
+    private long in, out;
+
+    private final byte[] outBuf = new byte[OUT_BYTES];
+    private int outFill, outRows;
+
+    /**
+     * @param label       日志标识（分表名）
+     * @param kind        日志与段文件名里的种类（cluster / latest）
+     * @param memoryBytes 条目数组 + 行存储的内存上限，超出即溢写
+     * @param spillDir    溢写段文件目录
+     * @param entryBytes  每个条目的字节数
+     */
+    ExternalRowSorter(String label, String kind, long memoryBytes, Path spillDir, int entryBytes) {
+        this.label = label;
+        this.kind = kind;
+        this.memoryBytes = Math.max(memoryBytes, (long) MIN_CAPACITY * entryBytes + 2L * PAGE);
+        this.spillDir = spillDir;
+        this.entryBytes = entryBytes;
+    }
+
+    @Override
+    public void add(byte[] buf, int off, int len) throws IOException {
+        int end = off + len;
+        int s = off;
+        while (s < end) {
+            int nl = s;
+            while (buf[nl] != '\n') nl++;
+            in++;
+            if (key.parse(buf, s, nl)) {
+                put(key.hi, key.lo, key.ts, buf, s, nl + 1 - s);
+            } else {
+                put(UNKEYED, unkeyed++, 0, buf, s, nl + 1 - s);
+            }
+            s = nl + 1;
+        }
+    }
+
+    /** 收下一行（[s, s + n) 含 '\n'）；需要时先 {@link #spill()} */
+    abstract void put(long hi, long lo, long ts, byte[] row, int s, int n) throws IOException;
+
+    /** 条目的 biz_dt（不关心时间的实现返回 0） */
+    abstract long ts(int entry);
+
+    /** 当前所有条目的下标（到达顺序，未排序） */
+    abstract int[] entries();
+
+    /** 溢写后清空条目（保留已分配的数组） */
+    abstract void clearEntries();
+
+    /** 归并时按 (键, 段号) 顺序收到一行，决定是否写出 */
+    abstract void merged(ShardWriter writer, long hi, long lo, long ts, byte[] row, int n) throws Exception;
+
+    /** 归并结束：写出手里还留着的行 */
+    void mergeEnd(ShardWriter writer) throws Exception { }
+
+    long memoryUsed() {
+        return (long) refs.length * entryBytes + (long) pages.size() * PAGE;
+    }
+
+    /** 行存储再开一页就超预算 */
+    boolean pageFull(int n) {
+        return pageFill + n > PAGE && page + 1 >= pages.size() && memoryUsed() + PAGE > memoryBytes;
+    }
+
+    /** 把一行放进分页存储（一行不跨页），返回位置 + 1 */
+    int store(byte[] row, int s, int n) {
+        if (pages.isEmpty() || pageFill + n > PAGE) {
+            if (!pages.isEmpty()) page++;
+            if (page == pages.size()) pages.add(new byte[PAGE]);
+            pageFill = 0;
+        }
+        System.arraycopy(row, s, pages.get(page), pageFill, n);
+        int ref = page << PAGE_BITS | pageFill;
+        pageFill += n;
+        return ref + 1;
+    }
+
+    /** 当前条目按键排序写成一个段文件，然后清空（保留已分配的数组与页） */
+    void spill() throws IOException {
+        if (size == 0) return;
+        int entries = size;
+        Path run = Files.createTempFile(spillDir, kind + "-" + label + "-", ".run");
+        runs.add(run);
+        try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 20))) {
+            for (int i : sorted()) {
+                int ref = refs[i] - 1;
+                byte[] pg = pages.get(ref >>> PAGE_BITS);
+                int at = ref & (PAGE - 1);
+                int n = rowLength(pg, at);
+                o.writeLong(his[i]);
+                o.writeLong(los[i]);
+                o.writeLong(ts(i));
+                o.writeShort(n);
+                o.write(pg, at, n);
+            }
+        }
+        log.info("{} {} spilled run #{} ({} entries, {} rows in so far)", label, kind, runs.size(), entries, in);
+        clearEntries();
+        size = 0;
+        page = 0;
+        pageFill = 0;
+    }
+
+    private static int rowLength(byte[] pg, int at) {
+        int e = at;
+        while (pg[e] != '\n') e++;
+        return e + 1 - at;
+    }
+
+    /** 当前条目，按 (hi, lo) 无符号升序，同键按下标（顺序追加时即到达顺序） */
+    private int[] sorted() {
+        int[] idx = entries();
+        IndexSort.sort(idx, this::cmp);
+        return idx;
+    }
+
+    private int cmp(int a, int b) {
+        int c = Long.compareUnsigned(his[a], his[b]);
+        if (c == 0) c = Long.compareUnsigned(los[a], los[b]);
+        return c != 0 ? c : Integer.compare(a, b);
+    }
+
+    @Override
+    public void drainTo(ShardWriter writer) throws Exception {
+        if (runs.isEmpty()) {
+            for (int i : sorted()) {
+                int ref = refs[i] - 1;
+                byte[] pg = pages.get(ref >>> PAGE_BITS);
+                int at = ref & (PAGE - 1);
+                emit(writer, pg, at, rowLength(pg, at));
+            }
+        } else {
+            spill();
+            merge(writer);
+        }
+        if (outFill > 0) flushOut(writer);
+        log.info("{} {}: in={} out={} collapsed={} runs={}", label, kind, in, out, collapsed(), runs.size());
+    }
+
+    /** 段文件 k 路归并，同键按段号先后交给 {@link #merged} */
+    private void merge(ShardWriter writer) throws Exception {
+        PriorityQueue<Run> pq = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+            int c = Long.compareUnsigned(a.hi, b.hi);
+            if (c == 0) c = Long.compareUnsigned(a.lo, b.lo);
+            return c != 0 ? c : Integer.compare(a.index, b.index);
+        });
+        List<Run> open = new ArrayList<>();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                Run r = new Run(runs.get(i), i);
+                open.add(r);
+                if (r.next()) pq.add(r);
+            }
+            while (!pq.isEmpty()) {
+                Run r = pq.poll();
+                merged(writer, r.hi, r.lo, r.ts, r.row, r.len);
+                if (r.next()) pq.add(r);
+            }
+            mergeEnd(writer);
+        } finally {
+            for (Run r : open) r.close();
+        }
+    }
+
+    void emit(ShardWriter writer, byte[] row, int at, int n) throws Exception {
+        if (outFill + n > outBuf.length) flushOut(writer);
+        System.arraycopy(row, at, outBuf, outFill, n);
+        outFill += n;
+        outRows++;
+        out++;
+    }
+
+    private void flushOut(ShardWriter writer) throws Exception {
+        writer.write(outBuf, 0, outFill, outRows);
+        outFill = 0;
+        outRows = 0;
+    }
+
+    @Override
+    public long collapsed() {
+        return in - out;
+    }
+
+    @Override
+    public void close() {
+        for (Path run : runs) {
+            try { Files.deleteIfExists(run); } catch (IOException e) { log.warn("delete {} failed", run, e); }
+        }
+        runs.clear();
+        pages.clear();
+        his = los = new long[0];
+        refs = new int[0];
+    }
+
+    /** 一个有序段文件的顺序读取器 */
+    private static final class Run {
+        final int index;
+        final DataInputStream in;
+        final byte[] row = new byte[LineParser.MAX_ROW + 1];
+        long hi, lo, ts;
+        int len;
+
+        Run(Path file, int index) throws IOException {
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        }
+
+        boolean next() throws IOException {
+            try {
+                hi = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            lo = in.readLong();
+            ts = in.readLong();
+            len = in.readUnsignedShort();
+            in.readFully(row, 0, len);
+            return true;
+        }
+
+        void close() {
+            try { in.close(); } catch (IOException ignore) { }
+        }
+    }
+}
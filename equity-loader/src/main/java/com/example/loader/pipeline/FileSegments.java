@@ -0,0 +1,73 @@
+package com.example.loader.pipeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 文件切段工具：
+ * - 把文件按字节均分成 N 段，每个切点向后对齐到下一个换行符之后；
+ * - 保证每一段都从「行首」开始、在「行尾」结束，段与段之间不重不漏；
+ * - 文件太小或换行稀疏时，实际段数可能少于 N（空段会被丢弃）。
+ */
+public final class FileSegments {
+
+    private FileSegments() { }
+
+    /** 一个字节区间 [start, end) */
+    public static final class Segment {
+        public final int index;
+        public final long start;
+        public final long end;
+
+        Segment(int index, long start, long end) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+        }
+
+        public long length() { return end - start; }
+
+        @Override
+        public String toString() { return "segment#" + index + "[" + start + "," + end + ")"; }
+    }
+
+    /**
+     * 切段。
+     * @param ch 已打开的只读文件通道
+     * @param n  期望段数（≥1）
+     */
+    public static List<Segment> split(FileChannel ch, int n) throws IOException {
+        long size = ch.size();
+        List<Segment> out = new ArrayList<>();
+        if (size == 0) return out;
+        n = (int) Math.max(1, Math.min(n, size));
+
+        long start = 0;
+        for (int i = 1; i <= n && start < size; i++) {
+            long end = (i == n) ? size : alignToNextLine(ch, Math.max(start, size / n * i), size);
+            if (end > start) {
+                out.add(new Segment(out.size(), start, end));
+                start = end;
+            }
+        }
+        return out;
+    }
+
+    /** 从 pos 开始向后找第一个 '\n'，返回其后一个字节的位置；找不到则返回文件末尾 */
+    private static long alignToNextLine(FileChannel ch, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        while (pos < size) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.loader.pipeline;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * 下标数组的原地快速排序（三数取中，小区间插入排序，先递归较小的一侧）：
+ * 键放在调用方的并行 long 数组里，按比较器排下标，免去装箱与对象数组。
+ */
+final class IndexSort {
+
+    private IndexSort() { }
+
+    static void sort(int[] a, IntBinaryOperator cmp) {
+        sort(a, 0, a.length - 1, cmp);
+    }
+
+    private static void sort(int[] a, int lo, int hi, IntBinaryOperator cmp) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            if (cmp.applyAsInt(a[mid], a[lo]) < 0) swap(a, mid, lo);
+            if (cmp.applyAsInt(a[hi], a[lo]) < 0) swap(a, hi, lo);
+            if (cmp.applyAsInt(a[hi], a[mid]) < 0) swap(a, hi, mid);
+            int pivot = a[mid];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (cmp.applyAsInt(a[i], pivot) < 0) i++;
+                while (cmp.applyAsInt(a[j], pivot) > 0) j--;
+                if (i <= j) swap(a, i++, j--);
+            }
+            if (j - lo < hi - i) {
+                sort(a, lo, j, cmp);
+                lo = i;
+            } else {
+                sort(a, i, hi, cmp);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            int v = a[i], j = i - 1;
+            while (j >= lo && cmp.applyAsInt(a[j], v) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = v;
+        }
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+}
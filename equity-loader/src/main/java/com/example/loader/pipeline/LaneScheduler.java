@@ -0,0 +1,155 @@
+package com.example.loader.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 写线程与 lane 的调度：写线程数与 lane（分表）数解耦，空闲的写线程从积压最多的 lane 取块。
+ * - 每条 lane 一条块队列、一个写入端（ShardWriter + 可选归约器/检查点），写入端在线程间交接，不随线程走；
+ * - 同一时刻一条 lane 最多被一个写线程认领（COPY 仍是一条流只写一张表，块按入队顺序写入，检查点语义不变）；
+ * - 认领后连续写最多 TURN 块再放手，让出的 lane 若还有积压会叫醒其他空闲线程；
+ * - lane 取到结束标记即由当时认领它的线程收尾，之后不再被认领；所有 lane 收尾后写线程退出。
+ */
+final class LaneScheduler {
+
+    /** 一次认领最多连续写几块 */
+    static final int TURN = 8;
+
+    /** 一条 lane：块队列 + 写入端（由当前认领者独占使用） */
+    static final class Slot {
+        final int lane;
+        final ArrayDeque<RowChunk> queue = new ArrayDeque<>();
+        ShardWriter writer;
+        RowReducer reducer;
+        ShardCheckpoint cp;
+        private boolean claimed;
+        private boolean done;
+
+        Slot(int lane) {
+            this.lane = lane;
+        }
+    }
+
+    private final Slot[] slots;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition();
+    private int finished;
+    private boolean failed;
+
+    LaneScheduler(int lanes) {
+        this.slots = new Slot[lanes];
+        for (int i = 0; i < lanes; i++) slots[i] = new Slot(i);
+    }
+
+    Slot slot(int lane) {
+        return slots[lane];
+    }
+
+    /** 某条 lane 排队中的块数（指标） */
+    int depth(int lane) {
+        lock.lock();
+        try {
+            return slots[lane].queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 读线程交出一块（从不阻塞：在途块数已受块池约束） */
+    void submit(int lane, RowChunk chunk) {
+        lock.lock();
+        try {
+            slots[lane].queue.add(chunk);
+            if (!slots[lane].claimed) work.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 读已结束：每条 lane 放一个结束标记，排在它前面的块照常写完 */
+    void endOfStream() {
+        lock.lock();
+        try {
+            for (Slot s : slots) s.queue.add(RowChunk.EOS);
+            work.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 认领积压最多的一条空闲 lane；暂时没有可写的就等。
+     * @param idleNanos 出参：本次等待的纳秒数（[0]）
+     * @return 认领到的 lane；所有 lane 已收尾或装载已失败时返回 null
+     */
+    Slot claim(long[] idleNanos) throws InterruptedException {
+        idleNanos[0] = 0;
+        lock.lockInterruptibly();
+        try {
+            while (!failed && finished < slots.length) {
+                Slot best = null;
+                for (Slot s : slots) {
+                    if (!s.claimed && !s.done && !s.queue.isEmpty()
+                            && (best == null || s.queue.size() > best.queue.size())) {
+                        best = s;
+                    }
+                }
+                if (best != null) {
+                    best.claimed = true;
+                    return best;
+                }
+                long t0 = System.nanoTime();
+                work.await(100, TimeUnit.MILLISECONDS);
+                idleNanos[0] += System.nanoTime() - t0;
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 认领者取下一块；队列空时返回 null */
+    RowChunk poll(Slot s) {
+        lock.lock();
+        try {
+            return s.queue.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 放手：lane 还有积压时叫醒一个空闲线程 */
+    void release(Slot s) {
+        lock.lock();
+        try {
+            s.claimed = false;
+            if (!s.queue.isEmpty()) work.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** lane 已收尾（认领者调用），不再放手 */
+    void done(Slot s) {
+        lock.lock();
+        try {
+            s.done = true;
+            if (++finished == slots.length) work.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 装载失败：所有写线程尽快退出 */
+    void fail() {
+        lock.lock();
+        try {
+            failed = true;
+            work.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
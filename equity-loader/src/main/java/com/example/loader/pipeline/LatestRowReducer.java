@@ -0,0 +1,141 @@
+package com.example.loader.pipeline;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * 资产行「每个 (customer_no, account_no, ccy) 只保留 biz_dt 最新的一行」归约（每个分片一个）：
+ * - 键压成两个 long（见 {@link EquityRowKey}），biz_dt 压成 yyyyMMddHHmmss 数值比较；
+ * - 开放寻址哈希表（long/int 数组，无装箱）+ 分页的行存储；同键新行覆盖旧行，biz_dt 相同时后到的行胜出
+ *   （单线程读取时即文件中靠后的；mmap 多段并行读时各段交错到达，先后不确定）；
+ * - 内存超出预算时溢写有序段，结束时 k 路归并（见 {@link ExternalRowSorter}）：同键取 biz_dt 最大者（相同时取较晚的段）；
+ *   无论是否溢写，结果都按 (customer_no, account_no, ccy) 顺序写出，分表按客户号物理聚簇；
+ * - 字段含非 ASCII 字符（慢路径放行的全角数字等）的行无法编码成键，原样保留、不参与归约。
+ */
+public final class LatestRowReducer extends ExternalRowSorter {
+
+    /** 每个哈希槽：hi/lo/ts 三个 long + 一个 int 引用 */
+    private static final int SLOT_BYTES = 3 * 8 + 4;
+
+    private long[] tss = new long[MIN_CAPACITY];
+    private int mask = MIN_CAPACITY - 1;
+
+    /** 归并中手里的当前键最优行 */
+    private final byte[] best = new byte[LineParser.MAX_ROW + 1];
+    private long bestHi, bestLo, bestTs;
+    private int bestLen = -1;
+
+    /**
+     * @param label       日志标识（分表名）
+     * @param memoryBytes 哈希表 + 行存储的内存上限，超出即溢写
+     * @param spillDir    溢写段文件目录
+     */
+    public LatestRowReducer(String label, long memoryBytes, Path spillDir) {
+        super(label, "latest", memoryBytes, spillDir, SLOT_BYTES);
+    }
+
+    @Override
+    void put(long hi, long lo, long ts, byte[] row, int s, int n) throws IOException {
+        int slot = slot(hi, lo);
+        if (refs[slot] != 0) {
+            if (ts < tss[slot]) return; // 比已有的旧，丢弃
+        } else if (size + 1 > (mask + 1) - ((mask + 1) >>> 2)) { // 负载因子 0.75
+            if (memoryUsed() + (long) (mask + 1) * SLOT_BYTES <= memoryBytes) {
+                rehash((mask + 1) << 1);
+            } else {
+                spill();
+            }
+            slot = slot(hi, lo);
+        }
+        if (pageFull(n)) {
+            spill();
+            slot = slot(hi, lo);
+        }
+        int ref = store(row, s, n);
+        if (refs[slot] == 0) {
+            his[slot] = hi;
+            los[slot] = lo;
+            size++;
+        }
+        tss[slot] = ts;
+        refs[slot] = ref;
+    }
+
+    private int slot(long hi, long lo) {
+        int i = hash(hi, lo) & mask;
+        while (refs[i] != 0 && (his[i] != hi || los[i] != lo)) i = (i + 1) & mask;
+        return i;
+    }
+
+    private static int hash(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private void rehash(int capacity) {
+        long[] oh = his, ol = los, ot = tss;
+        int[] or = refs;
+        his = new long[capacity];
+        los = new long[capacity];
+        tss = new long[capacity];
+        refs = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < or.length; i++) {
+            if (or[i] == 0) continue;
+            int j = slot(oh[i], ol[i]);
+            his[j] = oh[i];
+            los[j] = ol[i];
+            tss[j] = ot[i];
+            refs[j] = or[i];
+        }
+    }
+
+    @Override
+    long ts(int entry) {
+        return tss[entry];
+    }
+
+    /** 已占用槽位 */
+    @Override
+    int[] entries() {
+        int[] idx = new int[size];
+        for (int i = 0, k = 0; i < refs.length; i++) if (refs[i] != 0) idx[k++] = i;
+        return idx;
+    }
+
+    @Override
+    void clearEntries() {
+        Arrays.fill(refs, 0);
+    }
+
+    /** 同键连续到达：biz_dt 不小于手里的就换（段号更大的后到，时间相同时以它为准）；换键时写出上一个键的最优行 */
+    @Override
+    void merged(ShardWriter writer, long hi, long lo, long ts, byte[] row, int n) throws Exception {
+        if (bestLen >= 0 && hi == bestHi && lo == bestLo) {
+            if (ts < bestTs) return;
+        } else {
+            mergeEnd(writer);
+            bestHi = hi;
+            bestLo = lo;
+        }
+        bestTs = ts;
+        bestLen = n;
+        System.arraycopy(row, 0, best, 0, n);
+    }
+
+    @Override
+    void mergeEnd(ShardWriter writer) throws Exception {
+        if (bestLen >= 0) emit(writer, best, 0, bestLen);
+        bestLen = -1;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        tss = new long[0];
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.loader.pipeline;
+
+/**
+ * 多节点协同装载：本节点对某工作单元的租约已丢失（单元已被别的节点接手）。
+ * 在 COPY 事务里检出时该事务必须回滚、不得重试；心跳检出时中止本轮装载。
+ */
+public class LeaseLostException extends IllegalStateException {
+
+    public LeaseLostException(String message) {
+        super(message);
+    }
+}
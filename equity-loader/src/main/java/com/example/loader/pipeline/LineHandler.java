@@ -0,0 +1,12 @@
+package com.example.loader.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 行回调：buf 中 [from, to) 为一行内容（不含换行符）；
+ * end 为这一行（含换行符）结束处在整个文件中的字节偏移，即下一行行首的位置，可用作断点续传的检查点。
+ * buf 只在回调期间有效，实现方如需保留内容必须自行拷贝。
+ */
+public interface LineHandler {
+    void onLine(ByteBuffer buf, int from, int to, long end) throws Exception;
+}
@@ -0,0 +1,26 @@
+package com.example.loader.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 字节级行解析器：直接在 byte[]/ByteBuffer 上校验并规整一行，
+ * 把 COPY text 格式的一行（含末尾 '\n'）写进调用方提供的输出缓冲。
+ * 实例有状态（路由键、临时缓冲），每个读线程各持有一个。
+ */
+public interface LineParser {
+
+    /** 单行规整后的最大字节数，调用方需保证 out 从 off 起至少有这么多空间 */
+    int MAX_ROW = 160;
+
+    /**
+     * 解析 src 中 [from, to) 的一行。
+     * @return 写入 out 的字节数；坏行返回 -1（out 内容未定义）
+     */
+    int parse(ByteBuffer src, int from, int to, byte[] out, int off);
+
+    /** 最近一次解析成功的行的路由键（客户号数值），用于取模分片 */
+    long routeKey();
+
+    /** 最近一次解析失败（返回 -1）的原因 */
+    RejectReason rejectReason();
+}
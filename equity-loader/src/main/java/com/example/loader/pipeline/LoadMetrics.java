@@ -0,0 +1,302 @@
+package com.example.loader.pipeline;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * 一次装载（EQUITY / RELATION）的运行时指标，装载过程中随时可读：
+ * - 读侧：坏行数（总数与按原因码分项），各 lane 已交出的行数/字节数，等空闲数据块的阻塞时间（写不过来时的反压）；
+ * - 写侧：各 lane 已提交的行数/字节数与速率、完成时间（相对装载开始，看分片间的倾斜），
+ *   COPY 提交延迟直方图（按 2 的幂毫秒分桶），写入前归约掉的行数；写线程数与其空等数据的总时间（读不过来时）；
+ * - 队列深度：各 lane 队列里排队的数据块数；
+ * - 自适应批大小（开启时）：各 lane 当前批字节数与增大/减小/退避次数。
+ * 通过 snapshot() 供 HTTP 接口实时查看，summary() 在装载结束后落盘。
+ */
+public class LoadMetrics {
+
+    /** 延迟分桶：第 0 桶 &lt;1ms，第 b 桶 [2^(b-1), 2^b) ms，最后一桶兜底 */
+    private static final int BUCKETS = 20;
+
+    private final String name;
+    private final Lane[] lanes;
+    private final LongAdder badRows = new LongAdder();
+    private final LongAdder[] rejects = new LongAdder[RejectReason.values().length];
+    private final LongAdder writerIdleNanos = new LongAdder();
+    private volatile int writers;
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    public LoadMetrics(String name, int lanes) {
+        this.name = name;
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) this.lanes[i] = new Lane(i);
+        for (int i = 0; i < rejects.length; i++) rejects[i] = new LongAdder();
+    }
+
+    public String name() { return name; }
+
+    public Lane lane(int i) { return lanes[i]; }
+
+    void start() {
+        startNanos = System.nanoTime();
+        endNanos = 0;
+        for (Lane l : lanes) l.finishNanos = 0;
+    }
+
+    void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    void writers(int threads) { this.writers = threads; }
+
+    /** 写线程没有可认领的 lane、空等数据的时间 */
+    void writerIdle(long nanos) { writerIdleNanos.add(nanos); }
+
+    void badRow(RejectReason reason) {
+        badRows.increment();
+        rejects[reason.ordinal()].increment();
+    }
+
+    /** 各原因码的坏行数（只列出现过的） */
+    public Map<String, Long> rejectCounts() {
+        Map<String, Long> m = new LinkedHashMap<>();
+        for (RejectReason r : RejectReason.values()) {
+            long n = rejects[r.ordinal()].sum();
+            if (n > 0) m.put(r.name(), n);
+        }
+        return m;
+    }
+
+    /** 装载已进行（或总共用了）多少纳秒 */
+    public long elapsedNanos() {
+        long s = startNanos;
+        if (s == 0) return 0;
+        long e = endNanos;
+        return (e != 0 ? e : System.nanoTime()) - s;
+    }
+
+    /** 单条 lane 的指标；计数器由读线程（可能多个）与当前认领该 lane 的写线程并发更新 */
+    public final class Lane implements CopyObserver {
+        private final int index;
+        private final LongAdder rowsQueued = new LongAdder();
+        private final LongAdder bytesQueued = new LongAdder();
+        private final LongAdder putBlockedNanos = new LongAdder();
+        private final AtomicLong collapsed = new AtomicLong();
+        private final AtomicLong rowsCopied = new AtomicLong();
+        private final AtomicLong bytesCopied = new AtomicLong();
+        private final AtomicLong copies = new AtomicLong();
+        private final AtomicLong maxCopyNanos = new AtomicLong();
+        private final AtomicLongArray copyLatency = new AtomicLongArray(BUCKETS);
+        private volatile IntSupplier queueDepth = () -> 0;
+        private volatile AdaptiveBatchSizer batchSizer;
+        private volatile long finishNanos;
+
+        Lane(int index) {
+            this.index = index;
+        }
+
+        void queueDepth(IntSupplier depth) { this.queueDepth = depth; }
+
+        void batchSizer(AdaptiveBatchSizer sizer) { this.batchSizer = sizer; }
+
+        /** 读线程交出一块 */
+        void queued(int rows, int bytes) {
+            rowsQueued.add(rows);
+            bytesQueued.add(bytes);
+        }
+
+        /** 读线程为本 lane 等空闲数据块的时间 */
+        void putBlocked(long nanos) { putBlockedNanos.add(nanos); }
+
+        /** 本 lane 已全部提交 */
+        void finished() { finishNanos = System.nanoTime(); }
+
+        /** 完成时间（相对装载开始，毫秒）；未完成为 -1 */
+        public long finishMs() {
+            long f = finishNanos;
+            return f == 0 || startNanos == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(f - startNanos);
+        }
+
+        /** 写入前被归约掉的行数 */
+        void collapsed(long rows) { collapsed.addAndGet(rows); }
+
+        public long collapsed() { return collapsed.get(); }
+
+        @Override
+        public void copied(long rows, long bytes, long nanos) {
+            rowsCopied.addAndGet(rows);
+            bytesCopied.addAndGet(bytes);
+            copies.incrementAndGet();
+            copyLatency.incrementAndGet(bucket(nanos));
+            long max;
+            while (nanos > (max = maxCopyNanos.get()) && !maxCopyNanos.compareAndSet(max, nanos)) { }
+        }
+
+        public long rowsCopied() { return rowsCopied.get(); }
+
+        /** 延迟分位数的估计值（所在桶的上界，毫秒） */
+        public long copyLatencyMs(double quantile) {
+            long total = 0;
+            for (int b = 0; b < BUCKETS; b++) total += copyLatency.get(b);
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * quantile), seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += copyLatency.get(b);
+                if (seen >= rank) return 1L << b;
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        Map<String, Object> snapshot(long elapsedNanos) {
+            double sec = Math.max(1e-9, elapsedNanos / 1e9);
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("lane", index + 1);
+            m.put("rowsQueued", rowsQueued.sum());
+            m.put("bytesQueued", bytesQueued.sum());
+            m.put("collapsed", collapsed.get());
+            m.put("rowsCopied", rowsCopied.get());
+            m.put("bytesCopied", bytesCopied.get());
+            m.put("rowsPerSec", (long) (rowsCopied.get() / sec));
+            m.put("bytesPerSec", (long) (bytesCopied.get() / sec));
+            m.put("queueDepth", queueDepth.getAsInt());
+            m.put("putBlockedMs", TimeUnit.NANOSECONDS.toMillis(putBlockedNanos.sum()));
+            m.put("copies", copies.get());
+            m.put("copyP50Ms", copyLatencyMs(0.50));
+            m.put("copyP90Ms", copyLatencyMs(0.90));
+            m.put("copyP99Ms", copyLatencyMs(0.99));
+            m.put("copyMaxMs", TimeUnit.NANOSECONDS.toMillis(maxCopyNanos.get()));
+            List<Long> hist = new ArrayList<>(BUCKETS);
+            for (int b = 0; b < BUCKETS; b++) hist.add(copyLatency.get(b));
+            m.put("copyLatencyLog2Ms", hist);
+            m.put("finishMs", finishMs());
+            AdaptiveBatchSizer sizer = batchSizer;
+            if (sizer != null) m.putAll(sizer.snapshot());
+            return m;
+        }
+    }
+
+    private static int bucket(long nanos) {
+        long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int b = ms == 0 ? 0 : 64 - Long.numberOfLeadingZeros(ms);
+        return Math.min(b, BUCKETS - 1);
+    }
+
+    /** 所有 lane 归约掉的行数之和 */
+    public long collapsedRows() {
+        long n = 0;
+        for (Lane l : lanes) n += l.collapsed();
+        return n;
+    }
+
+    /** 当前状态（JSON 友好的 Map） */
+    public Map<String, Object> snapshot() {
+        long elapsed = elapsedNanos();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("name", name);
+        m.put("state", startNanos == 0 ? "pending" : endNanos == 0 ? "running" : "finished");
+        m.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        long queued = 0, collapsed = 0, copied = 0, bytes = 0;
+        List<Map<String, Object>> ls = new ArrayList<>();
+        for (Lane l : lanes) {
+            Map<String, Object> s = l.snapshot(elapsed);
+            queued += (Long) s.get("rowsQueued");
+            collapsed += (Long) s.get("collapsed");
+            copied += (Long) s.get("rowsCopied");
+            bytes += (Long) s.get("bytesCopied");
+            ls.add(s);
+        }
+        double sec = Math.max(1e-9, elapsed / 1e9);
+        m.put("badRows", badRows.sum());
+        m.put("rejects", rejectCounts());
+        m.put("rowsQueued", queued);
+        m.put("collapsedRows", collapsed);
+        m.put("rowsCopied", copied);
+        m.put("rowsPerSec", (long) (copied / sec));
+        m.put("bytesPerSec", (long) (bytes / sec));
+        m.put("writers", writers);
+        m.put("writerIdleMs", TimeUnit.NANOSECONDS.toMillis(writerIdleNanos.sum()));
+        m.put("laneFinishSkewMs", finishSkewMs());
+        m.put("lanes", ls);
+        return m;
+    }
+
+    /** 已完成的 lane 里最晚与最早完成时间之差（毫秒），不足两条完成时为 0 */
+    public long finishSkewMs() {
+        long min = Long.MAX_VALUE, max = -1;
+        for (Lane l : lanes) {
+            long f = l.finishMs();
+            if (f < 0) continue;
+            min = Math.min(min, f);
+            max = Math.max(max, f);
+        }
+        return max < 0 ? 0 : max - min;
+    }
+
+    /** 一行各 lane 完成时间：按完成先后列出「lane=毫秒」，未完成的记 - */
+    public String finishLine() {
+        List<Lane> order = new ArrayList<>();
+        for (Lane l : lanes) order.add(l);
+        order.sort((a, b) -> Long.compare(a.finishMs() < 0 ? Long.MAX_VALUE : a.finishMs(),
+                b.finishMs() < 0 ? Long.MAX_VALUE : b.finishMs()));
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(" lane finish (writers=").append(writers)
+          .append(", skew=").append(finishSkewMs()).append("ms):");
+        for (Lane l : order) {
+            long f = l.finishMs();
+            sb.append(' ').append(l.index + 1).append('=').append(f < 0 ? "-" : f + "ms");
+        }
+        return sb.toString();
+    }
+
+    /** 一行进度：总量 + 写线程空等时间 + 每条 lane 的「已提交行数/队列深度/读等待/p99」，已完成的 lane 加 done */
+    public String progressLine() {
+        Map<String, Object> s = snapshot();
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(" progress: copied=").append(s.get("rowsCopied"))
+          .append(" queued=").append(s.get("rowsQueued"))
+          .append(" bad=").append(s.get("badRows"))
+          .append(" rows/s=").append(s.get("rowsPerSec"))
+          .append(" writerIdle=").append(s.get("writerIdleMs")).append("ms")
+          .append(" | lane copied/depth/putBlk/p99:");
+        for (Object o : (List<?>) s.get("lanes")) {
+            Map<?, ?> l = (Map<?, ?>) o;
+            sb.append(' ').append(l.get("lane")).append('=')
+              .append(l.get("rowsCopied")).append('/').append(l.get("queueDepth")).append('/')
+              .append(l.get("putBlockedMs")).append("ms/")
+              .append(l.get("copyP99Ms")).append("ms");
+            if (l.get("batchBytes") != null) sb.append("/batch=").append((Long) l.get("batchBytes") / 1024).append("KB");
+            if ((Long) l.get("finishMs") >= 0) sb.append("/done");
+        }
+        return sb.toString();
+    }
+
+    /** 最终汇总，key=value 每行一项（reject.X 为按原因码的坏行数，lane.N.xxx 为分 lane 指标） */
+    public String summary() {
+        Map<String, Object> s = snapshot();
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> e : s.entrySet()) {
+            if (!"lanes".equals(e.getKey()) && !"rejects".equals(e.getKey())) {
+                sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+            }
+        }
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) s.get("rejects")).entrySet()) {
+            sb.append("reject.").append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        for (Object o : (List<?>) s.get("lanes")) {
+            Map<?, ?> l = (Map<?, ?>) o;
+            for (Map.Entry<?, ?> e : l.entrySet()) {
+                if ("lane".equals(e.getKey())) continue;
+                sb.append("lane.").append(l.get("lane")).append('.').append(e.getKey()).append('=')
+                  .append(e.getValue()).append('\n');
+            }
+        }
+        return sb.toString().trim();
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.loader.pipeline;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 基于内存映射（FileChannel.map）的按行扫描器：
+ * - 对一个 {@link FileSegments.Segment} 分窗口映射（单窗口 < 2GB），逐行回调；
+ * - 行结束符与 BufferedReader.readLine 保持一致：'\n'、'\r'、"\r\n" 均视为一行结束，
+ *   且行内容不含结束符；文件末尾没有换行的最后一行同样会回调；
+ * - 跨窗口的半行会从行首重新映射，保证回调拿到的永远是完整一行。
+ */
+public final class MappedLineScanner {
+
+    /** 单次映射窗口大小：256MB */
+    static final int WINDOW = 1 << 28;
+
+    private MappedLineScanner() { }
+
+    /**
+     * 扫描一个段内的所有行。
+     * @return 回调的行数
+     */
+    public static long scan(FileChannel ch, FileSegments.Segment seg, LineHandler handler) throws Exception {
+        long lines = 0;
+        long pos = seg.start;
+        while (pos < seg.end) {
+            int size = (int) Math.min(WINDOW, seg.end - pos);
+            boolean lastWindow = pos + size == seg.end;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, size);
+
+            int lineStart = 0;
+            while (lineStart < size) {
+                int i = Swar.indexOfLineEnd(buf, lineStart, size);
+                if (i < 0) break;
+                byte b = buf.get(i);
+                // '\r' 恰好落在窗口末尾：其后可能紧跟下一窗口的 '\n'，留给下一窗口处理
+                if (b == '\r' && i == size - 1 && !lastWindow) break;
+
+                int next = (b == '\r' && i + 1 < size && buf.get(i + 1) == '\n') ? i + 2 : i + 1;
+                handler.onLine(buf, lineStart, i, pos + next);
+                lines++;
+                lineStart = next;
+            }
+
+            if (lineStart < size && lastWindow) {
+                // 段尾没有换行的最后一行
+                handler.onLine(buf, lineStart, size, pos + size);
+                lines++;
+                lineStart = size;
+            } else if (lineStart == 0 && size == WINDOW) {
+                // 单行超过窗口大小（异常数据）：整窗当作一行交给回调，由校验逻辑判为坏行
+                handler.onLine(buf, 0, size, pos + size);
+                lines++;
+                lineStart = size;
+            }
+            pos += lineStart;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,419 @@
+package com.example.loader.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * 多成员（multi-member，如 pigz / bgzip / 分块 gzip 拼接）gzip 文件的并行解压输入流：
+ * - 按 chunkBytes 把压缩文件切块，切点对齐到「看起来像 gzip 头、且试解压能通过」的位置；
+ * - 每块交给线程池解压（逐成员校验 CRC32/ISIZE），解出的数据按 1MB 定长缓冲逐个放进该块自己的有界队列，
+ *   读方按块顺序边解边取；各块队列合计不超过 bufferBytes，读得慢时解压线程在队列上等，
+ *   内存按解压后的字节有界，与一块解压后有多大无关；
+ * - 块内最后一个成员越过块尾（切点其实落在成员中间）时，接着读后面的压缩数据把这个成员解完，块的实际终点即该成员结束处；
+ *   下一块的起点与之不符时丢弃在途的块，从实际终点重新切块；
+ * - 数据损坏时读方收到 IOException，此前解出的数据已交出，与 GZIPInputStream 顺序解压一致；
+ * - 4 倍 chunkBytes 内找不到成员边界（如单成员大文件）时，剩下的改用 GZIPInputStream 顺序解压。
+ * 非线程安全，单个读线程使用。
+ */
+@Slf4j
+public final class ParallelGzipInputStream extends InputStream {
+
+    private static final int OUT_BLOCK = 1 << 20;
+    private static final int IN_BLOCK = 256 << 10;
+    private static final int PROBE_BYTES = 64 * 1024;
+
+    /** 解压线程交给读方的一项：一段数据、块结束标记或解压失败 */
+    private static final class Block {
+        final byte[] data;
+        final int len;
+        /** 块结束标记：块的实际终点（文件偏移）；-1 表示这是数据 */
+        final long end;
+        /** 块结束标记：成员之后不是 gzip 头，整个流到此为止 */
+        final boolean last;
+        final IOException error;
+
+        Block(byte[] data, int len, long end, boolean last, IOException error) {
+            this.data = data;
+            this.len = len;
+            this.end = end;
+            this.last = last;
+            this.error = error;
+        }
+    }
+
+    private final FileChannel ch;
+    private final long size;
+    private final int chunkBytes;
+    private final int maxChunkBytes;
+    private final int maxInflight;
+    /** 每块队列最多排几个输出缓冲 */
+    private final int queueBlocks;
+    private final ExecutorService pool;
+    private final ArrayDeque<Task> inflight = new ArrayDeque<>();
+    /** 读方用完的输出缓冲，解压线程优先复用 */
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+    private long planPos;
+    private boolean planDone;
+    /** 下一块应当开始的位置，即上一块的实际终点 */
+    private long expect;
+    private boolean eof;
+    private InputStream sequential;
+
+    private Task head;
+    private byte[] cur;
+    private int curPos, curLen;
+    private int parallelChunks;
+
+    /**
+     * @param threads     解压线程数
+     * @param chunkBytes  每块压缩数据的目标大小；找不到切点时单块最多放大到 4 倍，再找不到就转顺序解压
+     * @param bufferBytes 已解压、等读方取走的数据总量上限（各块均分，至少每块一个 1MB 缓冲；
+     *                    另有每个解压线程手上正在填的一个缓冲）
+     */
+    public ParallelGzipInputStream(Path file, int threads, int chunkBytes, long bufferBytes) throws IOException {
+        this.ch = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = ch.size();
+        this.chunkBytes = chunkBytes;
+        this.maxChunkBytes = chunkBytes * 4;
+        this.maxInflight = Math.max(2, threads * 2);
+        this.queueBlocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bufferBytes / OUT_BLOCK / maxInflight));
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (true) {
+            if (cur != null) {
+                if (curPos < curLen) {
+                    int n = Math.min(len, curLen - curPos);
+                    System.arraycopy(cur, curPos, b, off, n);
+                    curPos += n;
+                    return n;
+                }
+                free.offer(cur);
+                cur = null;
+            }
+            if (sequential != null) return sequential.read(b, off, len);
+            if (eof) return -1;
+            if (head == null && !nextTask()) {
+                if (expect >= size) {
+                    eof = true;
+                    continue;
+                }
+                log.info("gzip sequential decode from offset {} (after {} parallel chunks)", expect, parallelChunks);
+                sequential = new GZIPInputStream(Channels.newInputStream(ch.position(expect)), 1 << 16);
+                continue;
+            }
+            Block blk = take(head);
+            if (blk.error != null) throw blk.error;
+            if (blk.end >= 0) {
+                expect = blk.end;
+                eof = blk.last;
+                head = null;
+                parallelChunks++;
+                continue;
+            }
+            cur = blk.data;
+            curLen = blk.len;
+            curPos = 0;
+        }
+    }
+
+    private static Block take(Task t) throws IOException {
+        try {
+            return t.out.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("gzip decode interrupted");
+        }
+    }
+
+    /** 取下一块作为当前块；没有了返回 false */
+    private boolean nextTask() throws IOException {
+        fill();
+        Task t = inflight.poll();
+        if (t != null && t.start != expect) {
+            // 上一块最后一个成员越过了切点：这块起点落在成员中间，连同后面在途的块一起作废，从实际终点重新切
+            t.cancelled = true;
+            for (Task rest : inflight) rest.cancelled = true;
+            inflight.clear();
+            log.debug("gzip chunk at {} discarded, previous member ended at {}", t.start, expect);
+            planPos = expect;
+            planDone = false;
+            fill();
+            t = inflight.poll();
+        }
+        head = t;
+        return t != null;
+    }
+
+    /** 规划切块并提交解压，保持在途块数不超过上限；找不到切点时停止规划，剩下的由读方顺序解压 */
+    private void fill() throws IOException {
+        while (!planDone && inflight.size() < maxInflight) {
+            long start = planPos;
+            long end = nextBoundary(start);
+            if (end < 0) {
+                // 附近找不到成员边界（例如单成员大文件）：剩下的顺序解压
+                planDone = true;
+                return;
+            }
+            Task t = new Task(start, end);
+            pool.execute(t);
+            inflight.add(t);
+            planPos = end;
+            if (end >= size) planDone = true;
+        }
+    }
+
+    /**
+     * 从 start 之后 chunkBytes 处起找下一个切点：
+     * @return 切点偏移；剩余不足一块时返回文件末尾；maxChunkBytes 以内找不到返回 -1
+     */
+    private long nextBoundary(long start) throws IOException {
+        if (size - start <= chunkBytes) return size;
+        long limit = Math.min(size, start + maxChunkBytes);
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        long pos = start + chunkBytes;
+        while (pos < limit) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i + 3 < n; i++) {
+                if ((buf.get(i) & 0xFF) == 0x1F && (buf.get(i + 1) & 0xFF) == 0x8B
+                        && buf.get(i + 2) == 8 && (buf.get(i + 3) & 0xE0) == 0
+                        && pos + i < limit && probe(pos + i)) {
+                    return pos + i;
+                }
+            }
+            pos += Math.max(1, n - 3);
+        }
+        return size <= limit ? size : -1;
+    }
+
+    /** 试解压：从 at 开始的头部与前 64KB 压缩数据能否正常解出 */
+    private boolean probe(long at) throws IOException {
+        byte[] in = new byte[(int) Math.min(PROBE_BYTES, size - at)];
+        readFully(at, in);
+        int p = skipHeader(in, 0, in.length);
+        if (p < 0) return false;
+        Inflater inf = new Inflater(true);
+        try {
+            inf.setInput(in, p, in.length - p);
+            byte[] out = new byte[PROBE_BYTES];
+            while (!inf.finished() && !inf.needsInput()) {
+                if (inf.inflate(out) == 0 && inf.needsDictionary()) return false;
+            }
+            return true;
+        } catch (DataFormatException e) {
+            return false;
+        } finally {
+            inf.end();
+        }
+    }
+
+    /**
+     * 一块的解压任务：从 start 起逐个解成员直到越过 end，输出按 OUT_BLOCK 缓冲放进 out，最后放块结束标记。
+     * 压缩数据按 IN_BLOCK 窗口顺序读，不整块读进内存。
+     * 作废时不中断线程（中断会关掉共享的 FileChannel），由 cancelled 让它在下次放缓冲时退出。
+     */
+    private final class Task implements Runnable {
+        final long start, end;
+        final BlockingQueue<Block> out = new ArrayBlockingQueue<>(queueBlocks);
+        volatile boolean cancelled;
+
+        private final byte[] in = new byte[IN_BLOCK];
+        /** 窗口 in 对应的文件偏移与有效长度 */
+        private long inBase;
+        private int inLen;
+
+        Task(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            try {
+                try {
+                    decode();
+                } catch (IOException e) {
+                    put(new Block(null, 0, -1, false, e));
+                } catch (RuntimeException e) {
+                    put(new Block(null, 0, -1, false, new IOException("gzip decode failed", e)));
+                }
+            } catch (InterruptedException e) {
+                // 流已关闭
+            }
+        }
+
+        private void decode() throws IOException, InterruptedException {
+            Inflater inf = new Inflater(true);
+            CRC32 crc = new CRC32();
+            byte[] blk = buffer();
+            int fill = 0;
+            long pos = start;
+            try {
+                while (pos < end) {
+                    int data = header(pos);
+                    if (data < 0) {
+                        // 成员之后不是 gzip 头：与 GZIPInputStream 一样视为尾部填充，流到此结束
+                        if (fill > 0 && !put(new Block(blk, fill, -1, false, null))) return;
+                        put(new Block(null, 0, pos, true, null));
+                        return;
+                    }
+                    inf.reset();
+                    crc.reset();
+                    inf.setInput(in, data, inLen - data);
+                    long total = 0;
+                    while (!inf.finished()) {
+                        if (fill == blk.length) {
+                            if (!put(new Block(blk, fill, -1, false, null))) return;
+                            blk = buffer();
+                            fill = 0;
+                        }
+                        int k;
+                        try {
+                            k = inf.inflate(blk, fill, blk.length - fill);
+                        } catch (DataFormatException e) {
+                            throw new ZipException("invalid gzip data in member at offset " + pos + ": " + e.getMessage());
+                        }
+                        if (k == 0 && inf.needsInput()) {
+                            // 成员越过窗口（或块尾）：接着读后面的压缩数据
+                            if (inBase + inLen >= size) throw new EOFException("unexpected end of gzip member at offset " + pos);
+                            load(inBase + inLen);
+                            inf.setInput(in, 0, inLen);
+                        } else if (k == 0 && inf.needsDictionary()) {
+                            throw new ZipException("gzip member at offset " + pos + " needs a preset dictionary");
+                        }
+                        crc.update(blk, fill, k);
+                        fill += k;
+                        total += k;
+                    }
+                    long trailer = inBase + inLen - inf.getRemaining();
+                    if (trailer + 8 > inBase + inLen) load(trailer);
+                    int at = (int) (trailer - inBase);
+                    if (at + 8 > inLen) throw new EOFException("unexpected end of gzip trailer at offset " + trailer);
+                    if ((int) crc.getValue() != le32(in, at) || (int) total != le32(in, at + 4)) {
+                        throw new ZipException("corrupt gzip trailer at offset " + trailer);
+                    }
+                    pos = trailer + 8;
+                }
+                if (fill > 0 && !put(new Block(blk, fill, -1, false, null))) return;
+                put(new Block(null, 0, pos, false, null));
+            } finally {
+                inf.end();
+            }
+        }
+
+        /** pos 处成员头之后压缩数据在窗口里的起点；不是合法头部返回 -1 */
+        private int header(long pos) throws IOException {
+            if (pos < inBase || pos >= inBase + inLen) load(pos);
+            int data = skipHeader(in, (int) (pos - inBase), inLen);
+            if (data < 0 && inBase != pos) {
+                // 头部可能被窗口尾截断：窗口移到 pos 再试
+                load(pos);
+                data = skipHeader(in, 0, inLen);
+            }
+            return data;
+        }
+
+        /** 把窗口移到 at 起，读满或读到文件尾 */
+        private void load(long at) throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(in);
+            while (bb.hasRemaining() && at + bb.position() < size) {
+                if (ch.read(bb, at + bb.position()) < 0) break;
+            }
+            inBase = at;
+            inLen = bb.position();
+        }
+
+        private byte[] buffer() {
+            byte[] b = free.poll();
+            return b != null ? b : new byte[OUT_BLOCK];
+        }
+
+        /** 放进队列，队列满时等读方取走；块已作废返回 false */
+        private boolean put(Block b) throws InterruptedException {
+            while (!cancelled) {
+                if (out.offer(b, 100, TimeUnit.MILLISECONDS)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 解析 gzip 成员头（RFC 1952），返回压缩数据起点；不是合法头部返回 -1。
+     */
+    static int skipHeader(byte[] b, int p, int end) {
+        if (p + 10 > end || (b[p] & 0xFF) != 0x1F || (b[p + 1] & 0xFF) != 0x8B || b[p + 2] != 8) return -1;
+        int flg = b[p + 3] & 0xFF;
+        if ((flg & 0xE0) != 0) return -1;
+        int q = p + 10;
+        if ((flg & 4) != 0) { // FEXTRA
+            if (q + 2 > end) return -1;
+            q += 2 + ((b[q] & 0xFF) | (b[q + 1] & 0xFF) << 8);
+        }
+        if ((flg & 8) != 0) { // FNAME
+            while (q < end && b[q] != 0) q++;
+            q++;
+        }
+        if ((flg & 16) != 0) { // FCOMMENT
+            while (q < end && b[q] != 0) q++;
+            q++;
+        }
+        if ((flg & 2) != 0) q += 2; // FHCRC
+        return q <= end ? q : -1;
+    }
+
+    private static int le32(byte[] b, int p) {
+        return (b[p] & 0xFF) | (b[p + 1] & 0xFF) << 8 | (b[p + 2] & 0xFF) << 16 | (b[p + 3] & 0xFF) << 24;
+    }
+
+    private void readFully(long pos, byte[] dst) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(dst);
+        while (bb.hasRemaining()) {
+            int n = ch.read(bb, pos + bb.position());
+            if (n < 0) throw new IOException("unexpected EOF at " + (pos + bb.position()));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Task t : inflight) t.cancelled = true;
+        inflight.clear();
+        if (head != null) head.cancelled = true;
+        pool.shutdownNow();
+        if (sequential != null) sequential.close();
+        ch.close();
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.loader.pipeline;
+
+/**
+ * 坏行原因码（写在 .bad 文件每行的第二列，也是按原因计数的键）：
+ * 以解析器慢路径（原 String 口径）第一个不通过的校验为准。
+ */
+public enum RejectReason {
+    /** 列数不对 */
+    FIELDS,
+    /** 资产：biz_dt 不是合法的 yyyy-MM-dd HH:mm:ss */
+    TS,
+    /** 客户号非数字或超过 10 位 */
+    CUSTOMER,
+    /** 资产：账号非数字或超过 18 位 */
+    ACCOUNT,
+    /** 资产：币种不是 3 位字母 */
+    CCY,
+    /** 资产：金额不符合 -?\d{1,18}(\.\d{1,2})? */
+    BALANCE,
+    /** 关系：经理号为空、超过 7 位或含非字母数字 */
+    MANAGER,
+    /** 规整后超过单行长度上限 */
+    LENGTH,
+    /** 增量：同键最新 biz_dt 有多行且 balance 不同，无法判断先后，并入时剔除（行号列为增量表名） */
+    AMBIGUOUS
+}
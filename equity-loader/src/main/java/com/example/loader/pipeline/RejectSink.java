@@ -0,0 +1,262 @@
+package com.example.loader.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 坏行文件（*.bad）的异步写入端：读线程只把坏行拷一份放进有界队列，由独立线程写盘，
+ * 读线程不碰磁盘 I/O（只有积压超过队列容量时才会等写线程腾位置）。
+ * 每行格式：{@code 源文件行号|原因码|原始行}，原始行可用 {@code cut -d'|' -f3-} 还原。
+ *
+ * 行号：读线程只知道段内行号。第 0 段的行号即文件行号，直接写出；
+ * 其后各段要等前面的段都读完（segmentDone 报上行数）才知道起始行号，
+ * 在此之前该段的坏行先暂存到 .bad 旁的临时文件，起始行号确定后换算成文件行号并入 .bad。
+ * 多节点协同装载时一个节点只读文件的若干单元，无从换算，改为直接写「段号:段内行号」（segmentLines）。
+ * 多个读线程可共用一个实例。
+ */
+@Slf4j
+public final class RejectSink implements Closeable {
+
+    private static final Object EOF = new Object();
+
+    private static final class Reject {
+        final int segment;
+        final long line;
+        final RejectReason reason;
+        final byte[] row;
+
+        Reject(int segment, long line, RejectReason reason, byte[] row) {
+            this.segment = segment;
+            this.line = line;
+            this.reason = reason;
+            this.row = row;
+        }
+    }
+
+    private static final class SegmentDone {
+        final int segment;
+        final long lines;
+
+        SegmentDone(int segment, long lines) {
+            this.segment = segment;
+            this.lines = lines;
+        }
+    }
+
+    private final Path path;
+    private final boolean segmentLines;
+    private final BlockingQueue<Object> queue;
+    private final Thread thread;
+    private volatile IOException failure;
+
+    // ---- 以下只由写线程访问 ----
+    private final OutputStream out;
+    /** 各段起始文件行号（0-based），未知为 -1 */
+    private final List<Long> bases = new ArrayList<>();
+    /** 各段读完时的行数，未读完为 -1 */
+    private final List<Long> lineCounts = new ArrayList<>();
+    /** 起始行号未知的段暂存的坏行 */
+    private final List<DataOutputStream> deferred = new ArrayList<>();
+
+    /**
+     * @param capacity 队列里最多积压的坏行数
+     */
+    public RejectSink(Path path, int capacity, String threadName) throws IOException {
+        this(path, capacity, threadName, false);
+    }
+
+    /**
+     * @param segmentLines true 时行号一律写成「段号:段内行号」，不换算文件行号
+     */
+    public RejectSink(Path path, int capacity, String threadName, boolean segmentLines) throws IOException {
+        this.path = path;
+        this.segmentLines = segmentLines;
+        this.out = new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), 1 << 16);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.thread = new Thread(this::drain, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 交出一个坏行（读线程调用）：拷贝 src 中 [from, to) 后入队。
+     * @param line 段内行号（1-based）
+     */
+    public void reject(int segment, long line, RejectReason reason, ByteBuffer src, int from, int to)
+            throws IOException {
+        IOException f = failure;
+        if (f != null) throw new IOException("reject sink " + path + " failed", f);
+        byte[] row = new byte[to - from];
+        for (int i = 0; i < row.length; i++) row[i] = src.get(from + i);
+        put(new Reject(segment, line, reason, row));
+    }
+
+    /** 某段已读完，共 lines 行（读线程调用） */
+    public void segmentDone(int segment, long lines) throws IOException {
+        put(new SegmentDone(segment, lines));
+    }
+
+    private void put(Object o) throws IOException {
+        try {
+            queue.put(o);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while queueing reject");
+        }
+    }
+
+    /** 写线程：写出失败后继续取空队列，免得读线程卡在 put 上，由下一次 reject/close 报错 */
+    private void drain() {
+        try {
+            while (true) {
+                Object o = queue.take();
+                if (o == EOF) break;
+                if (failure != null) continue;
+                try {
+                    if (o instanceof Reject) write((Reject) o);
+                    else done((SegmentDone) o);
+                } catch (IOException e) {
+                    log.error("write rejects to {} failed", path, e);
+                    failure = e;
+                }
+            }
+            if (failure == null) finish();
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("reject sink interrupted");
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void write(Reject r) throws IOException {
+        if (segmentLines) {
+            writeLine(r.segment + ":" + r.line, r.reason, r.row);
+            return;
+        }
+        long base = base(r.segment);
+        if (base >= 0) {
+            writeLine(Long.toString(base + r.line), r.reason, r.row);
+            return;
+        }
+        DataOutputStream tmp = deferred.get(r.segment);
+        if (tmp == null) {
+            tmp = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(deferredPath(r.segment)), 1 << 16));
+            deferred.set(r.segment, tmp);
+        }
+        tmp.writeLong(r.line);
+        tmp.writeByte(r.reason.ordinal());
+        tmp.writeInt(r.row.length);
+        tmp.write(r.row);
+    }
+
+    /** 记下段的行数，依次推出后续段的起始行号，并把已能换算的暂存坏行并入 .bad */
+    private void done(SegmentDone d) throws IOException {
+        if (segmentLines) return;
+        grow(d.segment);
+        lineCounts.set(d.segment, d.lines);
+        for (int k = 1; k < bases.size(); k++) {
+            if (bases.get(k) >= 0) continue;
+            if (bases.get(k - 1) < 0 || lineCounts.get(k - 1) < 0) break;
+            bases.set(k, bases.get(k - 1) + lineCounts.get(k - 1));
+            merge(k, bases.get(k));
+        }
+    }
+
+    /** 收尾：仍无法换算的段（前面某段没读完，多半是装载已失败）以「段号:段内行号」写出 */
+    private void finish() throws IOException {
+        for (int k = 0; k < deferred.size(); k++) {
+            if (deferred.get(k) != null) merge(k, -1);
+        }
+        out.flush();
+    }
+
+    /** 暂存的坏行并入 .bad；base &lt; 0 表示起始行号未知 */
+    private void merge(int segment, long base) throws IOException {
+        DataOutputStream tmp = deferred.get(segment);
+        if (tmp == null) return;
+        tmp.close();
+        deferred.set(segment, null);
+        Path p = deferredPath(segment);
+        RejectReason[] reasons = RejectReason.values();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p), 1 << 16))) {
+            while (true) {
+                long line;
+                try {
+                    line = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                RejectReason reason = reasons[in.readByte()];
+                byte[] row = new byte[in.readInt()];
+                in.readFully(row);
+                writeLine(base >= 0 ? Long.toString(base + line) : segment + ":" + line, reason, row);
+            }
+        }
+        Files.deleteIfExists(p);
+    }
+
+    private void writeLine(String line, RejectReason reason, byte[] row) throws IOException {
+        out.write((line + '|' + reason.name() + '|').getBytes(StandardCharsets.US_ASCII));
+        out.write(row);
+        out.write('\n');
+    }
+
+    private long base(int segment) {
+        grow(segment);
+        return bases.get(segment);
+    }
+
+    /** 补齐到 segment；新段的前一段已读完时起始行号直接可知 */
+    private void grow(int segment) {
+        while (bases.size() <= segment) {
+            int k = bases.size();
+            bases.add(k == 0 ? 0L
+                    : bases.get(k - 1) >= 0 && lineCounts.get(k - 1) >= 0 ? bases.get(k - 1) + lineCounts.get(k - 1)
+                    : -1L);
+            lineCounts.add(-1L);
+            deferred.add(null);
+        }
+    }
+
+    private Path deferredPath(int segment) {
+        return Paths.get(path + ".seg" + segment + ".tmp");
+    }
+
+    /** 等写线程把队列里的坏行全部写完；写盘失败在这里抛出 */
+    @Override
+    public void close() throws IOException {
+        try {
+            put(EOF);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while closing reject sink");
+        } finally {
+            for (DataOutputStream tmp : deferred) {
+                if (tmp != null) tmp.close();
+            }
+            out.close();
+        }
+        if (failure != null) throw failure;
+    }
+}
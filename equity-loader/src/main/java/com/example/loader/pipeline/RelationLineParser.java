@@ -0,0 +1,120 @@
+package com.example.loader.pipeline;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.example.loader.pipeline.TextChecks.*;
+
+/**
+ * 关系文件行解析器（csmgr_refno|customer_no，分隔符支持 '|' 与全角 '｜'）：
+ * - 快路径：ASCII 内容 + 半角/全角竖线（UTF-8 的 EF BD 9C）逐字节识别，
+ *   经理号转大写、客户号左补 0 到 10 位后直接写入输出缓冲；
+ * - 慢路径：其余情况回退到原 String 校验，口径与旧实现一致。
+ */
+public final class RelationLineParser implements LineParser {
+
+    private static final byte[] PAD = "0000000000".getBytes(StandardCharsets.US_ASCII);
+
+    private long routeKey;
+    private RejectReason rejectReason;
+    private byte[] scratch = new byte[128];
+
+    @Override
+    public long routeKey() { return routeKey; }
+
+    @Override
+    public RejectReason rejectReason() { return rejectReason; }
+
+    @Override
+    public int parse(ByteBuffer src, int from, int to, byte[] out, int off) {
+        int n = parseFast(src, from, to, out, off);
+        return n > 0 ? n : parseSlow(src, from, to, out, off);
+    }
+
+    private int parseFast(ByteBuffer src, int from, int to, byte[] out, int off) {
+        // 找唯一的分隔符：半角 '|' 或全角 '｜'(EF BD 9C)；出现其他非 ASCII 字节直接走慢路径
+        int delim = -1, delimLen = 0;
+        if (Swar.isAscii(src, from, to)) {
+            delim = Swar.indexOfPipe(src, from, to);
+            if (delim < 0 || Swar.indexOfPipe(src, delim + 1, to) >= 0) return -1;
+            delimLen = 1;
+        } else {
+            for (int i = from; i < to; i++) {
+                byte b = src.get(i);
+                int len;
+                if (b == '|') len = 1;
+                else if (b >= 0) continue;
+                else if (b == (byte) 0xEF && i + 2 < to && src.get(i + 1) == (byte) 0xBD && src.get(i + 2) == (byte) 0x9C) len = 3;
+                else return -1;
+                if (delim >= 0) return -1; // 多于 2 列
+                delim = i;
+                delimLen = len;
+                i += len - 1;
+            }
+            if (delim < 0) return -1;
+        }
+
+        int p = off;
+
+        // manager：1..7 位字母数字，转大写
+        int s = EquityLineParser.trimStart(src, from, delim), e = EquityLineParser.trimEnd(src, s, delim);
+        int len = e - s;
+        if (len < 1 || len > 7) return -1;
+        for (int i = s; i < e; i++) {
+            byte b = src.get(i);
+            if (b >= 'a' && b <= 'z') b -= 32;
+            else if (!((b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9'))) return -1;
+            out[p++] = b;
+        }
+        out[p++] = '|';
+
+        // customer：1..10 位数字，左补 0
+        s = EquityLineParser.trimStart(src, delim + delimLen, to); e = EquityLineParser.trimEnd(src, s, to);
+        len = e - s;
+        if (len < 1 || len > 10) return -1;
+        long cust = 0;
+        System.arraycopy(PAD, 0, out, p, 10 - len);
+        p += 10 - len;
+        for (int i = s; i < e; i++) {
+            byte b = src.get(i);
+            if (b < '0' || b > '9') return -1;
+            cust = cust * 10 + (b - '0');
+            out[p++] = b;
+        }
+        out[p++] = '\n';
+
+        routeKey = cust;
+        return p - off;
+    }
+
+    // ======== 慢路径：原 String 口径（坏行在这里定原因） ========
+    private int parseSlow(ByteBuffer src, int from, int to, byte[] out, int off) {
+        int n = to - from;
+        if (scratch.length < n) scratch = new byte[Math.max(n, scratch.length * 2)];
+        for (int i = 0; i < n; i++) scratch[i] = src.get(from + i);
+        String line = new String(scratch, 0, n, StandardCharsets.UTF_8);
+
+        String[] arr = line.split("[|｜]", -1);
+        if (arr.length != 2) return reject(RejectReason.FIELDS);
+
+        String mgrRaw  = arr[0].trim();
+        String custRaw = arr[1].trim();
+
+        // manager：1..7 位，字母数字
+        if (mgrRaw.isEmpty() || mgrRaw.length() > 7 || !isAlphaNum(mgrRaw)) return reject(RejectReason.MANAGER);
+        // customer：数字，<=10；不足左补0
+        if (!isAllDigits(custRaw) || custRaw.length() > 10) return reject(RejectReason.CUSTOMER);
+        String customer = leftPadToLen(custRaw, 10);
+
+        byte[] row = (mgrRaw.toUpperCase() + "|" + customer + "\n").getBytes(StandardCharsets.UTF_8);
+        if (row.length > MAX_ROW) return reject(RejectReason.LENGTH);
+        System.arraycopy(row, 0, out, off, row.length);
+        routeKey = Long.parseLong(customer);
+        return row.length;
+    }
+
+    private int reject(RejectReason reason) {
+        rejectReason = reason;
+        return -1;
+    }
+}
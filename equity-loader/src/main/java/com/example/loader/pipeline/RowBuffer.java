@@ -0,0 +1,56 @@
+package com.example.loader.pipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 可复用的行缓冲：按需扩容的 byte[] + 已写字节数/行数。
+ * 与 ByteArrayOutputStream 不同，读取时直接包装内部数组，不再 toByteArray() 多拷一份。
+ */
+public final class RowBuffer {
+
+    private byte[] data;
+    private int size;
+    private long rows;
+
+    public RowBuffer(int initialCapacity) {
+        this.data = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public void append(byte[] buf, int off, int len, int rowCount) {
+        if (size + len > data.length) {
+            byte[] bigger = new byte[Math.max(size + len, data.length * 2)];
+            System.arraycopy(data, 0, bigger, 0, size);
+            data = bigger;
+        }
+        System.arraycopy(buf, off, data, size, len);
+        size += len;
+        rows += rowCount;
+    }
+
+    public int size() { return size; }
+
+    public long rows() { return rows; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public void reset() {
+        size = 0;
+        rows = 0;
+    }
+
+    public InputStream asInputStream() {
+        return new ByteArrayInputStream(data, 0, size);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(data, 0, size);
+    }
+
+    /** 只写出 [from, size) 这一段（例如刚追加的部分） */
+    public void writeTo(OutputStream out, int from) throws IOException {
+        out.write(data, from, size - from);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.loader.pipeline;
+
+/**
+ * 读线程交给写线程的一块数据：同一 lane 的若干完整规整行（每行以 '\n' 结尾）连续存放，
+ * 开启检查点时附带一个标记（该标记之前属于本 lane 的行都在本块或更早的块里）。
+ * 块从 {@link ChunkPool} 借出，写线程写完后归还，循环复用。
+ */
+final class RowChunk {
+
+    /** 结束标记：写线程收到即退出 */
+    static final RowChunk EOS = new RowChunk(0);
+
+    final byte[] data;
+    int size;
+    int rows;
+
+    /** 检查点标记：段号（-1 表示无标记）、该段偏移、该段已路由到本 lane 的行数 */
+    int markSegment = -1;
+    long markOffset;
+    long markRows;
+
+    RowChunk(int capacity) {
+        this.data = new byte[capacity];
+    }
+
+    boolean fits(int len) {
+        return size + len <= data.length;
+    }
+
+    void append(byte[] row, int len) {
+        System.arraycopy(row, 0, data, size, len);
+        size += len;
+        rows++;
+    }
+
+    void mark(int segment, long offset, long laneRows) {
+        markSegment = segment;
+        markOffset = offset;
+        markRows = laneRows;
+    }
+
+    boolean hasMark() {
+        return markSegment >= 0;
+    }
+
+    void reset() {
+        size = 0;
+        rows = 0;
+        markSegment = -1;
+    }
+}
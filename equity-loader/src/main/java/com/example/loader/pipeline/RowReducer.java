@@ -0,0 +1,22 @@
+package com.example.loader.pipeline;
+
+/**
+ * 写入前的行归约：写线程把本 lane 收到的规整行全部交给它，读完后再由它决定真正写出哪些行、按什么顺序写。
+ * 归约需要看到全部数据才能出结果，因此与检查点互斥（COPY 在读完之后才开始）。
+ * 非线程安全，每条 lane 一个。
+ */
+public interface RowReducer extends AutoCloseable {
+
+    /** 追加若干完整规整行（每行以 '\n' 结尾） */
+    void add(byte[] buf, int off, int len) throws Exception;
+
+    /** 输入结束：把归约结果全部写给 writer（不调用 finish） */
+    void drainTo(ShardWriter writer) throws Exception;
+
+    /** 被归约掉、没有写出的行数 */
+    long collapsed();
+
+    /** 释放内存与溢写文件 */
+    @Override
+    void close();
+}
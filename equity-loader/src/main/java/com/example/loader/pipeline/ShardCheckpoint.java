@@ -0,0 +1,172 @@
+package com.example.loader.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 单个分表的检查点记录器（写线程独占，非线程安全）：
+ * - 读线程给每个数据块附上一个「标记」(段号, 块内最后一行的结束偏移, 该段已路由到本分片的行数)，
+ *   标记之前属于本分片的行都在这块或更早的块里；另外每隔若干行给每个分片的当前块附上标记并交出（没有新行的分片也推进水位）；
+ * - 写线程在把块交给 ShardWriter 之前登记标记，下一次 COPY 提交时（beforeCommit）在同一事务里落库。
+ *   ShardWriter 的提交总包含已 write 的全部数据，所以库里的偏移既不超前、也不落后于已提交的数据；
+ * - 多节点协同装载时提交前先过租约栅栏（{@link WorkUnits#FENCE_SQL}），单元已被接手则整个事务回滚。
+ */
+@Slf4j
+public class ShardCheckpoint implements CommitListener {
+
+    private final DataSource dataSource;
+    private final String fileKey;
+    private final String table;
+    private final long fileSize;
+    private final long fileMtime;
+    private final List<FileSegments.Segment> segments;
+    /** 多节点协同装载时本节点的 owner（fileKey 即 job 键、段号即单元号）；单机装载为 null */
+    private final String owner;
+
+    private final long[] offset;
+    private final long[] rows;
+    private final boolean[] dirty;
+    private int dirtyCount;
+    /** 本对象确认已落库的偏移（-1 = 本轮还没提交过该段） */
+    private final long[] savedOffset;
+
+    ShardCheckpoint(DataSource dataSource, String fileKey, String table, long fileSize, long fileMtime,
+                    List<FileSegments.Segment> segments, String owner) {
+        this.dataSource = dataSource;
+        this.owner = owner;
+        this.fileKey = fileKey;
+        this.table = table;
+        this.fileSize = fileSize;
+        this.fileMtime = fileMtime;
+        this.segments = segments;
+        this.offset = new long[segments.size()];
+        this.rows = new long[segments.size()];
+        this.dirty = new boolean[segments.size()];
+        this.savedOffset = new long[segments.size()];
+        Arrays.fill(savedOffset, -1);
+    }
+
+    /** 记下一个标记，随下次提交落库 */
+    public void mark(int seg, long segOffset, long segRows) {
+        offset[seg] = segOffset;
+        rows[seg] = segRows;
+        if (!dirty[seg]) {
+            dirty[seg] = true;
+            dirtyCount++;
+        }
+    }
+
+    @Override
+    public void beforeCommit(Connection conn) throws SQLException {
+        if (dirtyCount == 0) return;
+        if (owner != null) fence(conn);
+        try (PreparedStatement ps = conn.prepareStatement(CheckpointStore.UPSERT_SQL)) {
+            for (int s = 0; s < dirty.length; s++) {
+                if (!dirty[s]) continue;
+                FileSegments.Segment seg = segments.get(s);
+                ps.setString(1, fileKey);
+                ps.setString(2, table);
+                ps.setInt(3, s);
+                ps.setLong(4, seg.start);
+                ps.setLong(5, seg.end);
+                ps.setLong(6, offset[s]);
+                ps.setLong(7, rows[s]);
+                ps.setLong(8, fileSize);
+                ps.setLong(9, fileMtime);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /** 租约栅栏：本次提交涉及的单元须仍归本节点，否则抛 LeaseLostException，整个 COPY 事务回滚 */
+    private void fence(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(WorkUnits.FENCE_SQL)) {
+            for (int s = 0; s < dirty.length; s++) {
+                if (!dirty[s]) continue;
+                ps.setString(1, fileKey);
+                ps.setInt(2, s);
+                ps.setString(3, owner);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new LeaseLostException(table + ": unit #" + s + " of " + fileKey + " is no longer owned by " + owner);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void afterCommit() {
+        for (int s = 0; s < dirty.length; s++) {
+            if (dirty[s]) savedOffset[s] = offset[s];
+        }
+        Arrays.fill(dirty, false);
+        dirtyCount = 0;
+    }
+
+    /**
+     * COMMIT 结果未知时查库：待提交的标记与库里一致即已提交，仍是上次的值即未提交。
+     * 标记与上次相同的段无法区分，不参与判断；全都无法区分时返回 null。
+     */
+    @Override
+    public Boolean commitApplied() throws SQLException {
+        if (dirtyCount == 0) return null;
+        long[] dbOffset = new long[offset.length];
+        long[] dbRows = new long[offset.length];
+        Arrays.fill(dbOffset, -1);
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(CheckpointStore.SELECT_SHARD_SQL)) {
+            ps.setString(1, fileKey);
+            ps.setString(2, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int s = rs.getInt(1);
+                    if (s < 0 || s >= offset.length) continue;
+                    dbOffset[s] = rs.getLong(2);
+                    dbRows[s] = rs.getLong(3);
+                }
+            }
+        }
+        int applied = 0, missing = 0;
+        for (int s = 0; s < dirty.length; s++) {
+            if (!dirty[s] || offset[s] == savedOffset[s]) continue;
+            if (dbOffset[s] == offset[s] && dbRows[s] == rows[s]) applied++;
+            else missing++;
+        }
+        if (applied > 0 && missing > 0) {
+            throw new IllegalStateException(table + " checkpoint partially matches after commit failure");
+        }
+        return applied > 0 ? Boolean.TRUE : missing > 0 ? Boolean.FALSE : null;
+    }
+
+    /**
+     * 写线程结束时调用：ShardWriter 已把数据全部提交，
+     * 最后一批标记之后若没有新数据触发提交，这里单独用一个事务补写。
+     * 写入端已关闭，这里取的连接与它不同时占用。
+     */
+    public void flush() throws SQLException {
+        if (dirtyCount == 0) return;
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                beforeCommit(conn);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        afterCommit();
+        log.debug("{} checkpoint flushed", table);
+    }
+}
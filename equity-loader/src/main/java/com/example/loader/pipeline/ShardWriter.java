@@ -0,0 +1,29 @@
+package com.example.loader.pipeline;
+
+/**
+ * 单个分片的 COPY 写入端：写线程从队列取出的行依次交给它，
+ * 由实现决定何时真正发给数据库、何时提交。
+ * 约定：提交只发生在 write/finish 调用内部，且一次提交包含此前所有 write 的全部数据（不会只提交半块），
+ * 检查点标记据此在 write 之前登记。
+ */
+public interface ShardWriter extends AutoCloseable {
+
+    /** 写入若干完整行（COPY text 格式，每行以 '\n' 结尾） */
+    void write(byte[] buf, int off, int len, int rows) throws Exception;
+
+    /** 输入结束：把剩余数据写完并提交 */
+    void finish() throws Exception;
+
+    /** 每次提交后回报行数/字节数/耗时（指标统计）；默认不回报 */
+    default void observe(CopyObserver observer) { }
+
+    /** 自适应批大小控制器（指标展示其决策）；固定批大小时为 null */
+    default AdaptiveBatchSizer batchSizer() { return null; }
+
+    /** 已提交（数据库可见）的行数 */
+    long committedRows();
+
+    /** 释放连接等资源；未 finish 时未提交的数据作废 */
+    @Override
+    void close();
+}
@@ -0,0 +1,253 @@
+package com.example.loader.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 影子表装载：COPY 写进无索引的影子表（表名 + "_stg"），线上表在此期间照常可读；
+ * 影子表为 UNLOGGED（写入不记 WAL）；数据库崩溃后它会被清空而检查点还在，
+ * 续传前由 CheckpointStore.verifyRows 核对行数，对不上就拒绝续传。
+ * 数据全部进来后：
+ *  1) 每个表一条连接并行：SET LOGGED → 按线上表的定义补建索引/唯一约束 → 补上线上表的授权与表注释 → ANALYZE；
+ *     可重复执行：上次建到一半失败后续传，影子表上已有的同名约束、索引跳过；
+ *  2) 一个事务内先一次性锁住所有线上表，再把它们改名为 _old、影子表改名为正式表名（索引、约束名一并对调）；
+ *     拿锁只等 lockTimeoutMs（几十毫秒），拿不到就回滚、退避后重试，
+ *     排在长查询后面时新来的读请求最多被堵这么久；
+ *  3) 提交后删除 _old 表。
+ */
+@Slf4j
+public class StagingTables {
+
+    public static final String STAGING_SUFFIX = "_stg";
+    private static final String OLD_SUFFIX = "_old";
+
+    private final DataSource dataSource;
+    private final int buildThreads;
+    private final String maintenanceWorkMem;
+    private final long lockTimeoutMs;
+    private final int swapRetries;
+
+    public StagingTables(DataSource dataSource, int buildThreads, String maintenanceWorkMem,
+                         long lockTimeoutMs, int swapRetries) {
+        this.dataSource = dataSource;
+        this.buildThreads = buildThreads;
+        this.maintenanceWorkMem = maintenanceWorkMem;
+        this.lockTimeoutMs = lockTimeoutMs;
+        this.swapRetries = swapRetries;
+    }
+
+    public static String stagingName(String table) {
+        return table + STAGING_SUFFIX;
+    }
+
+    /**
+     * 建 UNLOGGED 影子表（复制列、默认值与列注释，不带索引和约束）。
+     * @param keep true（续传）时保留已有影子表及其中已提交的数据
+     */
+    public void prepare(List<String> tables, boolean keep) throws SQLException {
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            for (String t : tables) {
+                String stg = stagingName(t);
+                if (!keep) st.execute("DROP TABLE IF EXISTS " + stg);
+                st.execute("CREATE UNLOGGED TABLE IF NOT EXISTS " + stg
+                        + " (LIKE " + t + " INCLUDING DEFAULTS INCLUDING COMMENTS)");
+            }
+        }
+        log.info("staging tables ready: {} x {} (unlogged){}", tables.size(), STAGING_SUFFIX, keep ? " (kept)" : "");
+    }
+
+    /** 并行补建索引 + ANALYZE，一个表一条连接 */
+    public void build(List<String> tables) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(buildThreads, tables.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String t : tables) {
+                futures.add(pool.submit(() -> {
+                    build(t);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void build(String table) throws SQLException {
+        String stg = stagingName(table);
+        long t0 = System.currentTimeMillis();
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("SET maintenance_work_mem = '" + maintenanceWorkMem + "'");
+            st.execute("ALTER TABLE " + stg + " SET LOGGED"); // 已是普通表时不做任何事
+            for (String ddl : indexDdl(conn, table, stg)) {
+                st.execute(ddl);
+            }
+            // 改名换表不会带上授权与表注释：按线上表现有的补到影子表上
+            for (String ddl : grantAndCommentDdl(conn, table, stg)) {
+                st.execute(ddl);
+            }
+            st.execute("ANALYZE " + stg);
+            st.execute("RESET maintenance_work_mem");
+        }
+        log.info("{} indexed + analyzed in {} ms", stg, System.currentTimeMillis() - t0);
+    }
+
+    /**
+     * 按线上表现有的定义生成影子表的建索引语句，名字统一加 _stg 后缀（换表时再改回）：
+     * 主键/唯一约束用 ADD CONSTRAINT 重建，其余索引用 CREATE INDEX 重建；影子表上已有的同名约束、索引跳过。
+     */
+    private List<String> indexDdl(Connection conn, String table, String stg) throws SQLException {
+        Set<String> built = new HashSet<>();
+        for (String[] c : constraints(conn, stg)) built.add(c[0]);
+        for (String[] idx : plainIndexes(conn, stg)) built.add(idx[0]);
+        List<String> ddl = new ArrayList<>();
+        for (String[] c : constraints(conn, table)) {
+            if (built.contains(c[0] + STAGING_SUFFIX)) continue;
+            ddl.add("ALTER TABLE " + stg + " ADD CONSTRAINT " + c[0] + STAGING_SUFFIX + " " + c[1]);
+        }
+        for (String[] idx : plainIndexes(conn, table)) {
+            if (built.contains(idx[0] + STAGING_SUFFIX)) continue;
+            // indexdef 形如：CREATE [UNIQUE] INDEX name ON schema.table USING btree (cols)
+            String def = idx[1];
+            String unique = def.startsWith("CREATE UNIQUE") ? "UNIQUE " : "";
+            ddl.add("CREATE " + unique + "INDEX " + idx[0] + STAGING_SUFFIX + " ON " + stg
+                    + def.substring(def.indexOf(" USING ")));
+        }
+        return ddl;
+    }
+
+    /**
+     * 线上表的授权（表所有者自己的除外）与表注释，生成到影子表上的 GRANT / COMMENT 语句。
+     * 列注释已由 LIKE ... INCLUDING COMMENTS 带上。
+     */
+    private static List<String> grantAndCommentDdl(Connection conn, String table, String stg) throws SQLException {
+        List<String> ddl = new ArrayList<>();
+        String grants = "SELECT g.privilege_type, g.grantee, g.is_grantable FROM information_schema.table_privileges g" +
+                " JOIN pg_class c ON c.oid = ?::regclass JOIN pg_namespace n ON n.oid = c.relnamespace" +
+                " WHERE g.table_schema = n.nspname AND g.table_name = c.relname" +
+                " AND g.grantee <> pg_get_userbyid(c.relowner) ORDER BY g.grantee, g.privilege_type";
+        try (PreparedStatement ps = conn.prepareStatement(grants)) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String grantee = "PUBLIC".equals(rs.getString(2)) ? "PUBLIC" : quoteIdent(rs.getString(2));
+                    ddl.add("GRANT " + rs.getString(1) + " ON " + stg + " TO " + grantee
+                            + ("YES".equals(rs.getString(3)) ? " WITH GRANT OPTION" : ""));
+                }
+            }
+        }
+        try (PreparedStatement ps = conn.prepareStatement("SELECT obj_description(?::regclass, 'pg_class')")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next() && rs.getString(1) != null) {
+                    ddl.add("COMMENT ON TABLE " + stg + " IS '" + rs.getString(1).replace("'", "''") + "'");
+                }
+            }
+        }
+        return ddl;
+    }
+
+    private static String quoteIdent(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    /** {约束名, 定义}：主键与唯一约束 */
+    private static List<String[]> constraints(Connection conn, String table) throws SQLException {
+        String sql = "SELECT conname, pg_get_constraintdef(oid) FROM pg_constraint" +
+                " WHERE conrelid = ?::regclass AND contype IN ('p', 'u') ORDER BY conname";
+        return pairs(conn, sql, table);
+    }
+
+    /** {索引名, 定义}：不属于约束的普通索引 */
+    private static List<String[]> plainIndexes(Connection conn, String table) throws SQLException {
+        String sql = "SELECT c.relname, pg_get_indexdef(i.indexrelid) FROM pg_index i" +
+                " JOIN pg_class c ON c.oid = i.indexrelid" +
+                " WHERE i.indrelid = ?::regclass" +
+                " AND NOT EXISTS (SELECT 1 FROM pg_constraint k WHERE k.conindid = i.indexrelid)" +
+                " ORDER BY c.relname";
+        return pairs(conn, sql, table);
+    }
+
+    private static List<String[]> pairs(Connection conn, String sql, String table) throws SQLException {
+        List<String[]> out = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(new String[]{rs.getString(1), rs.getString(2)});
+            }
+        }
+        return out;
+    }
+
+    /** 一个事务内对调所有表，拿锁超时则回滚后退避重试（退避 100ms 起、每次加 100ms，最多 2s） */
+    public void swap(List<String> tables) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try (Connection conn = dataSource.getConnection()) {
+                conn.setAutoCommit(false);
+                try (Statement st = conn.createStatement()) {
+                    // 一条 LOCK 拿齐所有线上表，总等待不超过 lockTimeoutMs（逐表改名时每张表各等一次会累加）
+                    st.execute("SET LOCAL lock_timeout = '" + lockTimeoutMs + "ms'");
+                    st.execute("SET LOCAL statement_timeout = '" + lockTimeoutMs + "ms'");
+                    st.execute("LOCK TABLE " + String.join(", ", tables) + " IN ACCESS EXCLUSIVE MODE");
+                    st.execute("SET LOCAL statement_timeout TO DEFAULT");
+                    for (String t : tables) {
+                        swap(conn, st, t);
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    // 55P03 = lock_not_available（lock_timeout），57014 = query_canceled（LOCK 超过 statement_timeout）
+                    boolean lockTimeout = "55P03".equals(e.getSQLState()) || "57014".equals(e.getSQLState());
+                    if (!lockTimeout || attempt >= swapRetries) throw e;
+                    log.warn("swap lock timeout (attempt {}/{}), retrying", attempt, swapRetries);
+                    Thread.sleep(Math.min(2000L, 100L * attempt));
+                    continue;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                log.info("swapped {} staging tables into place", tables.size());
+                try (Statement st = conn.createStatement()) {
+                    for (String t : tables) st.execute("DROP TABLE IF EXISTS " + t + OLD_SUFFIX);
+                }
+                return;
+            }
+        }
+    }
+
+    private void swap(Connection conn, Statement st, String table) throws SQLException {
+        String stg = stagingName(table);
+        String old = table + OLD_SUFFIX;
+        List<String[]> cons = constraints(conn, table);
+        List<String[]> idx = plainIndexes(conn, table);
+
+        st.execute("DROP TABLE IF EXISTS " + old);
+        st.execute("ALTER TABLE " + table + " RENAME TO " + old);
+        for (String[] c : cons) {
+            st.execute("ALTER TABLE " + old + " RENAME CONSTRAINT " + c[0] + " TO " + c[0] + OLD_SUFFIX);
+        }
+        for (String[] i : idx) {
+            st.execute("ALTER INDEX " + i[0] + " RENAME TO " + i[0] + OLD_SUFFIX);
+        }
+
+        st.execute("ALTER TABLE " + stg + " RENAME TO " + table);
+        for (String[] c : cons) {
+            st.execute("ALTER TABLE " + table + " RENAME CONSTRAINT " + c[0] + STAGING_SUFFIX + " TO " + c[0]);
+        }
+        for (String[] i : idx) {
+            st.execute("ALTER INDEX " + i[0] + STAGING_SUFFIX + " RENAME TO " + i[0]);
+        }
+    }
+}
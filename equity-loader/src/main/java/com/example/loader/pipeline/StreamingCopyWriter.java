@@ -0,0 +1,188 @@
+package com.example.loader.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+/**
+ * 常驻流式 COPY：每个分片一条专用连接 + 一个持续打开的 CopyIn（PGCopyOutputStream），
+ * 行一到就写进 COPY 流，不再每批重新取连接、重新发起 COPY。
+ * - 检查点：累计达到 commitRows 行或 commitBytes 字节时 endCopy + commit，随后在同一连接上开启下一段 COPY；
+ *   提交前先执行 CommitListener（例如写断点续传的检查点），与本段 COPY 同一事务；
+ * - 失败重连：COPY/提交出错时回滚并关闭旧连接，退避后重新取连接，
+ *   把上个检查点之后尚未提交的数据重放一遍再继续；失败次数跨写入累计，只有成功提交才清零，
+ *   连续失败超过 maxRetries 次即放弃（出错的行往往要到后面的写入或提交才报出来，不能每次写入从头计）；
+ *   COMMIT 本身出错时事务可能已生效，先查检查点确认，确认未提交才重放，无法确认就让该分片失败。
+ *   为此保留一份「未提交数据」的复用缓冲，大小受 commitBytes 约束。
+ */
+@Slf4j
+public class StreamingCopyWriter implements ShardWriter {
+
+    private static final int STREAM_BUFFER = 1 << 16;
+
+    private final DataSource dataSource;
+    private final String table;
+    private final String copySql;
+    private final long commitRows;
+    private final long commitBytes;
+    private final int maxRetries;
+    private final CopyFormat format;
+    private final CommitListener listener;
+
+    /** 上个检查点之后写出、尚未提交的数据（已按 format 编码，含头部；用于失败重放） */
+    private final RowBuffer pending;
+
+    private Connection conn;
+    private PGCopyOutputStream copy;
+    private long committed;
+    private int commits;
+    /** 上次成功提交以来的失败次数 */
+    private int failures;
+    private CopyObserver observer = CopyObserver.NONE;
+
+    public StreamingCopyWriter(DataSource dataSource, String table, String copySql,
+                               long commitRows, long commitBytes, int maxRetries, CopyFormat format,
+                               CommitListener listener) {
+        this.dataSource = dataSource;
+        this.table = table;
+        this.copySql = copySql;
+        this.commitRows = commitRows;
+        this.commitBytes = commitBytes;
+        this.maxRetries = maxRetries;
+        this.format = format;
+        this.listener = listener;
+        this.pending = new RowBuffer((int) Math.min(commitBytes + LineParser.MAX_ROW, 64 * 1024 * 1024));
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len, int rows) throws Exception {
+        int mark = pending.size();
+        if (pending.isEmpty()) {
+            byte[] header = format.header();
+            pending.append(header, 0, header.length, 0);
+        }
+        format.encode(buf, off, len, rows, pending);
+        try {
+            ensureOpen();
+            pending.writeTo(copy, mark);
+        } catch (Exception e) {
+            recover(e); // 重连后已重放 pending（含本次数据）
+        }
+        if (pending.rows() >= commitRows || pending.size() >= commitBytes) checkpoint();
+    }
+
+    @Override
+    public void finish() throws Exception {
+        if (!pending.isEmpty()) checkpoint();
+        log.info("{} stream copy finished, rows={}, commits={}", table, committed, commits);
+    }
+
+    /**
+     * 检查点：结束当前 COPY 并提交；COMMIT 之前出错则重连重放后再提交。
+     * COMMIT 本身出错时结果未知，先经 listener 查库确认：已生效按成功处理，未生效才重放，无法判断则放弃该分片。
+     */
+    private void checkpoint() throws Exception {
+        while (true) {
+            long t0 = System.nanoTime();
+            long n = pending.rows();
+            boolean committing = false;
+            try {
+                ensureOpen();
+                copy.write(format.trailer());
+                n = copy.endCopy();
+                copy = null;
+                listener.beforeCommit(conn);
+                committing = true;
+                conn.commit();
+            } catch (LeaseLostException e) {
+                close(); // 回滚：单元已归别的节点，重放也只会再被栅栏拒绝
+                throw e;
+            } catch (Exception e) {
+                if (!committing || !commitApplied(e)) {
+                    recover(e);
+                    continue;
+                }
+            }
+            listener.afterCommit();
+            // 流式：数据已陆续发出，这里计的是结束本段 COPY 并提交的等待时间
+            observer.copied(n, pending.size(), System.nanoTime() - t0);
+            committed += n;
+            commits++;
+            failures = 0;
+            log.info("{} stream checkpoint {} rows, total={}", table, n, committed);
+            pending.reset();
+            return;
+        }
+    }
+
+    /** COMMIT 出错后确认结果：true 已提交；false 未提交（可重放）；无法判断时抛出，避免重复写入 */
+    private boolean commitApplied(Exception cause) throws Exception {
+        close();
+        Boolean applied;
+        try {
+            applied = listener.commitApplied();
+        } catch (Exception e) {
+            e.addSuppressed(cause);
+            throw new IllegalStateException(table + " commit outcome unknown, checkpoint lookup failed", e);
+        }
+        if (applied == null) {
+            throw new IllegalStateException(table + " commit outcome unknown, refusing to replay", cause);
+        }
+        log.warn("{} commit failed ({}), checkpoint shows it was {}", table, cause.toString(),
+                applied ? "applied" : "not applied");
+        return applied;
+    }
+
+    /** 丢弃出错的连接，重新建立 COPY 并重放未提交数据；重放失败同样计入连续失败次数 */
+    private void recover(Exception cause) throws Exception {
+        while (true) {
+            if (failures >= maxRetries) {
+                throw new IllegalStateException(table + " stream copy failed after " + failures + " consecutive retries", cause);
+            }
+            failures++;
+            log.warn("{} stream copy error (consecutive failure {}), reconnecting: {}", table, failures, cause.toString());
+            close();
+            Thread.sleep(1000L * failures);
+            try {
+                ensureOpen();
+                pending.writeTo(copy);
+                return;
+            } catch (Exception e) {
+                cause = e;
+            }
+        }
+    }
+
+    private void ensureOpen() throws Exception {
+        if (conn == null) {
+            conn = dataSource.getConnection();
+            conn.setAutoCommit(false);
+        }
+        if (copy == null) {
+            copy = new PGCopyOutputStream(conn.unwrap(PGConnection.class), copySql, STREAM_BUFFER);
+        }
+    }
+
+    @Override
+    public void observe(CopyObserver observer) { this.observer = observer; }
+
+    @Override
+    public long committedRows() { return committed; }
+
+    @Override
+    public void close() {
+        if (copy != null) {
+            try { copy.cancelCopy(); } catch (Exception ignore) {}
+            copy = null;
+        }
+        if (conn != null) {
+            try { conn.rollback(); } catch (Exception ignore) {}
+            try { conn.setAutoCommit(true); } catch (Exception ignore) {}
+            try { conn.close(); } catch (Exception ignore) {}
+            conn = null;
+        }
+    }
+}
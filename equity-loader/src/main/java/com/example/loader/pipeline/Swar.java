@@ -0,0 +1,75 @@
+package com.example.loader.pipeline;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 按字（8 字节）扫描的字节查找工具（SWAR：SIMD Within A Register）：
+ * - 一次 getLong 取 8 个字节，用位运算同时判断 8 个字节是否命中，不逐字节比较；
+ * - 采用「精确」零字节掩码（不会因借位产生误报），大端/小端缓冲都能正确定位第一个命中；
+ * - 尾部不足 8 字节时退化为逐字节比较。
+ */
+public final class Swar {
+
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH = 0x8080808080808080L;
+    private static final long PIPE = broadcast('|');
+    private static final long LF = broadcast('\n');
+    private static final long CR = broadcast('\r');
+
+    private Swar() { }
+
+    /** 把一个字节复制到 long 的 8 个字节上 */
+    static long broadcast(char b) {
+        return (b & 0xFFL) * 0x0101010101010101L;
+    }
+
+    /** x 中为 0 的字节在结果中对应位置为 0x80，其余为 0 */
+    private static long zeroBytes(long x) {
+        long t = (x & LOW7) + LOW7;
+        return ~(t | x | LOW7);
+    }
+
+    /** 命中掩码 -> 第一个命中字节在 8 字节内的下标（按内存顺序） */
+    private static int firstByte(long mask, ByteOrder order) {
+        return (order == ByteOrder.BIG_ENDIAN ? Long.numberOfLeadingZeros(mask) : Long.numberOfTrailingZeros(mask)) >>> 3;
+    }
+
+    /** [from, to) 中第一个 '|' 的位置；没有返回 -1 */
+    public static int indexOfPipe(ByteBuffer buf, int from, int to) {
+        ByteOrder order = buf.order();
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long m = zeroBytes(buf.getLong(i) ^ PIPE);
+            if (m != 0) return i + firstByte(m, order);
+        }
+        for (; i < to; i++) if (buf.get(i) == '|') return i;
+        return -1;
+    }
+
+    /** [from, to) 中第一个 '\n' 或 '\r' 的位置；没有返回 -1 */
+    public static int indexOfLineEnd(ByteBuffer buf, int from, int to) {
+        ByteOrder order = buf.order();
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long w = buf.getLong(i);
+            long m = zeroBytes(w ^ LF) | zeroBytes(w ^ CR);
+            if (m != 0) return i + firstByte(m, order);
+        }
+        for (; i < to; i++) {
+            byte b = buf.get(i);
+            if (b == '\n' || b == '\r') return i;
+        }
+        return -1;
+    }
+
+    /** [from, to) 是否全部是 ASCII（每个字节最高位为 0） */
+    public static boolean isAscii(ByteBuffer buf, int from, int to) {
+        int i = from;
+        long acc = 0;
+        for (; i + 8 <= to; i += 8) acc |= buf.getLong(i);
+        if ((acc & HIGH) != 0) return false;
+        for (; i < to; i++) if (buf.get(i) < 0) return false;
+        return true;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.loader.pipeline;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 基于 String 的原始校验工具（字节解析器的兜底路径与之保持完全一致的口径）。
+ */
+public final class TextChecks {
+
+    /** 时间格式校验器 */
+    public static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /** 金额：可带负号，整数 1~18 位，小数 1~2 位 */
+    public static final String BALANCE_REGEX = "^-?\\d{1,18}(\\.\\d{1,2})?$";
+
+    private TextChecks() { }
+
+    public static boolean isAllDigits(String s){
+        if (s==null || s.isEmpty()) return false;
+        for (int i=0;i<s.length();i++) if (!Character.isDigit(s.charAt(i))) return false;
+        return true;
+    }
+    public static boolean isAlpha(String s){
+        if (s==null || s.isEmpty()) return false;
+        for (int i=0;i<s.length();i++) if (!Character.isLetter(s.charAt(i))) return false;
+        return true;
+    }
+    public static boolean isAlphaNum(String s){
+        if (s==null || s.isEmpty()) return false;
+        for (int i=0;i<s.length();i++) if (!Character.isLetterOrDigit(s.charAt(i))) return false;
+        return true;
+    }
+    public static boolean isTs(String s){
+        try { LocalDateTime.parse(s, TS); return true; } catch (Exception e){ return false; }
+    }
+    public static String leftPadToLen(String s, int len){
+        if (s.length()>=len) return s;
+        StringBuilder sb=new StringBuilder(len);
+        for(int i=0;i<len-s.length();i++) sb.append('0');
+        return sb.append(s).toString();
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.loader.pipeline;
+
+/**
+ * COPY text 格式（'|' 分隔）：规整行原样透传。
+ */
+public final class TextCopyFormat implements CopyFormat {
+
+    public static final TextCopyFormat INSTANCE = new TextCopyFormat();
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private TextCopyFormat() { }
+
+    @Override
+    public String options() { return "(FORMAT text, DELIMITER '|')"; }
+
+    @Override
+    public byte[] header() { return EMPTY; }
+
+    @Override
+    public byte[] trailer() { return EMPTY; }
+
+    @Override
+    public void encode(byte[] rows, int off, int len, int rowCount, RowBuffer out) {
+        out.append(rows, off, len, rowCount);
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.loader.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 多节点协同装载的工作单元表（loader_work_job / loader_work_unit）：
+ * - 一个 job = 共享存储上的一个输入文件（键里带文件大小与修改时间，换了文件就是新 job），
+ *   按字节切成若干单元（换行对齐，与 FileSegments 一致），各节点切出的单元完全相同，登记时已存在则跳过；
+ * - 节点用 FOR UPDATE SKIP LOCKED 认领 pending 单元，或租约已过期（心跳停了，多半节点已死）的 running 单元，
+ *   彼此不等锁、不重复认领；处理期间定时续租，处理完把计数写回并置 done；
+ * - 栅栏：每次 COPY 提交前在同一事务里按 owner 确认单元仍归本节点（{@link #FENCE_SQL}），
+ *   租约丢失后本节点的提交一律回滚，complete 也按 owner 判断，被接手的单元不会被两个节点同时写入；
+ * - 接手别人的单元时靠检查点（loader_checkpoint，段号即单元号）跳过已提交的行，不会重复入库；
+ * - 全部 done 后各节点都能汇总出整个文件的计数，回调只由一个节点发出（reported_by 先到先得）。
+ */
+@Slf4j
+public class WorkUnits {
+
+    static final String JOB_TABLE = "loader_work_job";
+    static final String UNIT_TABLE = "loader_work_unit";
+
+    /**
+     * 租约栅栏：在 COPY 事务里确认单元仍归本节点，并加共享锁到提交为止
+     * （其间别的节点 SKIP LOCKED 认领不到它；若已被接手则查不到行，事务须回滚）。
+     */
+    static final String FENCE_SQL = "SELECT 1 FROM " + UNIT_TABLE +
+            " WHERE job_key = ? AND unit = ? AND owner = ? AND status = 'running' FOR SHARE";
+
+    private final DataSource dataSource;
+
+    public WorkUnits(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /** 建表（与 ddl/astore_equity_shards.sql 中一致） */
+    public void ensureTables() throws SQLException {
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS " + JOB_TABLE + " (" +
+                    " job_key VARCHAR(600) NOT NULL PRIMARY KEY, units INT NOT NULL," +
+                    " created_at TIMESTAMP NOT NULL, reported_by VARCHAR(128), reported_at TIMESTAMP)");
+            st.execute("CREATE TABLE IF NOT EXISTS " + UNIT_TABLE + " (" +
+                    " job_key VARCHAR(600) NOT NULL, unit INT NOT NULL, seg_start BIGINT NOT NULL, seg_end BIGINT NOT NULL," +
+                    " status VARCHAR(8) NOT NULL, owner VARCHAR(128), attempts INT NOT NULL, heartbeat_at TIMESTAMP," +
+                    " ok_rows BIGINT, bad_rows BIGINT, skipped_rows BIGINT," +
+                    " PRIMARY KEY (job_key, unit))");
+        }
+    }
+
+    /** job 键：文件路径 + 大小 + 修改时间 */
+    public static String jobKey(String fileKey, long fileSize, long fileMtime) {
+        return fileKey + "@" + fileSize + ":" + fileMtime;
+    }
+
+    /**
+     * 登记 job 与全部单元（已登记则保留原状态）。
+     * @throws IllegalStateException 已登记的单元划分与本节点不一致（各节点 unitBytes 配置不同）
+     */
+    public void register(String jobKey, List<FileSegments.Segment> units) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + JOB_TABLE +
+                        " (job_key, units, created_at) VALUES (?, ?, now()) ON CONFLICT (job_key) DO NOTHING")) {
+                    ps.setString(1, jobKey);
+                    ps.setInt(2, units.size());
+                    ps.executeUpdate();
+                }
+                try (PreparedStatement ps = conn.prepareStatement("INSERT INTO " + UNIT_TABLE +
+                        " (job_key, unit, seg_start, seg_end, status, attempts) VALUES (?, ?, ?, ?, 'pending', 0)" +
+                        " ON CONFLICT (job_key, unit) DO NOTHING")) {
+                    for (FileSegments.Segment u : units) {
+                        ps.setString(1, jobKey);
+                        ps.setInt(2, u.index);
+                        ps.setLong(3, u.start);
+                        ps.setLong(4, u.end);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                try (PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM " + UNIT_TABLE +
+                        " u JOIN " + JOB_TABLE + " j ON j.job_key = u.job_key WHERE u.job_key = ? AND j.units = ?")) {
+                    ps.setString(1, jobKey);
+                    ps.setInt(2, units.size());
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next() || rs.getLong(1) != units.size()) {
+                            throw new IllegalStateException("已登记的工作单元与本节点切分不一致（各节点 loader.coordinator.unitBytes 须相同）: " + jobKey);
+                        }
+                    }
+                }
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        log.info("work units registered: {} x {}", jobKey, units.size());
+    }
+
+    /**
+     * 认领至多 max 个单元：pending 的，或租约过期（heartbeat 早于 leaseSeconds 秒前）的 running 单元。
+     * @return 认领到的单元（段号即单元号），没有可认领的返回空列表
+     */
+    public List<FileSegments.Segment> claim(String jobKey, String owner, int max, int leaseSeconds) throws SQLException {
+        String sql = "UPDATE " + UNIT_TABLE + " SET status = 'running', owner = ?, attempts = attempts + 1, heartbeat_at = now()" +
+                " WHERE (job_key, unit) IN (SELECT job_key, unit FROM " + UNIT_TABLE +
+                " WHERE job_key = ? AND (status = 'pending'" +
+                " OR (status = 'running' AND heartbeat_at < now() - ? * INTERVAL '1 second'))" +
+                " ORDER BY unit LIMIT ? FOR UPDATE SKIP LOCKED)" +
+                " RETURNING unit, seg_start, seg_end, attempts";
+        List<FileSegments.Segment> out = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, owner);
+            ps.setString(2, jobKey);
+            ps.setInt(3, leaseSeconds);
+            ps.setInt(4, max);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(new FileSegments.Segment(rs.getInt(1), rs.getLong(2), rs.getLong(3)));
+                    if (rs.getInt(4) > 1) log.info("{} took over unit #{} (attempt {})", owner, rs.getInt(1), rs.getInt(4));
+                }
+            }
+        }
+        out.sort((a, b) -> Integer.compare(a.index, b.index));
+        return out;
+    }
+
+    /** 续租；返回仍由本节点持有的单元数（少于 units 说明有单元已被别的节点接手） */
+    public int heartbeat(String jobKey, String owner, List<FileSegments.Segment> units) throws SQLException {
+        String sql = "UPDATE " + UNIT_TABLE + " SET heartbeat_at = now()" +
+                " WHERE job_key = ? AND unit = ? AND owner = ? AND status = 'running'";
+        int held = 0;
+        try (Connection conn = dataSource.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (FileSegments.Segment u : units) {
+                ps.setString(1, jobKey);
+                ps.setInt(2, u.index);
+                ps.setString(3, owner);
+                held += ps.executeUpdate();
+            }
+        }
+        return held;
+    }
+
+    /**
+     * 单元处理完毕：写回计数 {ok, bad, skipped} 并置 done；只有仍持有租约时才生效。
+     * @return false 单元已被别的节点接手（计数以接手者为准，本节点不计）
+     */
+    public boolean complete(String jobKey, String owner, FileSegments.Segment unit, long[] counts) throws SQLException {
+        String sql = "UPDATE " + UNIT_TABLE + " SET status = 'done', heartbeat_at = now()," +
+                " ok_rows = ?, bad_rows = ?, skipped_rows = ? WHERE job_key = ? AND unit = ? AND owner = ? AND status = 'running'";
+        try (Connection conn = dataSource.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, counts[0]);
+            ps.setLong(2, counts[1]);
+            ps.setLong(3, counts[2]);
+            ps.setString(4, jobKey);
+            ps.setInt(5, unit.index);
+            ps.setString(6, owner);
+            if (ps.executeUpdate() == 1) return true;
+        }
+        log.warn("unit #{} of {} is no longer owned by {}, completion dropped", unit.index, jobKey, owner);
+        return false;
+    }
+
+    /** 放弃仍由本节点持有的单元（本轮中止时），别的节点可立即认领，不必等租约过期 */
+    public void release(String jobKey, String owner, List<FileSegments.Segment> units) throws SQLException {
+        String sql = "UPDATE " + UNIT_TABLE + " SET status = 'pending', heartbeat_at = NULL" +
+                " WHERE job_key = ? AND unit = ? AND owner = ? AND status = 'running'";
+        try (Connection conn = dataSource.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (FileSegments.Segment u : units) {
+                ps.setString(1, jobKey);
+                ps.setInt(2, u.index);
+                ps.setString(3, owner);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /** 尚未 done 的单元数 */
+    public int remaining(String jobKey) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM " + UNIT_TABLE +
+                     " WHERE job_key = ? AND status <> 'done'")) {
+            ps.setString(1, jobKey);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    /** 全部单元的计数之和 {ok, bad, skipped} */
+    public long[] totals(String jobKey) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT COALESCE(SUM(ok_rows), 0), COALESCE(SUM(bad_rows), 0)," +
+                     " COALESCE(SUM(skipped_rows), 0) FROM " + UNIT_TABLE + " WHERE job_key = ?")) {
+            ps.setString(1, jobKey);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3)};
+            }
+        }
+    }
+
+    /** 抢回调权：第一个调用的节点返回 true */
+    public boolean claimReport(String jobKey, String owner) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement("UPDATE " + JOB_TABLE +
+                     " SET reported_by = ?, reported_at = now() WHERE job_key = ? AND reported_by IS NULL")) {
+            ps.setString(1, owner);
+            ps.setString(2, jobKey);
+            return ps.executeUpdate() == 1;
+        }
+    }
+}
@@ -2,10 +2,12 @@ package com.example.loader.runner;
 
 import com.example.loader.service.CopyLoadService;
 import com.example.loader.service.CopyRelationLoadService;
+import com.example.loader.service.LoadBudget;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -20,20 +22,29 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * 启动执行器：
  * - loader.enabled=true           -> 跑资产文件
  * - loader.relation.enabled=true  -> 跑关系文件（本需求）
  * 两者互不影响，可单独/同时打开。
+ * 两者都打开时默认先资产后关系；loader.concurrent.enabled=true 时两条流水线同时跑，
+ * 共用 loader.concurrent.connections / threads 预算（LoadBudget），两者都结束后才回调。
+ * 多节点协同装载（loader.coordinator.enabled=true）时只有一个节点回调，计数为所有节点合计。
  */
 @Slf4j
+@Order(1)
 @Component
 @RequiredArgsConstructor
 public class BootstrapRunner implements CommandLineRunner {
 
     private final CopyLoadService copyLoadService;                // 资产
     private final CopyRelationLoadService copyRelationLoadService; // 关系
+    private final LoadBudget budget;                               // 并发装载的共享预算
 
     @Value("${loader.enabled:false}")
     private boolean equityEnabled;
@@ -41,6 +52,19 @@ public class BootstrapRunner implements CommandLineRunner {
     @Value("${loader.relation.enabled:false}")
     private boolean relationEnabled;
 
+    /** stream 模式每个写线程常驻一个连接许可，并发时预算须容纳两边全部写线程 */
+    @Value("${loader.copy.mode:batch}")
+    private String copyMode;
+    @Value("${loader.shards:16}")
+    private int shards;
+    @Value("${loader.relation.writers:4}")
+    private int relationWriters;
+
+    /** 连接池大小：并发装载的连接预算之外，还要给检查点补写、换表/建索引、租约续期等短连接留出余量 */
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int poolSize;
+    private static final int POOL_HEADROOM = 4;
+
     /** 与装载服务里 dumpStat() 一致的目录 */
     @Value("${loader.statDir:/tmp/8424227}")
     private String statDir;
@@ -65,17 +89,16 @@ public class BootstrapRunner implements CommandLineRunner {
             log.info("All loaders disabled. Set loader.enabled or loader.relation.enabled to true.");
             return;
         }
-        if (equityEnabled) {
-            long t0 = System.currentTimeMillis();
-            log.info("Starting EQUITY COPY loader ...");
-            copyLoadService.loadFile();
-            log.info("EQUITY DONE in {} ms", (System.currentTimeMillis()-t0));
+        if (equityEnabled && relationEnabled && budget.enabled()) {
+            runConcurrently();
+        } else {
+            if (equityEnabled) runEquity();
+            if (relationEnabled) runRelation();
         }
-        if (relationEnabled) {
-            long t0 = System.currentTimeMillis();
-            log.info("Starting RELATION COPY loader ...");
-            copyRelationLoadService.loadFile();
-            log.info("RELATION DONE in {} ms", (System.currentTimeMillis()-t0));
+        if (equityEnabled && !copyLoadService.ownsCallback()) {
+            // 多节点协同装载：整文件计数已由负责回调的节点汇总上报
+            log.info("Callback1 skipped: reported by another loader node.");
+            return;
         }
 
     // === 两个装载都结束后：读统计文件并回调 ===
@@ -92,6 +115,58 @@ public class BootstrapRunner implements CommandLineRunner {
     log.info("Callback1 finished.");
 }
 
+    private void runEquity() {
+        long t0 = System.currentTimeMillis();
+        log.info("Starting EQUITY COPY loader ...");
+        copyLoadService.loadFile();
+        log.info("EQUITY DONE in {} ms", (System.currentTimeMillis()-t0));
+    }
+
+    private void runRelation() {
+        long t0 = System.currentTimeMillis();
+        log.info("Starting RELATION COPY loader ...");
+        copyRelationLoadService.loadFile();
+        log.info("RELATION DONE in {} ms", (System.currentTimeMillis()-t0));
+    }
+
+    /** 资产、关系同时装载；一方失败不打断另一方，两者都结束后再抛出失败 */
+    private void runConcurrently() {
+        if ("stream".equalsIgnoreCase(copyMode) && budget.connections() < shards + relationWriters) {
+            // stream 每条 lane 整段装载占着一条连接（写线程少于 lane 时一个线程同时开着几条），预算不够时两边可能互相等死
+            throw new IllegalStateException("loader.copy.mode=stream 并发装载需要 loader.concurrent.connections >= "
+                    + (shards + relationWriters));
+        }
+        if (budget.connections() + POOL_HEADROOM > poolSize) {
+            // 预算用满时 COPY 连接占光池子，检查点等短连接只能等到 connection-timeout
+            throw new IllegalStateException("loader.concurrent.connections=" + budget.connections()
+                    + " 需要 spring.datasource.hikari.maximum-pool-size >= " + (budget.connections() + POOL_HEADROOM)
+                    + "（当前 " + poolSize + "）");
+        }
+        long t0 = System.currentTimeMillis();
+        log.info("Starting EQUITY + RELATION concurrently (connections={}, threads budget shared)", budget.connections());
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        List<Future<?>> loads = new ArrayList<>();
+        loads.add(pool.submit(this::runEquity));
+        loads.add(pool.submit(this::runRelation));
+        pool.shutdown();
+
+        RuntimeException failure = null;
+        for (Future<?> f : loads) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for loads", e);
+            } catch (ExecutionException e) {
+                if (failure == null) failure = new RuntimeException("concurrent load failed", e.getCause());
+                else failure.addSuppressed(e.getCause());
+            }
+        }
+        if (failure != null) throw failure;
+        log.info("EQUITY + RELATION DONE in {} ms (waited {} ms for connection permits)",
+                System.currentTimeMillis() - t0, budget.connectionWaitMs());
+    }
+
     // ---------- helpers ----------
     private long readCounter(String file) {
         try {
@@ -0,0 +1,149 @@
+package com.example.loader.runner;
+
+import com.example.loader.pipeline.CopyFormat;
+import com.example.loader.pipeline.RowBuffer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * text / binary 两种 COPY 格式的对比压测（loader.benchmark.enabled=true 时启动执行，先于装载）。
+ * - 造 N 行合法的规范化行，分别编码成两种格式，每轮 COPY 进同一张无索引临时表；
+ * - 记录客户端墙钟时间；若库里装了 pg_stat_statements，再取服务端执行耗时（近似服务端 CPU）；
+ * - 编码耗时单独统计，不计入 COPY 时间。
+ */
+@Slf4j
+@Order(0)
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "loader.benchmark", name = "enabled", havingValue = "true")
+public class CopyFormatBenchmarkRunner implements CommandLineRunner {
+
+    private static final String BENCH_TABLE = "bench_copy_format";
+
+    private final DataSource dataSource;
+
+    @Value("${loader.benchmark.rows:2000000}")
+    private int rows;
+
+    @Value("${loader.benchmark.rounds:5}")
+    private int rounds;
+
+    @Value("${loader.tablePrefix:tb_customer_equity_}")
+    private String tablePrefix;
+
+    @Override
+    public void run(String... args) throws Exception {
+        byte[] canonical = generate(rows);
+        log.info("copy benchmark: rows={}, rounds={}, textBytes={}", rows, rounds, canonical.length);
+
+        try (Connection conn = dataSource.getConnection()) {
+            exec(conn, "DROP TABLE IF EXISTS " + BENCH_TABLE);
+            exec(conn, "CREATE UNLOGGED TABLE " + BENCH_TABLE + " (LIKE " + tablePrefix + "01 INCLUDING DEFAULTS)");
+            boolean pgss = hasPgStatStatements(conn);
+            if (!pgss) {
+                log.info("pg_stat_statements 不可用，只统计墙钟时间");
+            }
+            try {
+                for (String name : new String[]{"text", "binary"}) {
+                    run(conn, name, canonical, pgss);
+                }
+            } finally {
+                exec(conn, "DROP TABLE IF EXISTS " + BENCH_TABLE);
+            }
+        }
+    }
+
+    private void run(Connection conn, String name, byte[] canonical, boolean pgss) throws Exception {
+        CopyFormat format = CopyFormat.of(name);
+        long e0 = System.nanoTime();
+        RowBuffer buf = new RowBuffer(canonical.length * 2);
+        byte[] header = format.header();
+        buf.append(header, 0, header.length, 0);
+        format.encode(canonical, 0, canonical.length, rows, buf);
+        byte[] trailer = format.trailer();
+        buf.append(trailer, 0, trailer.length, 0);
+        long encodeMs = (System.nanoTime() - e0) / 1_000_000;
+
+        String copySql = "COPY " + BENCH_TABLE
+                + " (biz_dt, customer_no, account_no, ccy, balance) FROM STDIN WITH " + format.options();
+        CopyManager cm = new CopyManager(conn.unwrap(BaseConnection.class));
+
+        // 预热一轮，不计时
+        exec(conn, "TRUNCATE " + BENCH_TABLE);
+        cm.copyIn(copySql, buf.asInputStream());
+
+        double server0 = pgss ? serverExecMs(conn) : -1;
+        long wallNs = 0;
+        for (int r = 0; r < rounds; r++) {
+            exec(conn, "TRUNCATE " + BENCH_TABLE);
+            long t0 = System.nanoTime();
+            cm.copyIn(copySql, buf.asInputStream());
+            wallNs += System.nanoTime() - t0;
+        }
+        double serverMs = pgss ? serverExecMs(conn) - server0 : -1;
+
+        log.info("copy benchmark [{}]: bytes={}, encode={}ms, wall avg={}ms, server exec avg={}",
+                name, buf.size(), encodeMs, wallNs / rounds / 1_000_000,
+                serverMs < 0 ? "n/a" : String.format("%.1fms", serverMs / rounds));
+    }
+
+    /** 合成行：与解析器输出一致的规范化文本行 */
+    private static byte[] generate(int n) {
+        Random rnd = new Random(42);
+        String[] ccys = {"CNY", "USD", "HKD", "EUR", "JPY"};
+        StringBuilder sb = new StringBuilder(n * 60);
+        for (int i = 0; i < n; i++) {
+            sb.append(String.format("2025-%02d-%02d %02d:%02d:%02d",
+                    1 + rnd.nextInt(12), 1 + rnd.nextInt(28), rnd.nextInt(24), rnd.nextInt(60), rnd.nextInt(60)));
+            sb.append('|').append(String.format("%010d", rnd.nextInt(1_000_000_000)));
+            sb.append('|').append(6200000000L + rnd.nextInt(1_000_000_000));
+            sb.append('|').append(ccys[rnd.nextInt(ccys.length)]);
+            sb.append('|').append(rnd.nextInt(10_000_000)).append('.').append(String.format("%02d", rnd.nextInt(100)));
+            sb.append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static boolean hasPgStatStatements(Connection conn) {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT 1 FROM pg_stat_statements LIMIT 1")) {
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** 该表 COPY 语句的累计服务端执行耗时（ms）；PG13 以前列名为 total_time */
+    private static double serverExecMs(Connection conn) throws Exception {
+        String where = " FROM pg_stat_statements WHERE query ILIKE 'COPY " + BENCH_TABLE + "%'";
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(SUM(total_exec_time), 0)" + where)) {
+            return rs.next() ? rs.getDouble(1) : 0;
+        } catch (Exception e) {
+            try (Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT COALESCE(SUM(total_time), 0)" + where)) {
+                return rs.next() ? rs.getDouble(1) : 0;
+            }
+        }
+    }
+
+    private static void exec(Connection conn, String sql) throws Exception {
+        try (Statement st = conn.createStatement()) {
+            st.execute(sql);
+        }
+    }
+}
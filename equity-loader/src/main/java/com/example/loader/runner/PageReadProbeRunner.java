@@ -0,0 +1,225 @@
+package com.example.loader.runner;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 查询接口三条 SQL 的读页数探针（loader.pageProbe.enabled=true 时在装载之后执行）：
+ * 用固定种子在客户号/经理号值域内取样，对查询服务的原 SQL 逐条执行 EXPLAIN (ANALYZE, BUFFERS)，
+ * 统计每次查询触及的共享缓冲页数（shared hit + read），外加各分表 customer_no 的 pg_stats.correlation
+ * （越接近 1 说明堆表越按客户号有序）。开/关 loader.cluster.enabled 各装一次、各跑一次，即得前后对比。
+ * - ① /queryAmtByCustNo：单客户明细（snapshot 分表按 customer_no 等值）；
+ * - ② /queryAmtByCustNoRange：16 张分表的 customer_no 区间汇总；
+ * - ③ /queryAmtByCsmgrRange：关系表按经理号取客户 + agg_cust_daily 分表按客户列表取日汇总（不受资产聚簇影响，作对照）。
+ * 结果打日志并写 ${loader.statDir}/pagereads（key=value）。库不支持 BUFFERS 选项时对应项记 n/a。
+ */
+@Slf4j
+@Order(2)
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "loader.pageProbe", name = "enabled", havingValue = "true")
+public class PageReadProbeRunner implements CommandLineRunner {
+
+    private static final Pattern HIT = Pattern.compile("Buffers: shared hit=(\\d+)(?: read=(\\d+))?|Buffers: shared read=(\\d+)");
+
+    private final DataSource dataSource;
+
+    @Value("${loader.shards:16}")
+    private int shards;
+
+    @Value("${loader.tablePrefix:tb_customer_equity_}")
+    private String tablePrefix;
+
+    @Value("${loader.relation.tableName:tb_customer_relation}")
+    private String relationTable;
+
+    @Value("${loader.pageProbe.samples:200}")
+    private int samples;
+
+    /** ② 每个区间覆盖的客户号个数 */
+    @Value("${loader.pageProbe.rangeWidth:10000}")
+    private long rangeWidth;
+
+    @Value("${loader.statDir:/tmp/8424227}")
+    private String statDir;
+
+    @Override
+    public void run(String... args) throws Exception {
+        StringBuilder stat = new StringBuilder();
+        try (Connection conn = dataSource.getConnection()) {
+            stat.append("customerNoCorrelation=").append(correlation(conn)).append('\n');
+            stat.append("custNo.avgPages=").append(probeHoldings(conn)).append('\n');
+            stat.append("custNoRange.avgPages=").append(probeRange(conn)).append('\n');
+            stat.append("csmgr.avgPages=").append(probeCsmgr(conn)).append('\n');
+        }
+        log.info("page-read probe (samples={}, rangeWidth={}):\n{}", samples, rangeWidth, stat.toString().trim());
+        Path dir = Paths.get(statDir);
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("pagereads"), stat.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** 各分表 customer_no 列的物理顺序相关度均值（需 ANALYZE 过） */
+    private String correlation(Connection conn) {
+        String sql = "SELECT AVG(correlation) FROM pg_stats WHERE attname = 'customer_no' AND tablename LIKE ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, tablePrefix + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getObject(1) != null ? String.format("%.3f", rs.getDouble(1)) : "n/a";
+            }
+        } catch (Exception e) {
+            log.warn("pg_stats unavailable: {}", e.toString());
+            return "n/a";
+        }
+    }
+
+    /** ① 单客户明细：每个样本客户一次 */
+    private String probeHoldings(Connection conn) throws Exception {
+        long total = 0;
+        int n = 0;
+        Random rnd = new Random(42);
+        for (int i = 0; i < samples; i++) {
+            String table = shardTable(rnd.nextInt(shards));
+            String cust = sampleAtOrAfter(conn, table, "customer_no", rnd);
+            if (cust == null) continue;
+            long pages = pages(conn, "SELECT e.account_no, e.ccy, e.balance, to_char(e.biz_dt, 'YYYY-MM-DD HH24:MI:SS')"
+                    + " FROM " + table + " e WHERE e.customer_no = '" + cust + "' ORDER BY e.account_no, e.ccy");
+            if (pages < 0) return "n/a";
+            total += pages;
+            n++;
+        }
+        return avg(total, n);
+    }
+
+    /** ② 区间汇总：每个区间扫全部分表，按一次接口调用计页数 */
+    private String probeRange(Connection conn) throws Exception {
+        long total = 0;
+        int n = 0;
+        Random rnd = new Random(43);
+        int ranges = Math.max(1, samples / 10);
+        for (int i = 0; i < ranges; i++) {
+            String min = sampleAtOrAfter(conn, shardTable(0), "customer_no", rnd);
+            if (min == null) continue;
+            String max = String.format("%010d", Long.parseLong(min) + rangeWidth);
+            long call = 0;
+            for (int s = 0; s < shards; s++) {
+                long pages = pages(conn, "SELECT COALESCE(SUM(e.balance * r.rate), 0) FROM " + shardTable(s)
+                        + " e JOIN base_cur r ON r.ccy = e.ccy WHERE e.customer_no BETWEEN '" + min + "' AND '" + max + "'");
+                if (pages < 0) return "n/a";
+                call += pages;
+            }
+            total += call;
+            n++;
+        }
+        return avg(total, n);
+    }
+
+    /** ③ 经理名下客户的日汇总：关系表取客户 + 各 agg 分表按客户列表取数 */
+    private String probeCsmgr(Connection conn) throws Exception {
+        long total = 0;
+        int n = 0;
+        Random rnd = new Random(44);
+        int managers = Math.max(1, samples / 10);
+        for (int i = 0; i < managers; i++) {
+            String mgr = sampleAtOrAfter(conn, relationTable, "csmgr_refno", rnd);
+            if (mgr == null) continue;
+            String lookup = "SELECT customer_no FROM " + relationTable + " WHERE csmgr_refno = '" + mgr + "'";
+            long call = pages(conn, lookup);
+            if (call < 0) return "n/a";
+            List<List<String>> byShard = new ArrayList<>();
+            for (int s = 0; s < shards; s++) byShard.add(new ArrayList<>());
+            try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(lookup)) {
+                while (rs.next()) {
+                    String c = rs.getString(1).trim();
+                    byShard.get((int) (Long.parseLong(c) % shards)).add(c);
+                }
+            }
+            for (int s = 0; s < shards; s++) {
+                if (byShard.get(s).isEmpty()) continue;
+                long pages = pages(conn, "SELECT ymd, customer_no, amount_cny FROM agg_cust_daily_"
+                        + String.format("%02d", s + 1) + " WHERE customer_no IN ('"
+                        + String.join("','", byShard.get(s)) + "') ORDER BY ymd, customer_no");
+                if (pages < 0) return "n/a";
+                call += pages;
+            }
+            total += call;
+            n++;
+        }
+        return avg(total, n);
+    }
+
+    private String shardTable(int shard) {
+        return tablePrefix + String.format("%02d", shard + 1);
+    }
+
+    /**
+     * 取样：在该列的值域里按随机位置找第一个 ≥ 它的实际值（走索引，不扫全表）。
+     * 客户号按 10 位数字取样，经理号按首字符取样。
+     */
+    private static String sampleAtOrAfter(Connection conn, String table, String column, Random rnd) throws Exception {
+        String from;
+        if ("customer_no".equals(column)) {
+            from = String.format("%010d", (long) (rnd.nextDouble() * maxCustomer(conn, table)));
+        } else {
+            String alphabet = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+            from = String.valueOf(alphabet.charAt(rnd.nextInt(alphabet.length())));
+        }
+        String sql = "SELECT " + column + " FROM " + table + " WHERE " + column + " >= ? ORDER BY " + column + " LIMIT 1";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, from);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1).trim() : null;
+            }
+        }
+    }
+
+    private static long maxCustomer(Connection conn, String table) throws Exception {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT MAX(customer_no) FROM " + table)) {
+            return rs.next() && rs.getString(1) != null ? Long.parseLong(rs.getString(1).trim()) : 0;
+        }
+    }
+
+    /** 执行一次 EXPLAIN (ANALYZE, BUFFERS)，返回顶层节点的 shared hit + read 页数；不支持时返回 -1 */
+    private static long pages(Connection conn, String sql) {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("EXPLAIN (ANALYZE, BUFFERS) " + sql)) {
+            while (rs.next()) {
+                Matcher m = HIT.matcher(rs.getString(1));
+                if (m.find()) {
+                    if (m.group(3) != null) return Long.parseLong(m.group(3));
+                    return Long.parseLong(m.group(1)) + (m.group(2) != null ? Long.parseLong(m.group(2)) : 0);
+                }
+            }
+            return 0; // 顶层节点没有 Buffers 行：一页都没碰
+        } catch (Exception e) {
+            log.warn("EXPLAIN (ANALYZE, BUFFERS) failed: {}", e.toString());
+            return -1;
+        }
+    }
+
+    private static String avg(long total, int n) {
+        return n == 0 ? "n/a" : String.format("%.1f", (double) total / n);
+    }
+}
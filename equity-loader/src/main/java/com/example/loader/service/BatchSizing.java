@@ -0,0 +1,40 @@
+package com.example.loader.service;
+
+import com.example.loader.pipeline.AdaptiveBatchSizer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * batch 模式下 COPY 批大小的配置（资产、关系共用）：
+ * loader.copy.adaptive.enabled=true 时每个写线程一个 AdaptiveBatchSizer，批大小按字节在上下界内自动调整；
+ * 否则仍按各自配置的固定行数分批。
+ */
+@Component
+public class BatchSizing {
+
+    private final boolean enabled;
+    private final long minBytes;
+    private final long maxBytes;
+    private final long initialBytes;
+    private final double spikeFactor;
+    private final long maxLatencyMs;
+
+    public BatchSizing(@Value("${loader.copy.adaptive.enabled:false}") boolean enabled,
+                       @Value("${loader.copy.adaptive.minBytes:1048576}") long minBytes,
+                       @Value("${loader.copy.adaptive.maxBytes:33554432}") long maxBytes,
+                       @Value("${loader.copy.adaptive.initialBytes:4194304}") long initialBytes,
+                       @Value("${loader.copy.adaptive.spikeFactor:2.0}") double spikeFactor,
+                       @Value("${loader.copy.adaptive.maxLatencyMs:5000}") long maxLatencyMs) {
+        this.enabled = enabled;
+        this.minBytes = minBytes;
+        this.maxBytes = maxBytes;
+        this.initialBytes = initialBytes;
+        this.spikeFactor = spikeFactor;
+        this.maxLatencyMs = maxLatencyMs;
+    }
+
+    /** 给一个写线程用的控制器；未开启时返回 null（固定行数） */
+    public AdaptiveBatchSizer newSizer(String label) {
+        return enabled ? new AdaptiveBatchSizer(label, minBytes, maxBytes, initialBytes, spikeFactor, maxLatencyMs) : null;
+    }
+}
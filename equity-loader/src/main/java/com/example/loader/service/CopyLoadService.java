@@ -8,4 +8,9 @@ package com.example.loader.service;
 public interface CopyLoadService {
     /** 执行一次装载（读取环境变量 FILE_PATH / FILE_NAME_EQUITY） */
     void loadFile();
+
+    /** 本节点是否负责发回调；多节点协同装载时只有一个节点为 true */
+    default boolean ownsCallback() {
+        return true;
+    }
 }
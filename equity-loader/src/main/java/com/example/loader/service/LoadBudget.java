@@ -0,0 +1,165 @@
+package com.example.loader.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * 资产、关系并发装载（loader.concurrent.enabled=true）时两者共用的资源预算：
+ * - 连接：装载服务拿到的是包装过的 DataSource，每条连接取时先拿一个许可、close 时归还，
+ *   与是哪个线程取的无关（stream 模式一个写线程轮流写几条 lane 时同时开着几条 COPY 连接，各占一个）；
+ *   没有例外：调用方不得在持有连接时为同一件事再取一条（lane 收尾先关 COPY 连接再补写检查点）；
+ *   batch 模式每批 COPY 才占许可，两个装载按批交替用满预算；stream 模式每条 lane 整段装载常驻一个许可；
+ * - 解析线程：读线程（stream 整文件或 mmap 每段）开始前拿一个许可，读完归还；
+ * 许可都是公平的：一个装载结束后空出的额度按等待顺序全部流向另一个。
+ * 未开启并发时不做任何限制。
+ */
+@Slf4j
+@Component
+public class LoadBudget {
+
+    private final boolean enabled;
+    private final int connections;
+    private final int threads;
+    private final Semaphore connectionPermits;
+    private final Semaphore threadPermits;
+    private final AtomicLong connectionWaitNanos = new AtomicLong();
+
+    public LoadBudget(@Value("${loader.concurrent.enabled:false}") boolean enabled,
+                      @Value("${loader.concurrent.connections:16}") int connections,
+                      @Value("${loader.concurrent.threads:8}") int threads) {
+        this.enabled = enabled;
+        this.connections = connections;
+        this.threads = threads;
+        this.connectionPermits = new Semaphore(connections, true);
+        this.threadPermits = new Semaphore(threads, true);
+    }
+
+    public boolean enabled() { return enabled; }
+
+    public int connections() { return connections; }
+
+    /** 解析线程许可；未开启并发时为 null（不限） */
+    public Semaphore threadPermits() {
+        return enabled ? threadPermits : null;
+    }
+
+    /** 当前空闲的连接许可数 */
+    public int availableConnections() {
+        return connectionPermits.availablePermits();
+    }
+
+    /** 等连接许可累计的毫秒数 */
+    public long connectionWaitMs() {
+        return connectionWaitNanos.get() / 1_000_000;
+    }
+
+    /** 未开启并发时原样返回 */
+    public DataSource wrap(DataSource dataSource) {
+        return enabled ? new BudgetedDataSource(dataSource) : dataSource;
+    }
+
+    /**
+     * 取连接前调用：占一个许可。
+     * @return 是否占了许可（连接关闭时据此归还）
+     */
+    private boolean acquire() throws SQLException {
+        long t0 = System.nanoTime();
+        try {
+            connectionPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection permit", e);
+        }
+        connectionWaitNanos.addAndGet(System.nanoTime() - t0);
+        return true;
+    }
+
+    private void release(boolean permit) {
+        if (permit) connectionPermits.release();
+    }
+
+    /** 取连接先拿许可，连接关闭时归还 */
+    private final class BudgetedDataSource implements DataSource {
+        private final DataSource delegate;
+
+        BudgetedDataSource(DataSource delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            boolean permit = acquire();
+            try {
+                return track(delegate.getConnection(), permit);
+            } catch (SQLException | RuntimeException e) {
+                release(permit);
+                throw e;
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            boolean permit = acquire();
+            try {
+                return track(delegate.getConnection(username, password), permit);
+            } catch (SQLException | RuntimeException e) {
+                release(permit);
+                throw e;
+            }
+        }
+
+        private Connection track(Connection conn, boolean permit) {
+            AtomicBoolean closed = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                            try {
+                                conn.close();
+                            } finally {
+                                if (closed.compareAndSet(false, true)) release(permit);
+                            }
+                            return null;
+                        }
+                        try {
+                            return method.invoke(conn, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException { return delegate.getLogWriter(); }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException { delegate.setLogWriter(out); }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException { delegate.setLoginTimeout(seconds); }
+
+        @Override
+        public int getLoginTimeout() throws SQLException { return delegate.getLoginTimeout(); }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException { return delegate.getParentLogger(); }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException { return delegate.unwrap(iface); }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException { return delegate.isWrapperFor(iface); }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.loader.service;
+
+import com.example.loader.pipeline.LoadMetrics;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 各装载（EQUITY / RELATION）最近一次运行的指标，装载开始时发布，结束后保留最终状态供查看。
+ */
+@Component
+public class LoadMetricsRegistry {
+
+    private final Map<String, LoadMetrics> loads = new ConcurrentHashMap<>();
+
+    public void publish(LoadMetrics metrics) {
+        loads.put(metrics.name(), metrics);
+    }
+
+    public LoadMetrics get(String name) {
+        return loads.get(name);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (String name : new String[]{"EQUITY", "RELATION"}) {
+            LoadMetrics lm = loads.get(name);
+            if (lm != null) m.put(name, lm.snapshot());
+        }
+        return m;
+    }
+}
@@ -1,46 +1,82 @@
 package com.example.loader.service.impl;
 
+import com.example.loader.pipeline.*;
+import com.example.loader.service.BatchSizing;
 import com.example.loader.service.CopyLoadService;
+import com.example.loader.service.LoadBudget;
+import com.example.loader.service.LoadMetricsRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.postgresql.copy.CopyManager;
-import org.postgresql.core.BaseConnection;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.sql.DataSource;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.sql.Connection;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.concurrent.*;
-import java.util.stream.IntStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
- * 高性能 COPY 装载实现：
+ * 高性能 COPY 装载实现（读/解析/路由/写线程由 CopyPipeline 承担，本类负责分表、检查点、影子表等装配）：
  * 核心思想：
  *  1) 单线程顺序读取大文件（减少磁盘随机读）；
- *  2) 按「客户号 % 分片数」将每一行分发到对应的阻塞队列；
- *  3) 为每个分片启动一个写线程，持有各自的 CopyManager，
- *     使用 Pipe（PipedInputStream/OutputStream）把队列数据直接喂给 COPY FROM STDIN；
+ *     或 loader.readMode=mmap：内存映射后按换行对齐切段，多线程并行解析；
+ *  2) 字节级解析校验（EquityLineParser，不建 String），
+ *     按「客户号 % 分片数」将每一行追加到对应分片的数据块，块满整块入队（块池复用，总内存有上限）；
+ *  3) 为每个分片启动一个写线程，持有各自的 ShardWriter：
+ *     batch 模式每批新取连接执行一次 COPY；stream 模式常驻一条 COPY 流，按检查点提交；
  *  4) 全程流式，无需中间临时文件，内存常量级；
- *  5) 坏数据写入 .bad 文件，方便后续修复回灌。
+ *  5) 坏数据写入 .bad 文件，方便后续修复回灌；
+ *  6) 断点续传：读线程定期往各分片队列插入检查点标记，写线程在 COPY 提交的同一事务里
+ *     把 (文件段, 偏移, 已提交行数) 写进 loader_checkpoint；loader.resume=true 时重新扫描文件
+ *     （重建计数与 .bad），已提交的行只计数不再入队；
+ *  7) loader.target=staging：COPY 写无索引的 UNLOGGED 影子表，装完并行 SET LOGGED、补索引、
+ *     授权与注释、ANALYZE，再在一个事务里改名换入，查询侧全程读到的都是完整的旧数据或新数据；
+ *     续传前核对影子表行数与检查点一致（崩溃恢复清空了 UNLOGGED 表就拒绝续传）；
+ *     loader.target=delta：文件只含变动行，COPY 写 UNLOGGED 增量表（续传前同样核对行数），
+ *     装完每个分表一条 INSERT ... ON CONFLICT 并入线上表（biz_dt 更新才覆盖，同消费端；
+ *     同键最新 biz_dt 而 balance 不同的行不并入，追加到 .bad），插入/更新、过期、拒绝、被同键新行取代分别计数；
+ *  8) loader.dedup.enabled=true：每个分片写入前按 (customer_no, account_no, ccy) 只保留 biz_dt 最新的一行
+ *     （LatestRowReducer，内存不够时溢写有序段再归并），归约掉的行数写 equity.collapsed；
+ *  9) loader.cluster.enabled=true：每个分片按 (customer_no, account_no, ccy) 外部排序后再 COPY
+ *     （ClusteringRowSorter），分表按客户号物理聚簇；与 dedup 同开时归约结果本身已有序；
+ * 10) loader.coordinator.enabled=true：多台机器上的装载进程协同装同一个文件（共享存储），
+ *     按字节切成工作单元记在 loader_work_unit，各节点 SKIP LOCKED 认领，节点挂了由别的节点接手（WorkUnits）。
  */
 @Slf4j
 @Service
 public class CopyLoadServiceImpl implements CopyLoadService {
 
     private final DataSource dataSource;
-
-    public CopyLoadServiceImpl(DataSource dataSource) {
-        this.dataSource = dataSource;
+    private final LoadMetricsRegistry metricsRegistry;
+    private final LoadBudget budget;
+    private final BatchSizing batchSizing;
+
+    public CopyLoadServiceImpl(DataSource dataSource, LoadMetricsRegistry metricsRegistry, LoadBudget budget,
+                               BatchSizing batchSizing) {
+        this.dataSource = budget.wrap(dataSource); // 并发装载时取连接受共享预算约束
+        this.metricsRegistry = metricsRegistry;
+        this.budget = budget;
+        this.batchSizing = batchSizing;
     }
 
     /** 分表/并发数量，建议与实际分表数一致 */
     @Value("${loader.shards:16}")
     private int shards;
 
+    /** COPY 写线程数，与分表数无关（空闲线程认领积压最多的分表）；默认与分表数相同，超过分表数按分表数封顶 */
+    @Value("${loader.writers:${loader.shards:16}}")
+    private int writers;
+
     /** 分表前缀，例如 tb_customer_equity_ => tb_customer_equity_01 ... */
     @Value("${loader.tablePrefix:tb_customer_equity_}")
     private String tablePrefix;
@@ -49,13 +85,157 @@ public class CopyLoadServiceImpl implements CopyLoadService {
     @Value("${loader.badFileSuffix:.bad}")
     private String badSuffix;
 
+    /** 读取模式：stream=单线程顺序读（默认）；mmap=内存映射按段并行读 */
+    @Value("${loader.readMode:stream}")
+    private String readMode;
+
+    /** mmap 模式下的切段数（= 并行解析线程数） */
+    @Value("${loader.readers:4}")
+    private int readers;
+
+    /** COPY 写入模式：batch=每批新取连接单独 COPY（默认）；stream=每分片常驻一条 COPY 流 */
+    @Value("${loader.copy.mode:batch}")
+    private String copyMode;
+
+    /** 资产分表的 COPY 数据格式：text（默认）或 binary（服务端免去时间/金额文本解析） */
+    @Value("${loader.copy.format:text}")
+    private String copyFormat;
+
+    /** stream 模式：累计多少行提交一次 */
+    @Value("${loader.copy.commitRows:500000}")
+    private long commitRows;
+
+    /** stream 模式：累计多少字节提交一次（同时决定失败重放缓冲的大小） */
+    @Value("${loader.copy.commitBytes:16777216}")
+    private long commitBytes;
+
+    /** stream 模式：连续失败重连次数上限 */
+    @Value("${loader.copy.maxRetries:3}")
+    private int maxRetries;
+
+    /** 是否记录检查点（每次 COPY 提交时同事务写 loader_checkpoint） */
+    @Value("${loader.checkpoint.enabled:true}")
+    private boolean checkpointEnabled;
+
+    /** 每个文件段每读多少行插一次检查点标记 */
+    @Value("${loader.checkpoint.intervalLines:100000}")
+    private int checkpointInterval;
+
+    /** 断点续传：true 时按检查点跳过已提交的行；false 时视为全新装载并清掉旧检查点 */
+    @Value("${loader.resume:false}")
+    private boolean resume;
+
+    /** 写入目标：direct=直接写线上分表（默认）；staging=写影子表，建完索引后整体换入；delta=写增量表，装完并入线上表 */
+    @Value("${loader.target:direct}")
+    private String target;
+
+    /** staging：并行补建索引的连接数（一个表一条连接） */
+    @Value("${loader.staging.buildThreads:4}")
+    private int stagingBuildThreads;
+
+    /** staging：建索引会话的 maintenance_work_mem */
+    @Value("${loader.staging.maintenanceWorkMem:512MB}")
+    private String stagingWorkMem;
+
+    /** staging：换表事务拿锁的等待上限（毫秒），拿不到就回滚重试；期间新来的读请求排在它后面，宜取几十毫秒 */
+    @Value("${loader.staging.lockTimeoutMs:50}")
+    private long stagingLockTimeoutMs;
+
+    /** staging：换表重试次数 */
+    @Value("${loader.staging.swapRetries:200}")
+    private int stagingSwapRetries;
+
+    /** 读写线程之间在途数据块的总内存上限（字节） */
+    @Value("${loader.buffer.budgetBytes:67108864}")
+    private long bufferBudget;
+
+    /** 单个数据块大小（字节），读线程攒满一块才交给写线程 */
+    @Value("${loader.buffer.chunkBytes:262144}")
+    private int bufferChunkBytes;
+
+    /** gzip 输入的解压线程数（多成员 gzip 并行解压） */
+    @Value("${loader.gzip.threads:4}")
+    private int gzipThreads;
+
+    /** gzip 并行解压的切块大小（压缩字节） */
+    @Value("${loader.gzip.chunkBytes:8388608}")
+    private int gzipChunkBytes;
+
+    /** gzip 并行解压已解出、等读线程取走的数据总量上限（字节） */
+    @Value("${loader.gzip.bufferBytes:67108864}")
+    private long gzipBufferBytes;
+
+    /** 写入前按 (customer_no, account_no, ccy) 只保留 biz_dt 最新的一行；需关闭检查点 */
+    @Value("${loader.dedup.enabled:false}")
+    private boolean dedupEnabled;
+
+    /** 归约可用的总内存（各分片平分），超出即溢写有序段文件 */
+    @Value("${loader.dedup.memoryBytes:536870912}")
+    private long dedupMemory;
+
+    /** 归约溢写目录，默认系统临时目录 */
+    @Value("${loader.dedup.spillDir:}")
+    private String dedupSpillDir;
+
+    /** 写入前按 (customer_no, account_no, ccy) 排序，分表按客户号物理聚簇；需关闭检查点 */
+    @Value("${loader.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    /** 外部排序可用的总内存（各分片平分），超出即溢写有序段文件 */
+    @Value("${loader.cluster.memoryBytes:536870912}")
+    private long clusterMemory;
+
+    /** 排序溢写目录，默认系统临时目录 */
+    @Value("${loader.cluster.spillDir:}")
+    private String clusterSpillDir;
+
+    /** 进度日志（各分片吞吐/队列深度/阻塞/延迟）间隔秒数，0=不打印 */
+    @Value("${loader.metrics.logIntervalSec:10}")
+    private int metricsLogInterval;
+
+    /** 坏行写盘队列最多积压的行数（读线程只入队，由独立线程写 .bad） */
+    @Value("${loader.reject.queueRows:10000}")
+    private int rejectQueueRows;
+
+    /** delta：并行并入的连接数（一个表一条连接） */
+    @Value("${loader.delta.mergeThreads:4}")
+    private int deltaMergeThreads;
+
+    /** 多节点协同装载：各节点按工作单元认领同一文件（共享存储） */
+    @Value("${loader.coordinator.enabled:false}")
+    private boolean coordinated;
+
+    /** 协同：本节点标识，空则取「进程号@主机名」 */
+    @Value("${loader.coordinator.nodeId:}")
+    private String nodeId;
+
+    /** 协同：工作单元大小（字节，换行对齐），各节点须一致 */
+    @Value("${loader.coordinator.unitBytes:268435456}")
+    private long unitBytes;
+
+    /** 协同：租约秒数，心跳停了这么久的单元可被其他节点接手 */
+    @Value("${loader.coordinator.leaseSeconds:120}")
+    private int leaseSeconds;
+
+    /** 协同：没有可认领单元、等其他节点做完时的轮询间隔（毫秒） */
+    @Value("${loader.coordinator.pollMs:5000}")
+    private long pollMs;
+
+    /** 协同：本节点是否参与发回调（全部单元完成后只有一个节点发出） */
+    @Value("${loader.coordinator.callback:true}")
+    private boolean coordinatorCallback;
+
     /** 计数落盘目录 */
     @Value("${loader.statDir:/tmp/8424227}")
     private String statDir;
 
+    private volatile boolean ownsCallback = true;
+
+    @Override
+    public boolean ownsCallback() {
+        return ownsCallback;
+    }
 
-    /** 时间格式校验器 */
-    static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     @Override
     public void loadFile() {
@@ -68,157 +248,303 @@ public class CopyLoadServiceImpl implements CopyLoadService {
         Path input = Paths.get(filePath, fileName);
         Path badPath = Paths.get(filePath, fileName + badSuffix);
 
-        // 为每个分片准备一个阻塞队列，容量约 16K 行，可根据机器内存/吞吐调优
-        ArrayBlockingQueue<byte[]>[] queues = new ArrayBlockingQueue[shards];
-        for (int i = 0; i < shards; i++) queues[i] = new ArrayBlockingQueue<>(1 << 14);
-        final boolean[] finished = {false}; // 读线程是否结束的标志
-
-        // 启动写线程池：每个分片 1 线程，持有一个 CopyManager
-        ExecutorService writers = Executors.newFixedThreadPool(shards);
-        IntStream.range(0, shards).forEach(s -> writers.submit(() -> copyWorker(s, queues, finished)));
-
-        long ok = 0, bad = 0; // 计数器：成功入队与坏行数量
-        try (BufferedReader br = Files.newBufferedReader(input, StandardCharsets.UTF_8);
-             BufferedWriter badOut = Files.newBufferedWriter(badPath, StandardCharsets.UTF_8,
-                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-
-            String line;
-            while ((line = br.readLine()) != null) {
-                // 以 | 分隔，保留空字段
-                String[] arr = line.split("\\|", -1);
-                if (arr.length != 5) { // 基础列数校验
-                    badOut.write(line); badOut.newLine(); bad++; continue;
-                }
-
-                // === 字段清洗与轻校验 ===
-                String tsRaw   = arr[0].trim();
-                String custRaw = arr[1].trim();
-                String accRaw  = arr[2].trim().replace(" ", "");
-                String ccyRaw  = arr[3].trim();
-                String balRaw  = arr[4].trim();
-
-                if (!isTs(tsRaw)) { badOut.write(line); badOut.newLine(); bad++; continue; }
-
-                // customerNo：数字、≤10；短的左补0；>10 fail
-                if (!isAllDigits(custRaw) || custRaw.length() > 10) { badOut.write(line); badOut.newLine(); bad++; continue; }
-                String cust = leftPadToLen(custRaw, 10);
-
-                // accountNo：数字、≤18 合规；>18 fail；短的不补0
-                if (!isAllDigits(accRaw) || accRaw.length() > 18) { badOut.write(line); badOut.newLine(); bad++; continue; }
-                String acc = accRaw;
-
-                // ccy：严格 3 位字母
-                if (ccyRaw.length() != 3 || !isAlpha(ccyRaw)) { badOut.write(line); badOut.newLine(); bad++; continue; }
-                String ccy = ccyRaw.toUpperCase();
-
-                // balance：数值
-                if (!balRaw.matches("^-?\\d{1,18}(\\.\\d{1,2})?$")) { badOut.write(line); badOut.newLine(); bad++; continue; }
-                String bal = balRaw;
-
-                // 重新按原分隔符拼接一行，末尾必须加换行（COPY 按行切分）
-                String out = tsRaw+ "|" + cust + "|" + acc + "|" + ccy + "|" + bal + "\n";
+        // 切段：stream 模式整文件一段；mmap 模式按换行对齐切 readers 段（续传时须与上次一致）
+        String fileKey = input.toAbsolutePath().normalize().toString();
+        boolean mapped = "mmap".equalsIgnoreCase(readMode);
+        List<FileSegments.Segment> segments;
+        long fileSize, fileMtime;
+        try (FileChannel ch = FileChannel.open(input, StandardOpenOption.READ)) {
+            if (mapped && CompressedInput.isGzip(input)) {
+                log.info("{} is gzip-compressed, mmap segments not possible; falling back to stream read", input);
+                mapped = false;
+            }
+            segments = FileSegments.split(ch, mapped ? readers : 1);
+            fileSize = ch.size();
+            fileMtime = Files.getLastModifiedTime(input).toMillis();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
-                // 路由到目标分片：用客户号取模，分布较均匀
-                int shard = (int)(Long.parseLong(cust) % shards);
-                queues[shard].put(out.getBytes(StandardCharsets.UTF_8)); // 阻塞式放入
-                ok++;
+        List<String> liveTables = new ArrayList<>();
+        for (int i = 0; i < shards; i++) liveTables.add(tablePrefix + String.format("%02d", i + 1));
+        if (coordinated) {
+            loadCoordinated(input, badPath, fileKey, fileSize, fileMtime, liveTables);
+            return;
+        }
+        ownsCallback = true;
+        // staging / delta 模式下 COPY 与检查点都针对影子表 / 增量表
+        StagingTables staging = "staging".equalsIgnoreCase(target)
+                ? new StagingTables(dataSource, stagingBuildThreads, stagingWorkMem, stagingLockTimeoutMs, stagingSwapRetries)
+                : null;
+        DeltaMerge delta = "delta".equalsIgnoreCase(target) ? new DeltaMerge(dataSource, deltaMergeThreads) : null;
+        List<String> tables = new ArrayList<>();
+        for (String t : liveTables) {
+            tables.add(staging != null ? StagingTables.stagingName(t) : delta != null ? DeltaMerge.deltaName(t) : t);
+        }
 
-                if ((ok % 5_000_000) == 0) { // 大文件进度提示
-                    log.info("queued {} rows, bad {}", ok, bad);
+        // 归约/排序要读完才出结果，COPY 在读完之后才开始，检查点没有意义
+        boolean reducing = dedupEnabled || clusterEnabled;
+        if (reducing && resume) {
+            throw new IllegalStateException("loader.dedup.enabled / loader.cluster.enabled 不支持 loader.resume=true");
+        }
+        if (reducing && checkpointEnabled) {
+            log.warn("loader.dedup/cluster enabled: checkpoints disabled for this load");
+        }
+        CheckpointStore checkpoints = checkpointEnabled && !reducing ? new CheckpointStore(dataSource) : null;
+        long[][] watermark = null;
+        try {
+            if (staging != null) staging.prepare(liveTables, resume);
+            if (delta != null) delta.prepare(liveTables, resume);
+            if (checkpoints != null) {
+                checkpoints.ensureTable();
+                if (resume) {
+                    watermark = checkpoints.load(fileKey, fileSize, fileMtime, segments, tables);
+                    if (staging != null || delta != null) checkpoints.verifyRows(fileKey, tables);
                 }
+                else checkpoints.clear(fileKey);
+            } else if (resume) {
+                throw new IllegalStateException("loader.resume=true 需要 loader.checkpoint.enabled=true");
             }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            // 通知写线程：读已结束
-            finished[0] = true;
+        } catch (SQLException e) {
+            throw new RuntimeException("load checkpoints failed", e);
+        }
+        final long[][] skip = watermark;
+
+        CopyPipeline pipeline = newPipeline(tables);
+        if (dedupEnabled) {
+            Path spillDir = Paths.get(dedupSpillDir.isEmpty() ? System.getProperty("java.io.tmpdir") : dedupSpillDir);
+            long perShard = dedupMemory / shards;
+            pipeline.reduce(shard -> new LatestRowReducer(tables.get(shard), perShard, spillDir)); // 输出已按键有序
+        } else if (clusterEnabled) {
+            Path spillDir = Paths.get(clusterSpillDir.isEmpty() ? System.getProperty("java.io.tmpdir") : clusterSpillDir);
+            long perShard = clusterMemory / shards;
+            pipeline.reduce(shard -> new ClusteringRowSorter(tables.get(shard), perShard, spillDir));
+        }
+        metricsRegistry.publish(pipeline.metrics()); // GET /loader/metrics 实时查看
+        if (checkpoints != null) {
+            List<ShardCheckpoint> cps = new ArrayList<>();
+            for (String t : tables) cps.add(checkpoints.open(fileKey, t, fileSize, fileMtime, segments));
+            pipeline.enableCheckpoints(cps, checkpointInterval, skip);
         }
 
-        // 等待所有写线程退出
-        writers.shutdown();
-        try { writers.awaitTermination(7, TimeUnit.DAYS); } catch (InterruptedException ignored) {}
-        log.info("EQUITY LOAD finished. success={} fail={}", ok, bad);
+        long ok, bad; // 计数器：成功入队与坏行数量
+        try (RejectSink rejects = new RejectSink(badPath, rejectQueueRows, "equity-rejects")) {
+            long[] counts = pipeline.run(input, segments, mapped, rejects);
+            ok = counts[0];
+            bad = counts[1];
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (staging != null) {
+            try {
+                staging.build(liveTables);
+                staging.swap(liveTables);
+                // 影子表已换入，检查点随之作废（否则续传会把空的新影子表当成已装完）
+                if (checkpoints != null) checkpoints.clear(fileKey);
+            } catch (Exception e) {
+                throw new RuntimeException("EQUITY staging build/swap failed", e);
+            }
+        }
+        long[] merged = null; // {staged, upserted, stale, rejected}
+        if (delta != null) {
+            try {
+                merged = delta.merge(liveTables, badPath);
+                // 已并入线上表，检查点与增量表随之作废（重复并入结果不变，失败时可直接续传重跑）
+                if (checkpoints != null) checkpoints.clear(fileKey);
+                delta.clear(liveTables);
+            } catch (Exception e) {
+                throw new RuntimeException("EQUITY delta merge failed", e);
+            }
+        }
+        Map<String, Long> rejectCounts = new LinkedHashMap<>(pipeline.metrics().rejectCounts());
+        if (merged != null && merged[3] > 0) {
+            // 并入时因先后不明被拒绝的行：COPY 时算成功，实际没有入库，改记为失败
+            ok -= merged[3];
+            bad += merged[3];
+            rejectCounts.put(RejectReason.AMBIGUOUS.name(), merged[3]);
+        }
+        long collapsed = pipeline.metrics().collapsedRows();
+        log.info("EQUITY LOAD finished. success={} fail={} collapsed(older duplicates)={}", ok, bad, collapsed);
+        if (merged != null) {
+            log.info("EQUITY delta merged: upserted={} stale={} rejected={} (ambiguous={}) superseded={}",
+                    merged[1], merged[2], bad, merged[3], merged[0] - merged[1] - merged[2] - merged[3]);
+        }
 
         // 计数落盘，供回调脚本读取
         dumpStat("equity.ok", String.valueOf(ok));
         dumpStat("equity.fail", String.valueOf(bad));
+        dumpStat("equity.rejects", keyValues(rejectCounts));
+        if (dedupEnabled) dumpStat("equity.collapsed", String.valueOf(collapsed));
+        if (merged != null) {
+            dumpStat("equity.upserted", String.valueOf(merged[1]));
+            dumpStat("equity.stale", String.valueOf(merged[2]));
+            dumpStat("equity.rejected", String.valueOf(bad));
+            dumpStat("equity.superseded", String.valueOf(merged[0] - merged[1] - merged[2] - merged[3]));
+        }
+        dumpStat("equity.metrics", pipeline.metrics().summary());
     }
 
     /**
-     * 单个分片的写线程：不断从队列取数据，通过 Pipe 喂给 COPY。
-     * @param shard     分片编号（0-based）
-     * @param queues    所有分片队列
-     * @param finished  读线程结束标志
+     * 多节点协同装载：文件按 loader.coordinator.unitBytes 切成工作单元登记进 loader_work_unit，
+     * 本节点每轮用 SKIP LOCKED 认领至多 readers 个单元（含租约过期、原节点多半已死的单元），
+     * 按 mmap 分段并行读、COPY 进线上分表，完成后写回计数；认领期间定时续租。
+     * 检查点按单元记（段号即单元号），接手的单元从原节点已提交的位置接着装。
+     * 每次 COPY 提交前在同一事务里按 owner 确认单元仍归本节点，心跳发现租约丢失即中止本轮、放回其余单元。
+     * 没有可认领的单元时等其他节点做完（期间仍会接手过期单元），全部完成后汇总整文件计数落盘，
+     * 回调只由一个节点发出。本节点的坏行写 .bad.&lt;nodeId&gt;，行号为「单元号:单元内行号」。
      */
-    private void copyWorker(int shard, ArrayBlockingQueue<byte[]>[] queues, boolean[] finished) {
-        String table = tablePrefix + String.format("%02d", shard + 1);
-        String copySql = "COPY " + table +
-                " (biz_dt, customer_no, account_no, ccy, balance) FROM STDIN WITH (FORMAT text, DELIMITER '|')";
-
-        long total = 0L;
-        final int BATCH_SIZE = 50000; // 每批5万行，按需调大调小
+    private void loadCoordinated(Path input, Path badPath, String fileKey, long fileSize, long fileMtime,
+                                 List<String> tables) {
+        if (!"direct".equalsIgnoreCase(target) || dedupEnabled || clusterEnabled || !checkpointEnabled) {
+            throw new IllegalStateException("loader.coordinator.enabled=true 只支持 loader.target=direct、"
+                    + "不开 dedup/cluster，且需要 loader.checkpoint.enabled=true（接手单元靠检查点续传）");
+        }
         try {
+            if (CompressedInput.isGzip(input)) {
+                throw new IllegalStateException("loader.coordinator.enabled=true 不支持 gzip 输入（无法按字节切单元）: " + input);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String node = nodeId.isEmpty() ? ManagementFactory.getRuntimeMXBean().getName() : nodeId;
+        String jobKey = WorkUnits.jobKey(fileKey, fileSize, fileMtime);
+        WorkUnits work = new WorkUnits(dataSource);
+        CheckpointStore checkpoints = new CheckpointStore(dataSource);
+        ScheduledExecutorService lease = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "equity-lease");
+            t.setDaemon(true);
+            return t;
+        });
+        long ok = 0, bad = 0;
+        int rounds = 0;
+        try (FileChannel ch = FileChannel.open(input, StandardOpenOption.READ);
+             RejectSink rejects = new RejectSink(Paths.get(badPath + "." + node), rejectQueueRows, "equity-rejects", true)) {
+            List<FileSegments.Segment> units = FileSegments.split(ch, (int) Math.max(1, (fileSize + unitBytes - 1) / unitBytes));
+            work.ensureTables();
+            checkpoints.ensureTable();
+            work.register(jobKey, units);
+            log.info("EQUITY coordinated load as {}: {} units of ~{} MB", node, units.size(), unitBytes >> 20);
             while (true) {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                int count = 0;
-
-                // 从队列取一批
-                while (count < BATCH_SIZE) {
-                    byte[] line = queues[shard].poll(500, TimeUnit.MILLISECONDS);
-                    if (line != null) {
-                        baos.write(line);
-                        count++;
-                    } else if (finished[0] && queues[shard].isEmpty()) {
-                        break;
-                    }
+                List<FileSegments.Segment> claimed = work.claim(jobKey, node, readers, leaseSeconds);
+                if (claimed.isEmpty()) {
+                    int left = work.remaining(jobKey);
+                    if (left == 0) break;
+                    log.info("EQUITY no claimable unit, {} still running on other nodes", left);
+                    Thread.sleep(pollMs);
+                    continue;
                 }
-
-                if (count > 0) {
-                    try (Connection conn = dataSource.getConnection()) {
-                        CopyManager cm = new CopyManager(conn.unwrap(BaseConnection.class));
-                        long n = cm.copyIn(copySql, new ByteArrayInputStream(baos.toByteArray()));
-                        total += n;
-                        // 每批打印日志
-                        log.info("{} imported batch {} rows, total={}", table, n, total);
+                CopyPipeline pipeline = newPipeline(tables);
+                // 租约一旦丢失立即中止本轮：单元已归别的节点，继续写只会被 COPY 事务里的栅栏拒绝
+                ScheduledFuture<?> beat = lease.scheduleAtFixedRate(() -> {
+                    try {
+                        int held = work.heartbeat(jobKey, node, claimed);
+                        if (held < claimed.size()) {
+                            log.warn("EQUITY lease lost on {} of {} units, aborting this round", claimed.size() - held, claimed.size());
+                            pipeline.abort(new LeaseLostException((claimed.size() - held) + " of " + claimed.size()
+                                    + " units taken over by another node"));
+                        }
+                    } catch (SQLException e) {
+                        log.warn("EQUITY lease heartbeat failed: {}", e.toString());
                     }
-                }
-
-                // 读线程结束 & 队列空，跳出循环
-                if (finished[0] && queues[shard].isEmpty()) {
-                    break;
+                }, leaseSeconds / 3, Math.max(1, leaseSeconds / 3), TimeUnit.SECONDS);
+                try {
+                    // 每轮重新读水位：接手的单元可能已由原节点提交了一部分
+                    long[][] skip = checkpoints.load(jobKey, fileSize, fileMtime, units, tables);
+                    metricsRegistry.publish(pipeline.metrics());
+                    List<ShardCheckpoint> cps = new ArrayList<>();
+                    for (String t : tables) cps.add(checkpoints.open(jobKey, t, fileSize, fileMtime, units, node));
+                    pipeline.enableCheckpoints(cps, checkpointInterval, skip);
+                    try {
+                        pipeline.run(input, claimed, true, rejects);
+                    } catch (RuntimeException e) {
+                        if (!leaseLost(e)) throw e;
+                        // 已提交的部分由检查点记着，接手者从那里继续；仍归本节点的单元放回，别的节点可立即认领
+                        beat.cancel(false);
+                        work.release(jobKey, node, claimed);
+                        log.warn("EQUITY round aborted, units released: {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                        continue;
+                    }
+                    for (FileSegments.Segment u : claimed) {
+                        long[] c = pipeline.counts(u);
+                        if (work.complete(jobKey, node, u, c)) {
+                            ok += c[0];
+                            bad += c[1];
+                        }
+                    }
+                    rounds++;
+                } finally {
+                    beat.cancel(false);
                 }
             }
-            log.info("{} copied rows = {}", table, total);
-        } catch (Exception e) {
-            throw new RuntimeException("copyWorker " + (shard + 1), e);
+            long[] totals = work.totals(jobKey);
+            ownsCallback = coordinatorCallback && work.claimReport(jobKey, node);
+            if (ownsCallback) checkpoints.clear(jobKey); // 全部单元已完成，检查点不再需要
+            log.info("EQUITY coordinated load finished: this node ok={} bad={} in {} rounds; all nodes success={} fail={}; callback={}",
+                    ok, bad, rounds, totals[0], totals[1], ownsCallback ? "this node" : "another node");
+
+            // 落盘的是整个文件（所有节点合计）的计数，供回调读取
+            dumpStat("equity.ok", String.valueOf(totals[0]));
+            dumpStat("equity.fail", String.valueOf(totals[1]));
+            dumpStat("equity.node.ok", String.valueOf(ok));
+            dumpStat("equity.node.fail", String.valueOf(bad));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (SQLException e) {
+            throw new RuntimeException("EQUITY work unit coordination failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for other nodes", e);
+        } finally {
+            lease.shutdownNow();
         }
     }
 
-
-    // ======== 基础校验工具 ========
-    // ======== 工具 ========
-    private static boolean isAllDigits(String s){
-        if (s==null || s.isEmpty()) return false;
-        for (int i=0;i<s.length();i++) if (!Character.isDigit(s.charAt(i))) return false;
-        return true;
-    }
-    private static boolean isAlpha(String s){
-        if (s==null || s.isEmpty()) return false;
-        for (int i=0;i<s.length();i++) if (!Character.isLetter(s.charAt(i))) return false;
-        return true;
+    /** 异常链里是否有租约丢失（栅栏拒绝提交或心跳发现被接手） */
+    private static boolean leaseLost(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof LeaseLostException) return true;
+        }
+        return false;
     }
-    private static boolean isDecimal(String s){
-        try { new java.math.BigDecimal(s); return true; } catch (Exception e){ return false; }
+
+    /** 每个分片一条 lane、一个 ShardWriter，loader.writers 个写线程轮流认领；读写之间按数据块交接，总量受 loader.buffer 约束 */
+    private CopyPipeline newPipeline(List<String> tables) {
+        CopyPipeline pipeline = new CopyPipeline("EQUITY", shards, EquityLineParser::new,
+                (shard, listener) -> openWriter(tables.get(shard), listener));
+        pipeline.writers(writers);
+        pipeline.buffers(bufferBudget, bufferChunkBytes);
+        pipeline.decompression(gzipThreads, gzipChunkBytes, gzipBufferBytes);
+        pipeline.progressLog(metricsLogInterval);
+        pipeline.readerPermits(budget.threadPermits());
+        return pipeline;
     }
-    private static boolean isTs(String s){
-        try { LocalDateTime.parse(s, TS); return true; } catch (Exception e){ return false; }
+
+    /**
+     * 单个分表的 COPY 写入端：batch 模式每批新取连接单独 COPY；stream 模式常驻一条 COPY 流。
+     * @param table    COPY 目标表（线上分表或其影子表）
+     * @param listener 提交回调（检查点）
+     */
+    private ShardWriter openWriter(String table, CommitListener listener) {
+        CopyFormat format = CopyFormat.of(copyFormat); // binary 编码器有状态，每个写线程一个
+        String copySql = "COPY " + table +
+                " (biz_dt, customer_no, account_no, ccy, balance) FROM STDIN WITH " + format.options();
+
+        final int BATCH_SIZE = 50000; // 每批5万行；开启 loader.copy.adaptive 时改为按字节自适应
+        return "stream".equalsIgnoreCase(copyMode)
+                ? new StreamingCopyWriter(dataSource, table, copySql, commitRows, commitBytes, maxRetries, format, listener)
+                : new BatchCopyWriter(dataSource, table, copySql, BATCH_SIZE, format, listener,
+                        batchSizing.newSizer(table));
     }
-    private static String leftPadToLen(String s, int len){
-        if (s.length()>=len) return s;
-        StringBuilder sb=new StringBuilder(len);
-        for(int i=0;i<len-s.length();i++) sb.append('0');
-        return sb.append(s).toString();
+
+
+    // ======== 工具 ========
+    private static String keyValues(Map<String, Long> m) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : m.entrySet()) sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        return sb.toString().trim();
     }
+
     private void dumpStat(String file, String val){
         try {
             Path dir = Paths.get(statDir);
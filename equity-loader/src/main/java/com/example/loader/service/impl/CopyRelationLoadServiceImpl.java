@@ -1,24 +1,38 @@
 package com.example.loader.service.impl;
 
+import com.example.loader.pipeline.BatchCopyWriter;
+import com.example.loader.pipeline.CommitListener;
+import com.example.loader.pipeline.CompressedInput;
+import com.example.loader.pipeline.CopyPipeline;
+import com.example.loader.pipeline.FileSegments;
+import com.example.loader.pipeline.RejectSink;
+import com.example.loader.pipeline.RelationLineParser;
+import com.example.loader.pipeline.ShardWriter;
+import com.example.loader.pipeline.StreamingCopyWriter;
+import com.example.loader.pipeline.TextCopyFormat;
+import com.example.loader.service.BatchSizing;
 import com.example.loader.service.CopyRelationLoadService;
+import com.example.loader.service.LoadBudget;
+import com.example.loader.service.LoadMetricsRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.postgresql.copy.CopyManager;
-import org.postgresql.core.BaseConnection;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.sql.DataSource;
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.sql.Connection;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.Map;
 
 /**
- * 关系表（tb_customer_relation）的 COPY 装载：
- * - 单连接复用（解决长 Pipe 连接易断问题）
- * - 批量 COPY：每 50,000 行 flush 一次，并打印进度
- * - 字段校验：manager(<=7 位字母数字)、customer(<=10 位数字，不足左补0)
+ * 关系表（tb_customer_relation）的 COPY 装载，与资产装载共用 CopyPipeline：
+ * - 并行读：mmap 模式按换行切 readers 段，每段一个解析线程（stream 模式单线程顺序读）
+ * - 并行写：按客户号取模分到 writers 条 lane，每条 lane 一个写线程、各用各的连接 COPY 同一张表；
+ *   batch 模式每 batchSize 行 flush 一次，stream 模式常驻 COPY 流按检查点提交
+ * - 字段校验：manager(<=7 位字母数字)、customer(<=10 位数字，不足左补0)，分隔符 '|' 或全角 '｜'，
+ *   由字节级解析器 RelationLineParser 完成（不建 String）
  * - 坏行写 *.bad，统计 relation.ok / relation.fail 到 ${loader.statDir}
  */
 @Slf4j
@@ -26,7 +40,17 @@ import java.util.concurrent.TimeUnit;
 public class CopyRelationLoadServiceImpl implements CopyRelationLoadService {
 
     private final DataSource dataSource;
-    public CopyRelationLoadServiceImpl(DataSource dataSource) { this.dataSource = dataSource; }
+    private final LoadMetricsRegistry metricsRegistry;
+    private final LoadBudget budget;
+    private final BatchSizing batchSizing;
+
+    public CopyRelationLoadServiceImpl(DataSource dataSource, LoadMetricsRegistry metricsRegistry, LoadBudget budget,
+                                       BatchSizing batchSizing) {
+        this.dataSource = budget.wrap(dataSource); // 并发装载时取连接受共享预算约束
+        this.metricsRegistry = metricsRegistry;
+        this.budget = budget;
+        this.batchSizing = batchSizing;
+    }
 
     @Value("${loader.relation.enabled:false}")
     private boolean enabled;
@@ -37,13 +61,60 @@ public class CopyRelationLoadServiceImpl implements CopyRelationLoadService {
     @Value("${loader.badFileSuffix:.bad}")
     private String badSuffix;
 
+    /** 坏行写盘队列最多积压的行数（读线程只入队，由独立线程写 .bad） */
+    @Value("${loader.reject.queueRows:10000}")
+    private int rejectQueueRows;
+
     @Value("${loader.statDir:/tmp/8424227}")
     private String statDir;
 
-    /** 每批 COPY 行数阈值（到达即 flush） */
+    /** 每批 COPY 行数阈值（到达即 flush）；开启 loader.copy.adaptive 时不用 */
     @Value("${loader.relation.batchSize:50000}")
     private int batchSize;
 
+    /** 读取模式：mmap=按段并行解析（默认）；stream=单线程顺序读 */
+    @Value("${loader.relation.readMode:mmap}")
+    private String readMode;
+
+    /** mmap 模式下的切段数（= 并行解析线程数） */
+    @Value("${loader.relation.readers:4}")
+    private int readers;
+
+    /** 并行 COPY 写线程数（每个一条连接） */
+    @Value("${loader.relation.writers:4}")
+    private int writers;
+
+    /** COPY 写入模式，与资产装载共用：batch / stream */
+    @Value("${loader.copy.mode:batch}")
+    private String copyMode;
+
+    @Value("${loader.copy.commitRows:500000}")
+    private long commitRows;
+
+    @Value("${loader.copy.commitBytes:16777216}")
+    private long commitBytes;
+
+    @Value("${loader.copy.maxRetries:3}")
+    private int maxRetries;
+
+    @Value("${loader.buffer.budgetBytes:67108864}")
+    private long bufferBudget;
+
+    @Value("${loader.buffer.chunkBytes:262144}")
+    private int bufferChunkBytes;
+
+    @Value("${loader.metrics.logIntervalSec:10}")
+    private int metricsLogInterval;
+
+    @Value("${loader.gzip.threads:4}")
+    private int gzipThreads;
+
+    @Value("${loader.gzip.chunkBytes:8388608}")
+    private int gzipChunkBytes;
+
+    @Value("${loader.gzip.bufferBytes:67108864}")
+    private long gzipBufferBytes;
+
     @Override
     public void loadFile() {
         if (!enabled) {
@@ -63,104 +134,53 @@ public class CopyRelationLoadServiceImpl implements CopyRelationLoadService {
         if (!Files.isRegularFile(input)) throw new IllegalStateException("关系文件不存在: " + input);
         Path badPath = Paths.get(dir, fname + badSuffix);
 
-        log.info("开始导入关系文件: {}", input);
-
-        long ok = 0, bad = 0;
-        long totalCopied = 0;
-        int buffered = 0;
-
-        // 复用单一连接与 CopyManager
-        try (Connection conn = dataSource.getConnection();
-             BufferedReader br = Files.newBufferedReader(input, StandardCharsets.UTF_8);
-             BufferedWriter badOut = Files.newBufferedWriter(
-                     badPath, StandardCharsets.UTF_8,
-                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-
-            CopyManager cm = new CopyManager(conn.unwrap(BaseConnection.class));
-            final String copySql = "COPY " + tableName + " (csmgr_refno, customer_no) FROM STDIN WITH (FORMAT text, DELIMITER '|')";
-
-            // 用内存缓冲聚一批再 COPY（防止超长管道/网络断开）
-            ByteArrayOutputStream batch = new ByteArrayOutputStream(8 * 1024 * 1024); // 8MB 初始
-
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] arr = line.split("[|｜]", -1);
-                if (arr.length != 2) { badOut.write(line); badOut.newLine(); bad++; continue; }
-
-                String mgrRaw  = arr[0].trim();
-                String custRaw = arr[1].trim();
-
-                // manager：1..7 位，字母数字
-                if (mgrRaw.isEmpty() || mgrRaw.length() > 7 || !isAlphaNum(mgrRaw)) {
-                    badOut.write(line); badOut.newLine(); bad++; continue;
-                }
-                String manager = mgrRaw.toUpperCase();
-
-                // customer：数字，<=10；不足左补0
-                if (!isAllDigits(custRaw) || custRaw.length() > 10) {
-                    badOut.write(line); badOut.newLine(); bad++; continue;
-                }
-                String customer = leftPadToLen(custRaw, 10);
-
-                // 写入 batch（一行）
-                String out = manager + "|" + customer + "\n";
-                batch.write(out.getBytes(StandardCharsets.UTF_8));
-                ok++; buffered++;
-
-                // 达到批次阈值 -> flush
-                if (buffered >= batchSize) {
-                    long n = cm.copyIn(copySql, new ByteArrayInputStream(batch.toByteArray()));
-                    totalCopied += n;
-                    log.info("RELATION batch copied: {} rows (this), {} rows (total), ok={}, bad={}",
-                            n, totalCopied, ok, bad);
-                    batch.reset();
-                    buffered = 0;
-                }
-
-                if ((ok % 5_000_000) == 0) {
-                    log.info("relation feeder progress: ok={} bad={}", ok, bad);
-                }
-            }
-
-            // flush 最后一批
-            if (buffered > 0) {
-                long n = cm.copyIn(copySql, new ByteArrayInputStream(batch.toByteArray()));
-                totalCopied += n;
-                log.info("RELATION final batch copied: {} rows (this), {} rows (total)", n, totalCopied);
+        log.info("开始导入关系文件: {} (readMode={}, readers={}, writers={})", input, readMode, readers, writers);
+
+        CopyPipeline pipeline = new CopyPipeline("RELATION", writers, RelationLineParser::new, this::openWriter);
+        pipeline.buffers(bufferBudget, bufferChunkBytes);
+        pipeline.progressLog(metricsLogInterval);
+        pipeline.readerPermits(budget.threadPermits());
+        metricsRegistry.publish(pipeline.metrics());
+        pipeline.decompression(gzipThreads, gzipChunkBytes, gzipBufferBytes);
+        try (RejectSink rejects = new RejectSink(badPath, rejectQueueRows, "relation-rejects")) {
+            // gzip 输入无法按字节切段：只能单线程顺序读（解压本身并行）
+            boolean mapped = "mmap".equalsIgnoreCase(readMode) && !CompressedInput.isGzip(input);
+            List<FileSegments.Segment> segments;
+            try (FileChannel ch = FileChannel.open(input, StandardOpenOption.READ)) {
+                segments = FileSegments.split(ch, mapped ? readers : 1);
             }
+            long[] counts = pipeline.run(input, segments, mapped, rejects);
 
-            log.info("RELATION COPY 完成：ok={} bad={} totalCopied={}", ok, bad, totalCopied);
+            long ok = counts[0], bad = counts[1];
+            log.info("RELATION COPY 完成：ok={} bad={}", ok, bad);
 
             // 写统计文件供回调读取
             dumpStat("relation.ok", String.valueOf(ok));
             dumpStat("relation.fail", String.valueOf(bad));
+            dumpStat("relation.rejects", keyValues(pipeline.metrics().rejectCounts()));
+            dumpStat("relation.metrics", pipeline.metrics().summary());
 
         } catch (Exception e) {
             throw new RuntimeException("关系文件导入失败", e);
         }
     }
 
-    // ===== 工具 =====
-    private static boolean isAllDigits(String s) {
-        if (s == null || s.isEmpty()) return false;
-        for (int i = 0; i < s.length(); i++) if (!Character.isDigit(s.charAt(i))) return false;
-        return true;
+    /** 每条 lane 一个写入端，都写同一张关系表 */
+    private ShardWriter openWriter(int lane, CommitListener listener) {
+        String copySql = "COPY " + tableName + " (csmgr_refno, customer_no) FROM STDIN WITH (FORMAT text, DELIMITER '|')";
+        String label = tableName + "#" + (lane + 1);
+        return "stream".equalsIgnoreCase(copyMode)
+                ? new StreamingCopyWriter(dataSource, label, copySql, commitRows, commitBytes, maxRetries,
+                        TextCopyFormat.INSTANCE, listener)
+                : new BatchCopyWriter(dataSource, label, copySql, batchSize, TextCopyFormat.INSTANCE, listener,
+                        batchSizing.newSizer(label));
     }
 
-    private static boolean isAlphaNum(String s){
-        if (s==null || s.isEmpty()) return false;
-        for (int i=0;i<s.length();i++) {
-            char c = s.charAt(i);
-            if (!Character.isLetterOrDigit(c)) return false;
-        }
-        return true;
-    }
-
-    private static String leftPadToLen(String s, int len) {
-        if (s.length()>=len) return s;
-        StringBuilder sb = new StringBuilder(len);
-        for (int i = 0; i < len - s.length(); i++) sb.append('0');
-        return sb.append(s).toString();
+    // ===== 工具 =====
+    private static String keyValues(Map<String, Long> m) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : m.entrySet()) sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        return sb.toString().trim();
     }
 
     private void dumpStat(String file, String val){
@@ -0,0 +1,37 @@
+package com.example.loader.pipeline;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 记下写出的每一行（不含 '\n'）的 ShardWriter，用于检查归约 / 排序的输出。
+ */
+class CapturingWriter implements ShardWriter {
+
+    final List<String> rows = new ArrayList<>();
+
+    @Override
+    public void write(byte[] buf, int off, int len, int n) {
+        int s = off;
+        for (int i = off; i < off + len; i++) {
+            if (buf[i] == '\n') {
+                rows.add(new String(buf, s, i - s, StandardCharsets.US_ASCII));
+                s = i + 1;
+            }
+        }
+        if (s != off + len) throw new IllegalArgumentException("partial row");
+        if (rows.size() > 0 && n <= 0) throw new IllegalArgumentException("row count " + n);
+    }
+
+    @Override
+    public void finish() { }
+
+    @Override
+    public long committedRows() {
+        return rows.size();
+    }
+
+    @Override
+    public void close() { }
+}
@@ -0,0 +1,80 @@
+package com.example.loader.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 输出顺序与表上 (customer_no, account_no, ccy) 的字符串顺序一致，同键按到达顺序，溢写与否结果相同。
+ */
+class ClusteringRowSorterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void accountSortsAsStringBeforeCurrency() throws Exception {
+        List<String> rows = Arrays.asList(
+                LatestRowReducerTest.row("2024-01-02 10:00:00", 2, "1", "AAA", "a"),
+                LatestRowReducerTest.row("2024-01-02 10:00:00", 1, "2", "AAA", "b"),
+                LatestRowReducerTest.row("2024-01-02 10:00:00", 1, "10", "AAA", "c"),
+                LatestRowReducerTest.row("2024-01-02 10:00:00", 1, "1", "ZZZ", "d"),
+                LatestRowReducerTest.row("2024-01-02 10:00:00", 1, "012", "AAA", "e"),
+                LatestRowReducerTest.row("2024-01-02 10:00:00", 1, "1", "AAA", "f"));
+        assertEquals(Arrays.asList("e", "f", "d", "c", "b", "a"), balances(sort(rows, 64L << 20)));
+    }
+
+    @Test
+    void spilledOutputMatchesTableOrderAndKeepsDuplicatesStable() throws Exception {
+        Random rnd = new Random(42);
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 80_000; i++) {
+            String acc = Long.toString(1 + rnd.nextInt(5000));
+            String ccy = rnd.nextBoolean() ? "CNY" : "USD";
+            rows.add(LatestRowReducerTest.row("2024-01-02 10:00:00", rnd.nextInt(300), acc, ccy, Integer.toString(i)));
+        }
+        List<String> expected = new ArrayList<>(rows);
+        expected.sort(Comparator.comparing((String r) -> field(r, 1)).thenComparing(r -> field(r, 2))
+                .thenComparing(r -> field(r, 3))); // List.sort 稳定：同键保持到达顺序
+
+        List<String> spilled = sort(rows, 0);
+        assertEquals(expected, spilled);
+        assertEquals(spilled, sort(rows, 64L << 20));
+    }
+
+    private static String field(String row, int i) {
+        return row.split("\\|")[i];
+    }
+
+    private static List<String> balances(List<String> rows) {
+        List<String> out = new ArrayList<>();
+        for (String r : rows) out.add(r.substring(r.lastIndexOf('|') + 1));
+        return out;
+    }
+
+    private List<String> sort(List<String> rows, long memory) throws Exception {
+        CapturingWriter writer = new CapturingWriter();
+        try (ClusteringRowSorter sorter = new ClusteringRowSorter("t", memory, dir)) {
+            LatestRowReducerTest.add(sorter, rows);
+            if (memory == 0) {
+                try (Stream<Path> runs = Files.list(dir)) {
+                    assertTrue(runs.count() > 0, "expected spilled runs");
+                }
+            }
+            sorter.drainTo(writer);
+            assertEquals(0, sorter.collapsed());
+        }
+        return writer.rows;
+    }
+}
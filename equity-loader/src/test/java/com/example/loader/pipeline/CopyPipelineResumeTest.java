@@ -0,0 +1,271 @@
+package com.example.loader.pipeline;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 断点续传：装载在两次提交之间被杀掉，再按检查点续传，每个好行恰好提交一次。
+ */
+class CopyPipelineResumeTest {
+
+    private static final int LANES = 4;
+    private static final int LINES = 20_000;
+    private static final String FILE_KEY = "test-file";
+
+    @TempDir
+    Path dir;
+    private Path input;
+    private FakeCheckpointDb db;
+    private CheckpointStore store;
+    /** 各 lane 已提交的行（模拟目标表） */
+    private List<List<String>> committed;
+    /** 每次提交成功后回调 */
+    private volatile Runnable onCommit = () -> { };
+
+    @BeforeEach
+    void setUp() throws IOException {
+        input = dir.resolve("input.txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= LINES; i++) {
+            sb.append(i % 997 == 0 ? "bad" + i : Integer.toString(i)).append('\n');
+        }
+        Files.write(input, sb.toString().getBytes(StandardCharsets.US_ASCII));
+        db = new FakeCheckpointDb();
+        store = new CheckpointStore(db.dataSource());
+        committed = new ArrayList<>();
+        for (int i = 0; i < LANES; i++) committed.add(Collections.synchronizedList(new ArrayList<>()));
+    }
+
+    @Test
+    void killedBetweenCommitsResumesWithoutLossOrDuplicates() throws Exception {
+        List<FileSegments.Segment> segments = segments(3);
+
+        // 第一次：每条 lane 提交 3 次后，下一次写入时进程「被杀」
+        AtomicInteger killAfter = new AtomicInteger(3);
+        assertThrows(RuntimeException.class, () -> run(segments, null, killAfter));
+        int firstRun = committed.stream().mapToInt(List::size).sum();
+        assertTrue(firstRun > 0 && firstRun < LINES, "first run should stop part way: " + firstRun);
+
+        // 续传：按检查点跳过已提交的行
+        long[][] skip = store.load(FILE_KEY, Files.size(input), 0L, segments, tables());
+        long[] counts = run(segments, skip, new AtomicInteger(Integer.MAX_VALUE));
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= LINES; i++) {
+            if (i % 997 != 0) expected.add(Integer.toString(i));
+        }
+        List<String> actual = committed.stream().flatMap(List::stream).sorted(Comparator.comparingInt(Integer::parseInt))
+                .collect(Collectors.toList());
+        assertEquals(expected, actual);
+        assertEquals(firstRun, counts[2], "skipped rows should equal rows committed before the kill");
+        assertEquals(expected.size(), counts[0]);
+
+        // 每条 lane 每段的检查点行数 = 该段路由到该 lane 的行数
+        for (int lane = 0; lane < LANES; lane++) {
+            long rows = 0;
+            for (FileSegments.Segment seg : segments) {
+                long[] cp = db.get(FILE_KEY, tables().get(lane), seg.index);
+                assertEquals(seg.end, cp[2], "lane " + lane + " " + seg);
+                rows += cp[3];
+            }
+            assertEquals(committed.get(lane).size(), rows, "lane " + lane);
+        }
+    }
+
+    @Test
+    void watermarkCoversEveryCommittedRow() throws Exception {
+        List<FileSegments.Segment> segments = segments(1);
+        assertThrows(RuntimeException.class, () -> run(segments, null, new AtomicInteger(2)));
+
+        // 水位之前属于该 lane 的行必须都已提交，水位之后的一行都没有提交
+        long[][] skip = store.load(FILE_KEY, Files.size(input), 0L, segments, tables());
+        long end = 0;
+        for (int i = 1; i <= LINES; i++) {
+            String line = i % 997 == 0 ? "bad" + i : Integer.toString(i);
+            end += line.length() + 1;
+            if (i % 997 == 0) continue;
+            int lane = i % LANES;
+            assertEquals(end <= skip[lane][0], committed.get(lane).contains(line), "line " + i);
+        }
+    }
+
+    @Test
+    void resumeRefusesTablesThatLostCommittedRows() throws Exception {
+        List<FileSegments.Segment> segments = segments(2);
+        assertThrows(RuntimeException.class, () -> run(segments, null, new AtomicInteger(3)));
+        for (int lane = 0; lane < LANES; lane++) db.tableRows.put(tables().get(lane), (long) committed.get(lane).size());
+        store.verifyRows(FILE_KEY, tables());
+
+        // 模拟 UNLOGGED 表在崩溃后被清空：检查点还在，表里没有数据
+        int lane = 0;
+        while (committed.get(lane).isEmpty()) lane++;
+        String lost = tables().get(lane);
+        db.tableRows.put(lost, 0L);
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> store.verifyRows(FILE_KEY, tables()));
+        assertTrue(e.getMessage().contains(lost), e.getMessage());
+    }
+
+    @Test
+    void lostLeaseRollsBackLaterCommits() throws Exception {
+        List<FileSegments.Segment> segments = segments(3);
+        for (FileSegments.Segment seg : segments) db.owners.put(FILE_KEY + "|" + seg.index, "node-a");
+
+        // 全局第 6 次提交后单元 #1 被 node-b 接手：之后涉及 #1 的提交都应被栅栏回滚
+        AtomicInteger commits = new AtomicInteger();
+        onCommit = () -> {
+            if (commits.incrementAndGet() == 6) db.owners.put(FILE_KEY + "|1", "node-b");
+        };
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> run(segments, null, new AtomicInteger(Integer.MAX_VALUE), "node-a"));
+        boolean leaseLost = false;
+        for (Throwable t = e; t != null; t = t.getCause()) leaseLost |= t instanceof LeaseLostException;
+        assertTrue(leaseLost, "failure should come from the lease fence: " + e);
+
+        // 单元 #1 已提交的行恰好是检查点记下的那些：接手后再没有属于它的行提交
+        long[] ends = new long[LINES + 1];
+        for (int i = 1; i <= LINES; i++) {
+            ends[i] = ends[i - 1] + (i % 997 == 0 ? "bad" : "").length() + Integer.toString(i).length() + 1;
+        }
+        FileSegments.Segment unit1 = segments.get(1);
+        long unit1Rows = committed.stream().flatMap(List::stream).mapToInt(Integer::parseInt)
+                .filter(v -> ends[v] > unit1.start && ends[v] <= unit1.end).count();
+        long checkpointed = 0;
+        for (String t : tables()) {
+            long[] cp = db.get(FILE_KEY, t, 1);
+            if (cp != null) checkpointed += cp[3];
+        }
+        assertEquals(checkpointed, unit1Rows, "unit #1 rows committed vs checkpointed");
+    }
+
+    private List<FileSegments.Segment> segments(int n) throws IOException {
+        try (FileChannel ch = FileChannel.open(input, StandardOpenOption.READ)) {
+            return FileSegments.split(ch, n);
+        }
+    }
+
+    private static List<String> tables() {
+        List<String> t = new ArrayList<>();
+        for (int i = 0; i < LANES; i++) t.add("t_" + i);
+        return t;
+    }
+
+    private long[] run(List<FileSegments.Segment> segments, long[][] skip, AtomicInteger killAfter) throws Exception {
+        return run(segments, skip, killAfter, null);
+    }
+
+    private long[] run(List<FileSegments.Segment> segments, long[][] skip, AtomicInteger killAfter, String owner)
+            throws Exception {
+        long size = Files.size(input);
+        List<ShardCheckpoint> cps = new ArrayList<>();
+        for (String t : tables()) cps.add(store.open(FILE_KEY, t, size, 0L, segments, owner));
+        DataSource ds = db.dataSource();
+        CopyPipeline pipeline = new CopyPipeline("TEST", LANES, NumberParser::new,
+                (lane, listener) -> new CommittingWriter(ds, listener, committed.get(lane), killAfter.get()));
+        pipeline.progressLog(0);
+        pipeline.writers(2);
+        pipeline.buffers(64 << 10, 1 << 10);
+        pipeline.enableCheckpoints(cps, 500, skip);
+        try (RejectSink rejects = new RejectSink(dir.resolve("input.bad"), 100, "test-rejects")) {
+            return pipeline.run(input, segments, segments.size() > 1, rejects);
+        }
+    }
+
+    /** 每行一个十进制数；路由键即该数，非数字为坏行 */
+    private static final class NumberParser implements LineParser {
+        private long key;
+
+        @Override
+        public int parse(ByteBuffer src, int from, int to, byte[] out, int off) {
+            long v = 0;
+            for (int i = from; i < to; i++) {
+                byte b = src.get(i);
+                if (b < '0' || b > '9') return -1;
+                v = v * 10 + (b - '0');
+                out[off + i - from] = b;
+            }
+            out[off + to - from] = '\n';
+            key = v;
+            return to - from + 1;
+        }
+
+        @Override
+        public long routeKey() { return key; }
+
+        @Override
+        public RejectReason rejectReason() { return RejectReason.FIELDS; }
+    }
+
+    /** 攒够 37 行提交一次（检查点与数据同一事务）；提交 killAfter 次后的下一次写入模拟进程被杀 */
+    private final class CommittingWriter implements ShardWriter {
+        private final DataSource ds;
+        private final CommitListener listener;
+        private final List<String> table;
+        private final int killAfter;
+        private final List<String> batch = new ArrayList<>();
+        private int commits;
+        private long total;
+
+        CommittingWriter(DataSource ds, CommitListener listener, List<String> table, int killAfter) {
+            this.ds = ds;
+            this.listener = listener;
+            this.table = table;
+            this.killAfter = killAfter;
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len, int rows) throws Exception {
+            if (commits >= killAfter) throw new IOException("killed");
+            String text = new String(buf, off, len, StandardCharsets.US_ASCII);
+            batch.addAll(Arrays.asList(text.split("\n")));
+            if (batch.size() >= 37) commit();
+        }
+
+        @Override
+        public void finish() throws Exception {
+            if (!batch.isEmpty()) commit();
+        }
+
+        private void commit() throws Exception {
+            List<String> rows = new ArrayList<>(batch);
+            try (Connection conn = ds.getConnection()) {
+                conn.setAutoCommit(false);
+                listener.beforeCommit(conn);
+                db.onCommit(conn, () -> table.addAll(rows));
+                conn.commit();
+            }
+            listener.afterCommit();
+            onCommit.run();
+            total += rows.size();
+            commits++;
+            batch.clear();
+        }
+
+        @Override
+        public long committedRows() { return total; }
+
+        @Override
+        public void close() { }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.loader.pipeline;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 测试用的内存版 loader_checkpoint：只认 CheckpointStore / ShardCheckpoint 发出的几条 SQL，
+ * 连接级事务（setAutoCommit(false) 后的写入在 commit 时才生效，rollback/close 即丢弃）。
+ * 目标表数据由测试里的 ShardWriter 通过 {@link #onCommit} 挂在同一事务上。
+ */
+final class FakeCheckpointDb {
+
+    /** (file_key|tbl|segment) -> {seg_start, seg_end, byte_offset, committed_rows, file_size, file_mtime} */
+    final Map<String, long[]> rows = new TreeMap<>();
+
+    /** 目标表的行数（SELECT COUNT(*) FROM t），由测试按已提交的行设置 */
+    final Map<String, Long> tableRows = new java.util.concurrent.ConcurrentHashMap<>();
+
+    /** loader_work_unit 的 owner：(job_key|unit) -> owner，status 视为 running */
+    final Map<String, String> owners = new java.util.concurrent.ConcurrentHashMap<>();
+
+    private final Map<Connection, List<Runnable>> txs = new java.util.IdentityHashMap<>();
+
+    DataSource dataSource() {
+        return proxy(DataSource.class, (p, m, a) -> {
+            if (m.getName().equals("getConnection")) return connection();
+            throw new UnsupportedOperationException(m.getName());
+        });
+    }
+
+    /** 把一个动作挂到 conn 当前事务上，随 commit 生效 */
+    synchronized void onCommit(Connection conn, Runnable action) {
+        List<Runnable> tx = txs.get(conn);
+        if (tx == null) action.run();
+        else tx.add(action);
+    }
+
+    synchronized long[] get(String fileKey, String table, int segment) {
+        return rows.get(fileKey + "|" + table + "|" + segment);
+    }
+
+    private Connection connection() {
+        Connection[] self = new Connection[1];
+        self[0] = proxy(Connection.class, (p, m, a) -> {
+            switch (m.getName()) {
+                case "setAutoCommit":
+                    synchronized (this) {
+                        if ((Boolean) a[0]) txs.remove(self[0]);
+                        else txs.put(self[0], new ArrayList<>());
+                    }
+                    return null;
+                case "commit":
+                    synchronized (this) {
+                        List<Runnable> tx = txs.get(self[0]);
+                        if (tx != null) {
+                            tx.forEach(Runnable::run);
+                            tx.clear();
+                        }
+                    }
+                    return null;
+                case "rollback":
+                    synchronized (this) {
+                        List<Runnable> tx = txs.get(self[0]);
+                        if (tx != null) tx.clear();
+                    }
+                    return null;
+                case "close":
+                    synchronized (this) {
+                        txs.remove(self[0]);
+                    }
+                    return null;
+                case "prepareStatement":
+                    return statement(self[0], (String) a[0]);
+                case "createStatement":
+                    return proxy(java.sql.Statement.class, (s, sm, sa) -> {
+                        if (sm.getName().equals("close")) return null;
+                        String sql = (String) sa[0];
+                        if (sm.getName().equals("executeQuery") && sql.startsWith("SELECT COUNT(*) FROM ")) {
+                            List<Object[]> out = new ArrayList<>();
+                            out.add(new Object[]{tableRows.getOrDefault(sql.substring(21), 0L)});
+                            return resultSet(out);
+                        }
+                        throw new UnsupportedOperationException(sql);
+                    });
+                case "hashCode":
+                    return System.identityHashCode(p);
+                case "equals":
+                    return p == a[0];
+                default:
+                    throw new UnsupportedOperationException(m.getName());
+            }
+        });
+        return self[0];
+    }
+
+    private PreparedStatement statement(Connection conn, String sql) {
+        Object[] params = new Object[16];
+        List<Object[]> batch = new ArrayList<>();
+        return proxy(PreparedStatement.class, (p, m, a) -> {
+            switch (m.getName()) {
+                case "setString":
+                case "setInt":
+                case "setLong":
+                    params[(Integer) a[0]] = a[1];
+                    return null;
+                case "addBatch":
+                    batch.add(params.clone());
+                    return null;
+                case "executeBatch":
+                    for (Object[] b : batch) execute(conn, sql, b);
+                    int[] counts = new int[batch.size()];
+                    Arrays.fill(counts, 1);
+                    batch.clear();
+                    return counts;
+                case "executeUpdate":
+                    return execute(conn, sql, params.clone());
+                case "executeQuery":
+                    return query(sql, params);
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(m.getName());
+            }
+        });
+    }
+
+    private int execute(Connection conn, String sql, Object[] p) {
+        if (sql.equals(CheckpointStore.UPSERT_SQL)) {
+            String key = p[1] + "|" + p[2] + "|" + p[3];
+            long[] v = {(Long) p[4], (Long) p[5], (Long) p[6], (Long) p[7], (Long) p[8], (Long) p[9]};
+            onCommit(conn, () -> rows.merge(key, v, (old, now) -> {
+                old[2] = now[2];
+                old[3] = now[3];
+                return old;
+            }));
+            return 1;
+        }
+        if (sql.startsWith("DELETE FROM " + CheckpointStore.TABLE)) {
+            String prefix = p[1] + "|";
+            onCommit(conn, () -> rows.keySet().removeIf(k -> k.startsWith(prefix)));
+            return 1;
+        }
+        throw new UnsupportedOperationException(sql);
+    }
+
+    private synchronized ResultSet query(String sql, Object[] p) {
+        List<Object[]> out = new ArrayList<>();
+        if (sql.equals(WorkUnits.FENCE_SQL)) {
+            if (p[3].equals(owners.get(p[1] + "|" + p[2]))) out.add(new Object[]{1});
+            return resultSet(out);
+        }
+        if (sql.startsWith("SELECT tbl, SUM(committed_rows)")) {
+            Map<String, Long> sums = new TreeMap<>();
+            for (Map.Entry<String, long[]> e : rows.entrySet()) {
+                String[] k = e.getKey().split("\\|");
+                if (k[0].equals(p[1])) sums.merge(k[1], e.getValue()[3], Long::sum);
+            }
+            for (Map.Entry<String, Long> e : sums.entrySet()) out.add(new Object[]{e.getKey(), e.getValue()});
+            return resultSet(out);
+        }
+        for (Map.Entry<String, long[]> e : rows.entrySet()) {
+            String[] k = e.getKey().split("\\|");
+            long[] v = e.getValue();
+            if (!k[0].equals(p[1])) continue;
+            if (sql.equals(CheckpointStore.SELECT_SHARD_SQL)) {
+                if (k[1].equals(p[2])) out.add(new Object[]{Integer.parseInt(k[2]), v[2], v[3]});
+            } else if (sql.startsWith("SELECT tbl, segment")) {
+                out.add(new Object[]{k[1], Integer.parseInt(k[2]), v[0], v[1], v[2], v[3], v[4], v[5]});
+            } else {
+                throw new UnsupportedOperationException(sql);
+            }
+        }
+        return resultSet(out);
+    }
+
+    private static ResultSet resultSet(List<Object[]> out) {
+        int[] pos = {-1};
+        return proxy(ResultSet.class, (r, m, a) -> {
+            switch (m.getName()) {
+                case "next":
+                    return ++pos[0] < out.size();
+                case "getString":
+                    return (String) out.get(pos[0])[(Integer) a[0] - 1];
+                case "getInt":
+                    return ((Number) out.get(pos[0])[(Integer) a[0] - 1]).intValue();
+                case "getLong":
+                    return ((Number) out.get(pos[0])[(Integer) a[0] - 1]).longValue();
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(m.getName());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(FakeCheckpointDb.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
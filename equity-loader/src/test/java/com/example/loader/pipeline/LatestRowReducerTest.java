@@ -0,0 +1,98 @@
+package com.example.loader.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 同键取 biz_dt 最新，时间相同后到的胜出；内存里归约与溢写后归并结果一致。
+ */
+class LatestRowReducerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sameTimeLaterRowWinsInMemory() throws Exception {
+        List<String> rows = new ArrayList<>();
+        rows.add(row("2024-01-02 10:00:00", 7, "12", "CNY", "1.00"));
+        rows.add(row("2024-01-02 10:00:00", 7, "12", "CNY", "2.00"));
+        rows.add(row("2024-01-02 11:00:00", 7, "12", "USD", "3.00"));
+        rows.add(row("2024-01-02 09:00:00", 7, "12", "USD", "4.00"));
+
+        List<String> out = reduce(rows, 64L << 20);
+        assertEquals(2, out.size());
+        assertTrue(out.get(0).endsWith("|CNY|2.00"), out.get(0));
+        assertTrue(out.get(1).endsWith("|USD|3.00"), out.get(1));
+    }
+
+    @Test
+    void spilledRunsKeepTheSameTieRule() throws Exception {
+        List<String> rows = new ArrayList<>();
+        rows.add(row("2024-01-02 10:00:00", 1, "5", "CNY", "first"));
+        rows.add(row("2024-01-02 12:00:00", 1, "5", "USD", "newer"));
+        for (int i = 0; i < 60_000; i++) rows.add(row("2024-01-01 00:00:00", 100 + i, "1", "CNY", "0"));
+        rows.add(row("2024-01-02 10:00:00", 1, "5", "CNY", "last"));   // 同时间，后到的胜出
+        rows.add(row("2024-01-02 11:00:00", 1, "5", "USD", "older"));  // 比已有的旧，丢弃
+
+        LatestRowReducer reducer = new LatestRowReducer("t", 0, dir); // 取最小预算，必然溢写
+        CapturingWriter writer = new CapturingWriter();
+        try {
+            add(reducer, rows);
+            assertTrue(spillFiles() > 0, "expected spilled runs");
+            reducer.drainTo(writer);
+            assertEquals(2, reducer.collapsed());
+        } finally {
+            reducer.close();
+        }
+        assertEquals(0, spillFiles(), "run files should be deleted on close");
+        List<String> spilled = writer.rows;
+        assertEquals(60_002, spilled.size());
+        assertTrue(spilled.get(0).endsWith("|CNY|last"), spilled.get(0));
+        assertTrue(spilled.get(1).endsWith("|USD|newer"), spilled.get(1));
+        assertEquals(reduce(rows, 64L << 20), spilled);
+    }
+
+    private long spillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private List<String> reduce(List<String> rows, long memory) throws Exception {
+        CapturingWriter writer = new CapturingWriter();
+        try (LatestRowReducer reducer = new LatestRowReducer("t", memory, dir)) {
+            add(reducer, rows);
+            reducer.drainTo(writer);
+        }
+        return writer.rows;
+    }
+
+    /** 按 1000 行一块交给 reducer，模拟写线程按块到达 */
+    static void add(RowReducer reducer, List<String> rows) throws Exception {
+        byte[] all = rows.stream().map(r -> r + "\n").collect(Collectors.joining()).getBytes(StandardCharsets.US_ASCII);
+        int off = 0, lines = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (all[i] == '\n' && ++lines % 1000 == 0) {
+                reducer.add(all, off, i + 1 - off);
+                off = i + 1;
+            }
+        }
+        if (off < all.length) reducer.add(all, off, all.length - off);
+    }
+
+    static String row(String ts, long cust, String acc, String ccy, String balance) {
+        return ts + "|" + String.format("%010d", cust) + "|" + acc + "|" + ccy + "|" + balance;
+    }
+}
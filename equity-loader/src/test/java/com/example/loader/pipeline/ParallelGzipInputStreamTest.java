@@ -0,0 +1,116 @@
+package com.example.loader.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 并行解压与顺序解压结果一致：多成员、单块解压后远超缓冲上限、切点落在成员中间、单成员回退顺序解压、数据损坏报错。
+ */
+class ParallelGzipInputStreamTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void manyMembersStreamThroughSmallBuffer() throws Exception {
+        Random rnd = new Random(1);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 12; i++) {
+            // 压缩率高的成员：一块压缩数据解出好几 MB，超过 1 个缓冲
+            byte[] plain = text(rnd, 1_500_000 + rnd.nextInt(100_000));
+            expected.write(plain);
+            file.write(gzip(plain, Deflater.DEFAULT_COMPRESSION));
+        }
+        Path gz = write(file.toByteArray());
+        assertArrayEquals(expected.toByteArray(), readAll(gz, 3, 16 << 10, 1));
+        assertArrayEquals(expected.toByteArray(), readAll(gz, 2, 1 << 20, 64L << 20));
+    }
+
+    @Test
+    void falseBoundaryInsideMemberIsDiscarded() throws Exception {
+        Random rnd = new Random(2);
+        // 不压缩（stored）的成员原样包含另一个 gzip 成员的字节：切点会落在它身上且试解压能通过
+        byte[] inner = gzip(text(rnd, 3000), Deflater.BEST_COMPRESSION);
+        ByteArrayOutputStream outerPlain = new ByteArrayOutputStream();
+        outerPlain.write(text(rnd, 6000));
+        outerPlain.write(inner);
+        outerPlain.write(text(rnd, 5000));
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        file.write(gzip(outerPlain.toByteArray(), Deflater.NO_COMPRESSION));
+        expected.write(outerPlain.toByteArray());
+        for (int i = 0; i < 20; i++) {
+            byte[] plain = text(rnd, 2000 + rnd.nextInt(3000));
+            expected.write(plain);
+            file.write(gzip(plain, Deflater.NO_COMPRESSION));
+        }
+        Path gz = write(file.toByteArray());
+        assertArrayEquals(expected.toByteArray(), readAll(gz, 4, 4096, 1));
+    }
+
+    @Test
+    void singleMemberFallsBackToSequential() throws Exception {
+        byte[] plain = text(new Random(3), 2_000_000);
+        Path gz = write(gzip(plain, Deflater.BEST_SPEED));
+        assertArrayEquals(plain, readAll(gz, 4, 16 << 10, 1));
+    }
+
+    @Test
+    void corruptTrailerFails() throws Exception {
+        Random rnd = new Random(4);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (int i = 0; i < 8; i++) file.write(gzip(text(rnd, 20_000), Deflater.NO_COMPRESSION));
+        byte[] bytes = file.toByteArray();
+        bytes[bytes.length - 6]++; // 最后一个成员的 CRC32
+        Path gz = write(bytes);
+        assertThrows(IOException.class, () -> readAll(gz, 2, 16 << 10, 1));
+    }
+
+    private Path write(byte[] bytes) throws IOException {
+        Path gz = Files.createTempFile(dir, "input-", ".gz");
+        Files.write(gz, bytes);
+        return gz;
+    }
+
+    private static byte[] readAll(Path gz, int threads, int chunkBytes, long bufferBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new ParallelGzipInputStream(gz, threads, chunkBytes, bufferBytes)) {
+            byte[] buf = new byte[7919];
+            int n;
+            while ((n = in.read(buf, 0, buf.length)) > 0) out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /** 数字与小写字母组成的行，不含 gzip 魔数字节 */
+    private static byte[] text(Random rnd, int n) {
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) {
+            int r = rnd.nextInt(40);
+            b[i] = (byte) (r < 10 ? '0' + r : r < 36 ? 'a' + r - 10 : r < 39 ? '|' : '\n');
+        }
+        return b;
+    }
+
+    private static byte[] gzip(byte[] plain, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out) { { def.setLevel(level); } }) {
+            gz.write(plain);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.loader.pipeline;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 坏行行号：段内行号按前面各段的行数换算成文件行号，前段未读完的先暂存，换算不了的写「段号:段内行号」。
+ */
+class RejectSinkTest {
+
+    @TempDir
+    Path dir;
+    private Path bad;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        bad = dir.resolve("equity.bad");
+    }
+
+    @Test
+    void laterSegmentsWaitForEarlierLineCounts() throws IOException {
+        try (RejectSink sink = new RejectSink(bad, 2, "reject-test")) {
+            reject(sink, 0, 3, RejectReason.FIELDS, "a");
+            reject(sink, 2, 1, RejectReason.CCY, "c");
+            reject(sink, 1, 5, RejectReason.TS, "b");
+            sink.segmentDone(1, 20);
+            reject(sink, 0, 7, RejectReason.BALANCE, "d");
+            sink.segmentDone(0, 10);
+            reject(sink, 2, 4, RejectReason.ACCOUNT, "e");
+            sink.segmentDone(2, 5);
+        }
+        // 第 1 段从文件第 11 行起，第 2 段从第 31 行起；暂存的坏行在起始行号确定时并入
+        assertEquals(Arrays.asList(
+                "3|FIELDS|a",
+                "7|BALANCE|d",
+                "15|TS|b",
+                "31|CCY|c",
+                "34|ACCOUNT|e"), Files.readAllLines(bad, StandardCharsets.US_ASCII));
+        assertFalse(Files.exists(dir.resolve("equity.bad.seg1.tmp")));
+        assertFalse(Files.exists(dir.resolve("equity.bad.seg2.tmp")));
+    }
+
+    @Test
+    void unfinishedPredecessorLeavesSegmentLineNumbers() throws IOException {
+        try (RejectSink sink = new RejectSink(bad, 10, "reject-test")) {
+            reject(sink, 0, 2, RejectReason.FIELDS, "a");
+            reject(sink, 1, 6, RejectReason.CUSTOMER, "b");
+            sink.segmentDone(1, 8);
+        }
+        // 第 0 段没报行数（装载中途失败）：第 1 段的起始行号无从得知
+        assertEquals(Arrays.asList("2|FIELDS|a", "1:6|CUSTOMER|b"), Files.readAllLines(bad, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void segmentLinesModeNeverConverts() throws IOException {
+        try (RejectSink sink = new RejectSink(bad, 10, "reject-test", true)) {
+            reject(sink, 0, 2, RejectReason.FIELDS, "a");
+            sink.segmentDone(0, 10);
+            reject(sink, 3, 9, RejectReason.LENGTH, "b|c");
+        }
+        assertEquals(Arrays.asList("0:2|FIELDS|a", "3:9|LENGTH|b|c"), Files.readAllLines(bad, StandardCharsets.US_ASCII));
+    }
+
+    private static void reject(RejectSink sink, int segment, long line, RejectReason reason, String row) throws IOException {
+        // 坏行前后带上相邻内容，只交 [from, to) 这一段
+        ByteBuffer src = ByteBuffer.wrap(("x\n" + row + "\ny").getBytes(StandardCharsets.US_ASCII));
+        sink.reject(segment, line, reason, src, 2, 2 + row.length());
+    }
+}
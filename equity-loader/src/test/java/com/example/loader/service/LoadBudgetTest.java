@@ -0,0 +1,48 @@
+package com.example.loader.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * 连接预算：每条连接各占一个许可（同一线程开几条就占几个），关闭时只归还一次。
+ */
+class LoadBudgetTest {
+
+    private final LoadBudget budget = new LoadBudget(true, 4, 2);
+    private final DataSource dataSource = budget.wrap(fakeDataSource());
+
+    @Test
+    void everyConnectionOfOneThreadTakesAPermit() throws Exception {
+        Connection a = dataSource.getConnection();
+        Connection b = dataSource.getConnection();
+        Connection c = dataSource.getConnection();
+        assertEquals(1, budget.availableConnections());
+        b.close();
+        b.close(); // 重复 close 只还一次
+        assertEquals(2, budget.availableConnections());
+        a.close();
+        c.close();
+        assertEquals(4, budget.availableConnections());
+    }
+
+    @Test
+    void disabledBudgetReturnsTheDataSourceAsIs() {
+        DataSource raw = fakeDataSource();
+        assertSame(raw, new LoadBudget(false, 1, 1).wrap(raw));
+    }
+
+    private static DataSource fakeDataSource() {
+        return (DataSource) Proxy.newProxyInstance(LoadBudgetTest.class.getClassLoader(), new Class<?>[]{DataSource.class},
+                (ds, m, a) -> {
+                    if (!m.getName().equals("getConnection")) throw new UnsupportedOperationException(m.getName());
+                    return Proxy.newProxyInstance(LoadBudgetTest.class.getClassLoader(), new Class<?>[]{Connection.class},
+                            (c, cm, ca) -> null);
+                });
+    }
+}
@@ -2,6 +2,7 @@ package com.example.mq.consumer;
 
 import com.example.mq.service.EquityService;
 import com.example.mq.service.MqMetrics;
+import com.example.mq.service.Settlement;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pulsar.client.api.*;
@@ -10,11 +11,25 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
 import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Pulsar 消费：一个拉消息线程 + 按客户号分道的工作线程（KeyOrderedLanes）。
+ * 同一客户的消息进同一条 lane 串行处理，保持到达顺序；不同客户并行写库。
+ * lane 一次取至多 mq.batch-size 条（可在 mq.coalesce-window-ms 窗口内等后续消息凑批，同一账户只写最新一行），交 EquityService.handleBatch 在一个事务里落库，提交后再 ack 这一批（失败则 nack 重投）。
+ * 拉取两种模式（pulsar.receive-mode）：single 逐条 receive；batch 按 BatchReceivePolicy 一次 batchReceive 一批，
+ * 拉到即分发给各 lane，拉下一批与 lane 写库同时进行；ack 都是异步按批（acknowledgeAsync(List)），不占 lane 线程等回执。
+ * 订阅类型默认 Key_Shared：多个消费进程时 broker 也按消息 key（生产端设为客户号）分配，同一客户只到一个进程。
+ * Key_Shared 下没有 key 的消息 broker 全部发给同一个消费者，多进程分不开负载；同一客户若有的带 key 有的不带，
+ * 还可能落到两个进程上并发写、打乱顺序。进程内的 lane 按消息体里的客户号分道，不受影响；
+ * 拉到不带 key 的消息时告警（首条与此后每 {@link #KEYLESS_WARN_EVERY} 条一次），生产端没法设 key 时改用 Shared 单进程消费。
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
@@ -24,14 +39,29 @@ public class EquityConsumer {
     private final MqMetrics metrics;
     private final RestTemplate restTemplate = new RestTemplate();
 
+    /** 不带 key 的消息每多少条告警一次 */
+    static final long KEYLESS_WARN_EVERY = 10_000;
+
     @Value("${pulsar.url}")                     private String pulsarUrl;
     @Value("${pulsar.topic}")                   private String topic;
     @Value("${pulsar.subscription}")            private String subscription;
     @Value("${pulsar.token:}")                  private String token;
+    @Value("${pulsar.subscription-type:Key_Shared}") private String subscriptionType;
+    @Value("${pulsar.threads:1}")               private int ioThreads;
+
+    @Value("${mq.concurrency:1}")               private int lanes;
+    @Value("${mq.lane-queue:1000}")             private int laneQueue;
+    @Value("${mq.batch-size:1}")                private int batchSize;
+    @Value("${mq.coalesce-window-ms:0}")        private long coalesceWindowMs;
 
     @Value("${pulsar.idle-seconds:30}")         private int idleSeconds;
     @Value("${pulsar.grace-seconds:10}")        private int graceSeconds;
     @Value("${pulsar.receive-timeout-ms:1000}") private long receiveTimeoutMs;
+    @Value("${pulsar.receive-mode:single}")     private String receiveMode;
+    @Value("${pulsar.receiver-queue-size:1000}") private int receiverQueueSize;
+    @Value("${pulsar.batch.max-messages:500}")  private int batchMaxMessages;
+    @Value("${pulsar.batch.max-bytes:4194304}") private int batchMaxBytes;
+    @Value("${pulsar.batch.timeout-ms:50}")     private int batchTimeoutMs;
 
     @Value("${pulsar.callback-url}")            private String callbackUrl;
     @Value("${pulsar.omr-acc}")                 private String omrAcc;
@@ -39,19 +69,24 @@ public class EquityConsumer {
 
     private PulsarClient client;
     private Consumer<String> consumer;
+    private KeyOrderedLanes<Message<String>> workers;
+    private Thread receiver;
+    private boolean keyShared;
+    /** 不带 key 的消息数（只有拉消息线程写） */
+    private long keyless;
 
     private final ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor();
     private final AtomicBoolean stopping = new AtomicBoolean(false);
 
     @PostConstruct
     public void start() throws Exception {
-        log.info("Starting Pulsar consumer (single-thread), url={}, topic={}, sub={}, idle={}s grace={}s",
-                pulsarUrl, topic, subscription, idleSeconds, graceSeconds);
+        log.info("Starting Pulsar consumer ({} receive, {} lanes, batch {}, {}), url={}, topic={}, sub={}, idle={}s grace={}s",
+                receiveMode, lanes, batchSize, subscriptionType, pulsarUrl, topic, subscription, idleSeconds, graceSeconds);
 
         // 1) client
         ClientBuilder clientBuilder = PulsarClient.builder()
                 .serviceUrl(pulsarUrl)
-                .ioThreads(1)
+                .ioThreads(Math.max(1, ioThreads))
                 .listenerThreads(1);
         if (token != null && !token.isEmpty()) {
             clientBuilder.authentication(AuthenticationFactory.token(token));
@@ -59,24 +94,39 @@ public class EquityConsumer {
         client = clientBuilder.build();
 
         // 2) consumer
-        consumer = client.newConsumer(Schema.STRING)
+        SubscriptionType type = SubscriptionType.valueOf(subscriptionType);
+        ConsumerBuilder<String> builder = client.newConsumer(Schema.STRING)
                 .topic(topic)
                 .subscriptionName(subscription)
-                .subscriptionType(SubscriptionType.Shared)
+                .subscriptionType(type)
                 .subscriptionInitialPosition(SubscriptionInitialPosition.Earliest)
                 .consumerName("a")
-                .subscribe();
+                .receiverQueueSize(receiverQueueSize);
+        if (batchReceive()) {
+            // 一批凑满 max-messages 或 max-bytes 即返回，否则最多等 timeout-ms；max-messages 超过 receiverQueueSize 时以后者为准
+            builder.batchReceivePolicy(BatchReceivePolicy.builder()
+                    .maxNumMessages(batchMaxMessages)
+                    .maxNumBytes(batchMaxBytes)
+                    .timeout(batchTimeoutMs, TimeUnit.MILLISECONDS)
+                    .build());
+        }
+        keyShared = type == SubscriptionType.Key_Shared;
+        if (keyShared) {
+            builder.keySharedPolicy(KeySharedPolicy.autoSplitHashRange());
+        }
+        consumer = builder.subscribe();
 
-        // 3) 单工作线程
-        Thread worker = new Thread(this::workerLoop, "consumer-worker");
-        worker.setDaemon(true);
-        worker.start();
+        // 3) 按客户号分道的工作线程 + 一个拉消息线程
+        workers = new KeyOrderedLanes<>("consumer-worker", lanes, laneQueue, batchSize, coalesceWindowMs, this::process);
+        receiver = new Thread(batchReceive() ? this::batchReceiveLoop : this::receiveLoop, "consumer-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
 
-        // 4) 监控：静默 -> 二次确认 -> 回调 -> 优雅关闭（单线程无 in-flight 并发，判断更简单）
+        // 4) 监控：静默且没有在途消息 -> 二次确认 -> 回调 -> 优雅关闭
         monitor.scheduleWithFixedDelay(this::maybeCallbackAndShutdown, 5, 5, TimeUnit.SECONDS);
     }
 
-    private void workerLoop() {
+    private void receiveLoop() {
         while (!stopping.get()) {
             Message<String> msg = null;
             try {
@@ -84,15 +134,12 @@ public class EquityConsumer {
                 if (msg == null) continue; // 轮询超时，继续
 
                 metrics.onReceive();
-                final String value = msg.getValue();
-                log.info("received msgId={}, payload={}", msg.getMessageId(), value);
-
-                boolean shouldAck = equityService.handleMessage(value);
-                if (shouldAck) {
-                    consumer.acknowledge(msg);
-                } else {
-                    consumer.negativeAcknowledge(msg);
-                }
+                checkKey(msg);
+                workers.dispatch(routeKey(msg), msg); // lane 队列满时在这里等
+                msg = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             } catch (Exception e) {
                 log.error("消费异常", e);
                 if (msg != null) {
@@ -100,7 +147,151 @@ public class EquityConsumer {
                 }
             }
         }
-        log.info("worker exit");
+        log.info("receiver exit");
+    }
+
+    private boolean batchReceive() {
+        return "batch".equalsIgnoreCase(receiveMode);
+    }
+
+    /** batch 模式：一次拉一批分发给各 lane 即返回继续拉，lane 写这一批时下一批已在路上 */
+    private void batchReceiveLoop() {
+        while (!stopping.get()) {
+            Messages<String> msgs = null;
+            int dispatched = 0;
+            try {
+                msgs = consumer.batchReceive();
+                if (msgs == null || msgs.size() == 0) continue; // 超时未凑到消息
+
+                metrics.onReceive();
+                for (Message<String> msg : msgs) {
+                    checkKey(msg);
+                    workers.dispatch(routeKey(msg), msg); // lane 队列满时在这里等
+                    dispatched++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                nackFrom(msgs, dispatched);
+                break;
+            } catch (Exception e) {
+                log.error("消费异常", e);
+                nackFrom(msgs, dispatched);
+            }
+        }
+        log.info("receiver exit");
+    }
+
+    /** Key_Shared 下消息不带 key：broker 无法按客户分配，计数并按间隔告警 */
+    private void checkKey(Message<String> msg) {
+        if (!keyShared || msg.hasKey()) return;
+        if (keyless++ % KEYLESS_WARN_EVERY == 0) {
+            log.warn("Key_Shared 订阅收到不带 key 的消息（累计 {} 条，msgId={}）：broker 会把它们都发给同一个消费者，"
+                    + "生产端应以客户号为 key，否则改用 Shared 单进程消费", keyless, msg.getMessageId());
+        }
+    }
+
+    /** 一批中从第 from 条起尚未分发的消息 nack */
+    private void nackFrom(Messages<String> msgs, int from) {
+        if (msgs == null) return;
+        int i = 0;
+        for (Message<String> msg : msgs) {
+            if (i++ < from) continue;
+            try { consumer.negativeAcknowledge(msg); } catch (Exception ignore) {}
+        }
+    }
+
+    /** lane 线程：一批交给 EquityService，提交后 ack，回滚的 nack（开写后汇总时在 flush 线程里回调） */
+    private void process(List<Message<String>> batch) {
+        BatchSettlement settlement = new BatchSettlement(batch);
+        try {
+            List<String> values = new ArrayList<>(batch.size());
+            for (Message<String> msg : batch) {
+                log.debug("received msgId={}, payload={}", msg.getMessageId(), msg.getValue());
+                values.add(msg.getValue());
+            }
+            equityService.handleBatch(values, settlement);
+        } catch (Exception e) {
+            // 已提交但 ack 没发出去：重投后命中防冲表，不会重复记账
+            log.error("消费异常", e);
+            settlement.nackRest();
+        }
+    }
+
+    /**
+     * 一批消息的回调：记下已回调与已交给写后汇总的下标，处理中途抛异常时只 nack 其余的，
+     * 保证每条恰好 ack 或 nack 一次。flush 线程也会回调，故加锁。
+     */
+    private class BatchSettlement implements Settlement {
+        private final List<Message<String>> batch;
+        private final BitSet claimed;
+
+        BatchSettlement(List<Message<String>> batch) {
+            this.batch = batch;
+            this.claimed = new BitSet(batch.size());
+        }
+
+        @Override
+        public void settle(List<Integer> indexes, boolean ack) {
+            synchronized (this) {
+                for (int i : indexes) claimed.set(i);
+            }
+            EquityConsumer.this.settle(batch, indexes, ack);
+        }
+
+        @Override
+        public synchronized void deferred(int index) {
+            claimed.set(index);
+        }
+
+        void nackRest() {
+            List<Integer> rest = new ArrayList<>();
+            synchronized (this) {
+                for (int i = claimed.nextClearBit(0); i < batch.size(); i = claimed.nextClearBit(i + 1)) rest.add(i);
+                claimed.set(0, batch.size());
+            }
+            for (int i : rest) {
+                try { consumer.negativeAcknowledge(batch.get(i)); } catch (Exception ignore) {}
+            }
+        }
+    }
+
+    private void settle(List<Message<String>> batch, List<Integer> indexes, boolean ack) {
+        if (!ack) {
+            for (int i : indexes) consumer.negativeAcknowledge(batch.get(i));
+            return;
+        }
+        List<MessageId> acks = new ArrayList<>(indexes.size());
+        for (int i : indexes) acks.add(batch.get(i).getMessageId());
+        // 异步 ack：不等回执；ack 丢了只会重投，重投命中防冲表
+        consumer.acknowledgeAsync(acks).whenComplete((v, t) -> {
+            if (t != null) log.warn("ack {} msgs failed, will be redelivered: {}", acks.size(), t.toString());
+        });
+    }
+
+    /**
+     * 分道键：客户号（第 3 个字段，按数值，左补 0 前后是同一客户）；
+     * 字段不合法的消息随便进一条 lane，反正会被判为坏消息。
+     */
+    static long routeKey(Message<String> msg) {
+        String v = msg.getValue();
+        if (v == null) return 0;
+        int from = v.indexOf('|');
+        from = from < 0 ? -1 : v.indexOf('|', from + 1);
+        if (from < 0) return 0;
+        int to = v.indexOf('|', from + 1);
+        if (to < 0) to = v.length();
+        long key = 0;
+        int digits = 0;
+        for (int i = from + 1; i < to; i++) {
+            char c = v.charAt(i);
+            if (c >= '0' && c <= '9') {
+                key = key * 10 + (c - '0');
+                if (++digits > 18) return 0;
+            } else if (c != ' ') {
+                return 0;
+            }
+        }
+        return key;
     }
 
     /** 静默 → 等待 grace 窗口二次确认仍静默 → 回调并优雅关闭 */
@@ -108,7 +299,7 @@ public class EquityConsumer {
         if (stopping.get()) return;
 
         long idle = metrics.secondsSinceLastMsg();
-        if (idle < idleSeconds) return;
+        if (idle < idleSeconds || workers.inFlight() > 0 || equityService.pendingWrites() > 0) return;
 
         final long touch = metrics.lastTouchNanos();
         final long totalBefore = metrics.okCount() + metrics.failCount();
@@ -117,7 +308,9 @@ public class EquityConsumer {
         try { Thread.sleep(graceSeconds * 1000L); } catch (InterruptedException ignored) {}
 
         boolean stillIdle = (touch == metrics.lastTouchNanos())
-                && totalBefore == (metrics.okCount() + metrics.failCount());
+                && totalBefore == (metrics.okCount() + metrics.failCount())
+                && workers.inFlight() == 0
+                && equityService.pendingWrites() == 0;
 
         if (!stillIdle) {
             log.info("二次确认窗口有新消息，继续观察");
@@ -126,6 +319,12 @@ public class EquityConsumer {
 
         if (!stopping.compareAndSet(false, true)) return;
 
+        // 停止拉取；窗口边缘刚拉到的消息让各 lane 处理完、写后汇总提交完再回调
+        try { receiver.join(receiveTimeoutMs + 1000); } catch (InterruptedException ignored) {}
+        if (keyless > 0) log.warn("Key_Shared 订阅共收到 {} 条不带 key 的消息", keyless);
+        workers.shutdown(TimeUnit.SECONDS.toMillis(graceSeconds));
+        equityService.flushPending();
+
         try {
             postCallback(metrics.okCount());
         } catch (Exception e) {
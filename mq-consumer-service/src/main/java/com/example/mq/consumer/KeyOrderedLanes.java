@@ -0,0 +1,139 @@
+package com.example.mq.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按 key 分道的工作线程池：同一 key（客户号）的消息总是进同一条 lane，按到达顺序串行处理；
+ * 不同 lane 之间并行。每条 lane 一个线程 + 一个有界队列，队列满时 dispatch 阻塞，反压到拉消息的线程。
+ * lane 每次取至多 maxBatch 条交给 handler：先取走队列里已到的，windowMs > 0 时再等后续消息最多 windowMs
+ * （凑够 maxBatch 即止），让突发中同一账户的多次变动落进同一批，由 handler 合并成一行写库。
+ */
+@Slf4j
+public class KeyOrderedLanes<T> {
+
+    /** lane 线程里处理一批（按到达顺序）；抛出的异常只记日志，不影响后续消息 */
+    public interface Handler<T> {
+        void handle(List<T> batch) throws Exception;
+    }
+
+    private final String name;
+    private final BlockingQueue<T>[] queues;
+    private final Thread[] threads;
+    private final Handler<T> handler;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean closing;
+
+    @SuppressWarnings("unchecked")
+    public KeyOrderedLanes(String name, int lanes, int queueCapacity, int maxBatch, long windowMs, Handler<T> handler) {
+        this.name = name;
+        this.handler = handler;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMs));
+        this.queues = new BlockingQueue[Math.max(1, lanes)];
+        this.threads = new Thread[queues.length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+            final int lane = i;
+            threads[i] = new Thread(() -> run(lane), name + "-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    public int lanes() {
+        return queues.length;
+    }
+
+    /** 派发到 key 对应的 lane；该 lane 队列满时阻塞 */
+    public void dispatch(long key, T item) throws InterruptedException {
+        inFlight.incrementAndGet();
+        try {
+            queues[lane(key)].put(item);
+        } catch (InterruptedException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /** key 打散后取模：客户号尾数分布不均时也能摊开 */
+    int lane(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(h ^ (h >>> 32), (long) queues.length);
+    }
+
+    /** 已派发、尚未处理完的条数 */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    private void run(int lane) {
+        BlockingQueue<T> q = queues[lane];
+        List<T> batch = new ArrayList<>(maxBatch);
+        while (!closing || !q.isEmpty()) {
+            T item;
+            try {
+                item = q.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (item == null) continue;
+            batch.add(item);
+            boolean interrupted = fill(q, batch);
+            try {
+                handler.handle(batch);
+            } catch (Throwable t) {
+                log.error("{} lane {} handler failed", name, lane, t);
+            } finally {
+                inFlight.addAndGet(-batch.size());
+                batch.clear();
+            }
+            if (interrupted) break;
+        }
+        log.info("{} lane {} exit", name, lane);
+    }
+
+    /** 凑批：取走已到的，再在窗口内等后续的；等待中被中断返回 true（已取到的照常处理） */
+    private boolean fill(BlockingQueue<T> q, List<T> batch) {
+        if (maxBatch <= 1) return false;
+        q.drainTo(batch, maxBatch - batch.size());
+        long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatch && !closing) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) break;
+            T next;
+            try {
+                next = q.poll(left, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                return true;
+            }
+            if (next == null) break;
+            batch.add(next);
+            q.drainTo(batch, maxBatch - batch.size());
+        }
+        return false;
+    }
+
+    /** 不再接收新消息：各 lane 处理完队列里剩下的再退出，最多等 timeoutMs */
+    public void shutdown(long timeoutMs) {
+        closing = true;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Thread t : threads) {
+            try {
+                t.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (inFlight.get() > 0) log.warn("{} shutdown with {} messages still in flight", name, inFlight.get());
+    }
+}
@@ -5,6 +5,7 @@ import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 @Mapper
 public interface DailyAggMapper {
@@ -21,4 +22,21 @@ public interface DailyAggMapper {
                    @Param("ymd") String ymd,
                    @Param("custNo") String custNo,
                    @Param("delta") BigDecimal delta);
-}
\ No newline at end of file
+
+    /** 批量累加：一条多行 upsert，rows 内 (ymd, custNo) 须已去重（同键增量先在内存里合并） */
+    @Insert({
+            "<script>",
+            "INSERT INTO ${table}(ymd, customer_no, amount_cny) VALUES ",
+            "<foreach collection='rows' item='r' separator=','>(#{r.ymd}, #{r.custNo}, #{r.delta})</foreach>",
+            " ON CONFLICT (ymd, customer_no) ",
+            "DO UPDATE SET amount_cny = ${table}.amount_cny + EXCLUDED.amount_cny",
+            "</script>"
+    })
+    void upsertAddBatch(@Param("table") String table, @Param("rows") List<DeltaRow> rows);
+
+    class DeltaRow {
+        public String ymd;
+        public String custNo;
+        public BigDecimal delta;
+    }
+}
@@ -5,6 +5,8 @@ import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.List;
+
 @Mapper
 public interface EquityMapper {
 
@@ -21,4 +23,19 @@ public interface EquityMapper {
             "</script>"
     })
     void upsertLatestByTimeOnly(@Param("table") String table, @Param("msg") TradeMessage msg);
-}
\ No newline at end of file
+
+    /** 批量版：一条多行 upsert，msgs 内同一 (customer_no, account_no, ccy) 只能出现一次（调用方先取最新） */
+    @Insert({
+            "<script>",
+            "INSERT INTO ${table}(biz_dt, customer_no, account_no, ccy, balance) VALUES ",
+            "<foreach collection='msgs' item='m' separator=','>",
+            "(#{m.bizDt}, #{m.customerNo}, #{m.accountNo}, #{m.ccy}, #{m.balance})",
+            "</foreach>",
+            " ON CONFLICT (customer_no, account_no, ccy) DO UPDATE ",
+            "SET biz_dt = EXCLUDED.biz_dt, ",
+            "    balance  = EXCLUDED.balance ",
+            "WHERE EXCLUDED.biz_dt &gt; ${table}.biz_dt",
+            "</script>"
+    })
+    void upsertLatestBatch(@Param("table") String table, @Param("msgs") List<TradeMessage> msgs);
+}
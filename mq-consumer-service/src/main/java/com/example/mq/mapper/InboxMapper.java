@@ -2,10 +2,26 @@ package com.example.mq.mapper;
 
 import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.Collection;
+import java.util.List;
 
 @Mapper
 public interface InboxMapper {
     @Insert("INSERT INTO mq_inbox(tx_id) VALUES(#{txId}) ON CONFLICT DO NOTHING")
     boolean tryInsert(@Param("txId") String txId);
+
+    /** 批量登记：一条多行 INSERT，返回本次新插入的（即首次出现的）txId，其余为重复 */
+    @Select({
+            "<script>",
+            "INSERT INTO mq_inbox(tx_id) VALUES ",
+            "<foreach collection='txIds' item='id' separator=','>(#{id})</foreach>",
+            " ON CONFLICT DO NOTHING RETURNING tx_id",
+            "</script>"
+    })
+    @Options(useCache = false, flushCache = Options.FlushCachePolicy.TRUE)
+    List<String> insertNew(@Param("txIds") Collection<String> txIds);
 }
@@ -0,0 +1,346 @@
+package com.example.mq.service;
+
+import com.example.mq.mapper.DailyAggMapper;
+import com.example.mq.mapper.EquityMapper;
+import com.example.mq.mapper.InboxMapper;
+import com.example.mq.model.TradeMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * agg_cust_daily 写后汇总（mq.agg.write-behind=true 时启用）：
+ * - 按分片分 16 条 stripe，各自在内存里攒待写消息，同一 (ymd, 客户) 的增量到 flush 时合成一行；
+ * - 某条 stripe 攒到 flush-keys 个不同键，或最早一条已等 flush-ms，就 flush：一个事务里
+ *   先登记这些消息的防冲表（多行 INSERT ... RETURNING），只有新 txId 的消息计入，
+ *   再各一条多行 upsert 写该分片的快照（同键取最新）与日汇总（同键求和）；
+ * - 提交后才回调 ack；整段事务失败时逐条各开一个事务重做，只有自己失败的消息 nAck 重投，坏消息不拖累同段的好消息；
+ *   防冲表与快照、增量同事务，崩溃丢掉的只是未 ack 的内存数据，重投后补上，不重不漏；
+ * - 待写条数超过 max-pending 时，由加入的 lane 线程自己 flush（反压）。
+ * flush 次数/行数/合并比定期打日志并写 ${app.stat-dir}/mq.agg。
+ */
+@Slf4j
+@Component
+public class AggWriteBehind {
+
+    static final int SHARDS = 16;
+
+    private final InboxMapper inboxMapper;
+    private final EquityMapper equityMapper;
+    private final DailyAggMapper dailyAggMapper;
+    private final TransactionTemplate txTemplate;
+    private final MqMetrics metrics;
+    private final RecentTxIdCache recentTxIds;
+
+    @Value("${mq.agg.write-behind:false}") private boolean enabled;
+    @Value("${mq.agg.flush-ms:200}")       private long flushMs;
+    @Value("${mq.agg.flush-keys:2000}")    private int flushKeys;
+    @Value("${mq.agg.max-pending:20000}")  private int maxPending;
+    @Value("${mq.agg.flush-threads:4}")    private int flushThreads;
+    @Value("${app.stat-dir:/tmp/8424227}") private String statDir;
+
+    private final Stripe[] stripes = new Stripe[SHARDS];
+    private ExecutorService flushers;
+    private ScheduledExecutorService ticker;
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedMsgs = new AtomicLong();
+    private final AtomicLong deltaMsgs = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong maxRows = new AtomicLong();
+    private volatile long reportedFlushes = -1;
+
+    /** 一条待写消息 */
+    private static final class Entry {
+        final Settlement settlement;
+        final int index;
+        final TradeMessage msg;
+        final String ymd;
+        final BigDecimal delta;   // null：金额为 0，不动日汇总
+
+        Entry(Settlement settlement, int index, TradeMessage msg, String ymd, BigDecimal delta) {
+            this.settlement = settlement;
+            this.index = index;
+            this.msg = msg;
+            this.ymd = ymd;
+            this.delta = delta;
+        }
+    }
+
+    /** 一个分片：pending/keys/inFlight 由 lock 保护；flushLock 保证同一分片同一时刻只有一个 flush */
+    private static final class Stripe {
+        final String latestTable;
+        final String aggTable;
+        final ReentrantLock lock = new ReentrantLock();
+        final ReentrantLock flushLock = new ReentrantLock();
+        List<Entry> pending = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        long firstNanos;
+        boolean scheduled;
+        /** 已从 pending 取走、正在 flush（尚未提交并回调）的条数 */
+        int inFlight;
+
+        Stripe(String suffix) {
+            this.latestTable = "tb_customer_equity_" + suffix;
+            this.aggTable = "agg_cust_daily_" + suffix;
+        }
+    }
+
+    public AggWriteBehind(InboxMapper inboxMapper, EquityMapper equityMapper, DailyAggMapper dailyAggMapper,
+                          TransactionTemplate txTemplate, MqMetrics metrics, RecentTxIdCache recentTxIds) {
+        this.inboxMapper = inboxMapper;
+        this.equityMapper = equityMapper;
+        this.dailyAggMapper = dailyAggMapper;
+        this.txTemplate = txTemplate;
+        this.metrics = metrics;
+        this.recentTxIds = recentTxIds;
+        for (int i = 0; i < SHARDS; i++) stripes[i] = new Stripe(String.format("%02d", i + 1));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        flushers = Executors.newFixedThreadPool(Math.max(1, flushThreads));
+        ticker = Executors.newSingleThreadScheduledExecutor();
+        long tick = Math.max(10, flushMs / 4);
+        ticker.scheduleWithFixedDelay(this::flushAged, tick, tick, TimeUnit.MILLISECONDS);
+        ticker.scheduleWithFixedDelay(this::report, 30, 30, TimeUnit.SECONDS);
+        log.info("agg write-behind on: flushMs={} flushKeys={} maxPending={} threads={}",
+                flushMs, flushKeys, maxPending, flushThreads);
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * 加入一条消息，flush 提交后经 settlement 回调 ack。
+     * @param suffix 分片后缀 "01".."16"
+     * @param delta  折算人民币的净变动，null 表示金额为 0
+     */
+    public void add(String suffix, Settlement settlement, int index, TradeMessage msg, String ymd, BigDecimal delta) {
+        Stripe s = stripes[Integer.parseInt(suffix) - 1];
+        boolean schedule = false;
+        boolean full;
+        s.lock.lock();
+        try {
+            if (s.pending.isEmpty()) s.firstNanos = System.nanoTime();
+            s.pending.add(new Entry(settlement, index, msg, ymd, delta));
+            if (delta != null) s.keys.add(ymd + "|" + msg.getCustomerNo());
+            if (s.keys.size() >= flushKeys && !s.scheduled) {
+                s.scheduled = true;
+                schedule = true;
+            }
+            full = s.pending.size() >= maxPending;
+        } finally {
+            s.lock.unlock();
+        }
+        if (full) {
+            flush(s);
+        } else if (schedule) {
+            flushers.execute(() -> flush(s));
+        }
+    }
+
+    /** 尚未提交并回调的消息条数（含正在 flush 的） */
+    public int pending() {
+        int n = 0;
+        for (Stripe s : stripes) {
+            s.lock.lock();
+            try {
+                n += s.pending.size() + s.inFlight;
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        return n;
+    }
+
+    /** 立即 flush 全部分片（停机、回调前） */
+    public void flushAll() {
+        for (Stripe s : stripes) flush(s);
+        report();
+    }
+
+    private void flushAged() {
+        long now = System.nanoTime();
+        for (Stripe s : stripes) {
+            s.lock.lock();
+            try {
+                if (s.pending.isEmpty() || s.scheduled
+                        || now - s.firstNanos < TimeUnit.MILLISECONDS.toNanos(flushMs)) continue;
+                s.scheduled = true;
+            } finally {
+                s.lock.unlock();
+            }
+            flushers.execute(() -> flush(s));
+        }
+    }
+
+    private void flush(Stripe s) {
+        s.flushLock.lock();
+        try {
+            List<Entry> batch;
+            s.lock.lock();
+            try {
+                batch = s.pending;
+                s.pending = new ArrayList<>();
+                s.keys = new HashSet<>();
+                s.scheduled = false;
+                s.inFlight = batch.size();
+            } finally {
+                s.lock.unlock();
+            }
+            if (batch.isEmpty()) return;
+
+            try {
+                int[] written = txTemplate.execute(status -> write(s, batch));
+                committed(s, batch, written);
+                settle(batch, true);
+            } catch (Exception e) {
+                log.error("{} flush failed, {} msgs rolled back, retrying one by one", s.aggTable, batch.size(), e);
+                retryEach(s, batch);
+            } finally {
+                s.lock.lock();
+                try {
+                    s.inFlight = 0;
+                } finally {
+                    s.lock.unlock();
+                }
+            }
+        } finally {
+            s.flushLock.unlock();
+        }
+    }
+
+    /** 整段失败后逐条重做：每条单独一个事务，提交的 ack，仍失败的才计失败并 nAck */
+    private void retryEach(Stripe s, List<Entry> batch) {
+        List<Entry> acked = new ArrayList<>();
+        List<Entry> failed = new ArrayList<>();
+        for (Entry e : batch) {
+            List<Entry> one = Collections.singletonList(e);
+            try {
+                int[] written = txTemplate.execute(status -> write(s, one));
+                committed(s, one, written);
+                acked.add(e);
+            } catch (Exception ex) {
+                log.error("{} consume error, txId={}", s.aggTable, e.msg.getTxId(), ex);
+                metrics.incFail();
+                failed.add(e);
+            }
+        }
+        if (!acked.isEmpty()) settle(acked, true);
+        if (!failed.isEmpty()) settle(failed, false);
+    }
+
+    /** 一次 flush 事务已提交：记统计、登记近期 txId、计成功 */
+    private void committed(Stripe s, List<Entry> batch, int[] written) {
+        int n = written[0];
+        flushes.incrementAndGet();
+        flushedMsgs.addAndGet(batch.size());
+        rows.addAndGet(n);
+        deltaMsgs.addAndGet(written[1]);
+        maxRows.accumulateAndGet(n, Math::max);
+        log.debug("{} flushed {} msgs into {} rows", s.aggTable, batch.size(), n);
+        for (Entry e : batch) {
+            recentTxIds.add(e.msg.getTxId());
+            metrics.incOk();   // 重复消息同样按成功计数
+        }
+    }
+
+    /** 事务内：登记防冲表，新消息写快照、增量按 (ymd, 客户) 求和后写日汇总；返回 {日汇总写入行数, 有增量的新消息条数} */
+    private int[] write(Stripe s, List<Entry> batch) {
+        Set<String> txIds = new TreeSet<>();
+        for (Entry e : batch) txIds.add(e.msg.getTxId());
+        Set<String> fresh = new HashSet<>(inboxMapper.insertNew(txIds));
+
+        List<TradeMessage> news = new ArrayList<>(batch.size());
+        Map<String, DailyAggMapper.DeltaRow> sums = new TreeMap<>();
+        int deltas = 0;
+        for (Entry e : batch) {
+            if (!fresh.remove(e.msg.getTxId())) continue; // 库里已有，或本段前面已出现过
+            news.add(e.msg);
+            if (e.delta == null) continue;
+            deltas++;
+            EquityService.addDelta(sums, e.ymd, e.msg.getCustomerNo(), e.delta);
+        }
+        if (news.size() < batch.size()) log.warn("击中防冲表 {} 条（{} 本次 {} 条）", batch.size() - news.size(), s.aggTable, batch.size());
+        if (!news.isEmpty()) {
+            List<TradeMessage> rows = EquityService.newestPerKey(news);
+            equityMapper.upsertLatestBatch(s.latestTable, rows);
+            metrics.onSnapshotWrite(news.size(), rows.size());
+        }
+        if (!sums.isEmpty()) dailyAggMapper.upsertAddBatch(s.aggTable, new ArrayList<>(sums.values()));
+        return new int[]{sums.size(), deltas};
+    }
+
+    /** 按来源批分组回调 */
+    private static void settle(List<Entry> batch, boolean ack) {
+        Map<Settlement, List<Integer>> bySource = new IdentityHashMap<>();
+        for (Entry e : batch) bySource.computeIfAbsent(e.settlement, k -> new ArrayList<>()).add(e.index);
+        for (Map.Entry<Settlement, List<Integer>> g : bySource.entrySet()) {
+            try {
+                g.getKey().settle(g.getValue(), ack);
+            } catch (Exception ex) {
+                log.error("settle failed", ex);
+            }
+        }
+    }
+
+    /** flush 统计：次数、平均/最大行数、合并比（有增量的消息条数 / 实际写入行数） */
+    private void report() {
+        long f = flushes.get();
+        if (f == reportedFlushes) return;
+        reportedFlushes = f;
+        long r = rows.get();
+        String stat = "flushes=" + f + "\n"
+                + "flushedMsgs=" + flushedMsgs.get() + "\n"
+                + "deltaMsgs=" + deltaMsgs.get() + "\n"
+                + "rows=" + r + "\n"
+                + "avgRowsPerFlush=" + (f == 0 ? "n/a" : String.format("%.1f", (double) r / f)) + "\n"
+                + "maxRowsPerFlush=" + maxRows.get() + "\n"
+                + "coalesceRatio=" + (r == 0 ? "n/a" : String.format("%.2f", (double) deltaMsgs.get() / r)) + "\n";
+        log.info("agg write-behind: {}", stat.trim().replace('\n', ' '));
+        try {
+            Path dir = Paths.get(statDir);
+            Files.createDirectories(dir);
+            Files.write(dir.resolve("mq.agg"), stat.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (Exception e) {
+            log.warn("write agg stat failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!enabled) return;
+        ticker.shutdownNow();
+        flushAll();
+        flushers.shutdown();
+    }
+}
@@ -7,9 +7,18 @@ import com.example.mq.model.TradeMessage;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 @Service
 @Slf4j
@@ -29,6 +38,15 @@ public class EquityService {
     @Autowired
     private MqMetrics metrics;   // 新增：计数
 
+    @Autowired
+    private TransactionTemplate txTemplate;
+
+    @Autowired
+    private AggWriteBehind aggWriteBehind;
+
+    @Autowired
+    private RecentTxIdCache recentTxIds;
+
 //    public EquityService(RateCacheService rateCache) {
 //        this.rateCache = rateCache;
 //    }
@@ -40,9 +58,16 @@ public class EquityService {
         try {
             TradeMessage msg = TradeMessage.parse(raw);
 
+            // 近期刚提交过：不查库，按重复处理
+            if (recentTxIds.contains(msg.getTxId())) {
+                metrics.incOk();
+                return true;
+            }
+
             // 命中防冲表：重复消息 —— 也算成功，计入 success，并 ack
             if (!inboxMapper.tryInsert(msg.getTxId())) {
                 log.warn("击中防冲表，trxID: {}", msg.getTxId());
+                recentTxIds.add(msg.getTxId());
                 metrics.incOk();     // ✅ 重复消息按成功计数
                 return true;         // ✅ ack，避免重投
             }
@@ -67,6 +92,7 @@ public class EquityService {
                 dailyAggMapper.upsertAdd(aggTable, ymd, msg.getCustomerNo(), deltaCny);
             }
 
+            recentTxIds.add(msg.getTxId());
             metrics.incOk();   // ✅ 正常消息成功计数
             return true;       // ✅ ack
         } catch (IllegalArgumentException bad) {
@@ -82,6 +108,209 @@ public class EquityService {
         }
     }
 
+    /**
+     * 批量处理：N 条消息在一个事务里落库，三类写各合成多行语句：
+     *  1) mq_inbox 一条多行 INSERT ... RETURNING，返回的 txId 才是新消息，其余（库里已有或本批内重复）按重复处理；
+     *  2) 每张快照分表一条多行 upsert，同一 (客户, 账号, 币种) 在批内先取 biz_dt 最新的一条
+     *     （时间相同取先到的，与逐条处理时 "不比线上新不覆盖" 的结果一致）；
+     *  3) 每张日汇总分表一条多行 upsert，同一 (ymd, 客户) 的增量先在内存里求和。
+     * 事务回滚时防冲表登记一并回滚，重投的消息不会被误判为重复；调用方在本方法返回（已提交）后再 ack。
+     * 整批事务失败时逐条各开一个事务重做：坏消息只让自己 nAck、计失败，同批的好消息照常提交、ack。
+     *
+     * @return 与 raws 一一对应：true 应 ack（已提交、重复、脏数据）；false 应 nAck（该条单独重做仍失败，等重投）
+     */
+    public boolean[] handleBatch(List<String> raws) {
+        boolean[] ack = new boolean[raws.size()];
+        List<Prepared> valid = new ArrayList<>(raws.size());
+        for (int i = 0; i < raws.size(); i++) {
+            String raw = raws.get(i);
+            try {
+                TradeMessage msg = TradeMessage.parse(raw);
+                if (recentTxIds.contains(msg.getTxId())) { // 近期刚提交过：不进事务
+                    metrics.incOk();
+                    ack[i] = true;
+                    continue;
+                }
+                valid.add(prepare(i, msg));
+            } catch (IllegalArgumentException bad) {
+                log.warn("invalid msg: {} | reason={}", raw, bad.getMessage());
+                metrics.incFail();
+                ack[i] = true;
+            }
+        }
+        if (valid.isEmpty()) return ack;
+
+        try {
+            Integer dups = txTemplate.execute(status -> applyBatch(valid));
+            if (dups != null && dups > 0) log.warn("击中防冲表 {} 条（批内 {} 条）", dups, valid.size());
+            for (Prepared p : valid) {
+                recentTxIds.add(p.msg.getTxId());
+                metrics.incOk();   // 重复消息同样按成功计数
+                ack[p.index] = true;
+            }
+        } catch (Exception e) {
+            log.error("batch consume error, {} msgs rolled back, retrying one by one", valid.size(), e);
+            for (Prepared p : valid) ack[p.index] = applyOne(p, raws.get(p.index));
+        }
+        return ack;
+    }
+
+    /**
+     * 整批失败后逐条重做：每条单独一个事务（同样的 SQL，只是一行），只有自己失败的才计失败。
+     * 数据库整体不可用时每条都会失败，代价是至多 batch-size 个很快失败的事务。
+     * @return true 已提交（或重复）应 ack；false 应 nAck
+     */
+    private boolean applyOne(Prepared p, String raw) {
+        try {
+            Integer dups = txTemplate.execute(status -> applyBatch(Collections.singletonList(p)));
+            if (dups != null && dups > 0) log.warn("击中防冲表，trxID: {}", p.msg.getTxId());
+            recentTxIds.add(p.msg.getTxId());
+            metrics.incOk();
+            return true;
+        } catch (Exception e) {
+            log.error("consume error, msg={}", raw, e);
+            metrics.incFail();
+            return false;
+        }
+    }
+
+    /**
+     * 同 {@link #handleBatch(List)}，结果经 settlement 回调。开启写后汇总（mq.agg.write-behind）时，
+     * 合法消息交给 AggWriteBehind 按分片攒批，它的 flush 事务里才登记防冲表、写快照与日汇总，提交后回调 ack，
+     * 所以 settlement 可能晚于本方法返回、在 flush 线程里分几次到达。
+     */
+    public void handleBatch(List<String> raws, Settlement settlement) {
+        if (!aggWriteBehind.enabled()) {
+            boolean[] ack = handleBatch(raws);
+            List<Integer> acks = new ArrayList<>();
+            List<Integer> nacks = new ArrayList<>();
+            for (int i = 0; i < ack.length; i++) (ack[i] ? acks : nacks).add(i);
+            if (!acks.isEmpty()) settlement.settle(acks, true);
+            if (!nacks.isEmpty()) settlement.settle(nacks, false);
+            return;
+        }
+
+        List<Integer> done = new ArrayList<>();   // 脏数据与近期已提交的：直接 ack
+        for (int i = 0; i < raws.size(); i++) {
+            String raw = raws.get(i);
+            Prepared p;
+            try {
+                TradeMessage msg = TradeMessage.parse(raw);
+                if (recentTxIds.contains(msg.getTxId())) {
+                    metrics.incOk();
+                    done.add(i);
+                    continue;
+                }
+                p = prepare(i, msg);
+            } catch (IllegalArgumentException bad) {
+                log.warn("invalid msg: {} | reason={}", raw, bad.getMessage());
+                metrics.incFail();
+                done.add(i);
+                continue;
+            }
+            aggWriteBehind.add(p.suffix, settlement, p.index, p.msg, p.ymd, p.deltaCny);
+            settlement.deferred(p.index);
+        }
+        if (!done.isEmpty()) settlement.settle(done, true);
+    }
+
+    /** 写后汇总里尚未提交（未回调）的消息条数；未开启时为 0 */
+    public int pendingWrites() {
+        return aggWriteBehind.enabled() ? aggWriteBehind.pending() : 0;
+    }
+
+    /** 立即提交写后汇总里攒着的消息（停机、回调前） */
+    public void flushPending() {
+        if (aggWriteBehind.enabled()) aggWriteBehind.flushAll();
+    }
+
+    /** 事务内：登记防冲表、写快照、累加日汇总；返回重复条数 */
+    private int applyBatch(List<Prepared> batch) {
+        Set<String> txIds = new TreeSet<>();
+        for (Prepared p : batch) txIds.add(p.msg.getTxId());
+        Set<String> fresh = new HashSet<>(inboxMapper.insertNew(txIds));
+
+        // 表名、键都有序：并发的批按同一顺序加行锁，不互相死锁
+        List<TradeMessage> news = new ArrayList<>(batch.size());
+        Map<String, Map<String, DailyAggMapper.DeltaRow>> agg = new TreeMap<>();
+        int dups = 0;
+        for (Prepared p : batch) {
+            if (!fresh.remove(p.msg.getTxId())) { // 库里已有，或本批前面已出现过
+                dups++;
+                continue;
+            }
+            news.add(p.msg);
+            if (p.deltaCny != null) {
+                addDelta(agg.computeIfAbsent("agg_cust_daily_" + p.suffix, k -> new TreeMap<>()),
+                        p.ymd, p.msg.getCustomerNo(), p.deltaCny);
+            }
+        }
+        upsertSnapshots(news);
+        for (Map.Entry<String, Map<String, DailyAggMapper.DeltaRow>> e : agg.entrySet()) {
+            dailyAggMapper.upsertAddBatch(e.getKey(), new ArrayList<>(e.getValue().values()));
+        }
+        return dups;
+    }
+
+    /** 每张快照分表一条多行 upsert */
+    private void upsertSnapshots(List<TradeMessage> msgs) {
+        Map<String, List<TradeMessage>> byTable = new TreeMap<>();
+        for (TradeMessage m : msgs) {
+            byTable.computeIfAbsent("tb_customer_equity_" + shardSuffix(m.getCustomerNo()), k -> new ArrayList<>()).add(m);
+        }
+        for (Map.Entry<String, List<TradeMessage>> e : byTable.entrySet()) {
+            List<TradeMessage> rows = newestPerKey(e.getValue());
+            equityMapper.upsertLatestBatch(e.getKey(), rows);
+            metrics.onSnapshotWrite(e.getValue().size(), rows.size());
+        }
+    }
+
+    /** 同一 (客户, 账号, 币种) 只留 biz_dt 最新的一条，时间相同取先到的（与逐条 upsert 的 "不比线上新不覆盖" 结果一致）；按键排序 */
+    static List<TradeMessage> newestPerKey(List<TradeMessage> msgs) {
+        Map<String, TradeMessage> latest = new TreeMap<>();
+        for (TradeMessage m : msgs) {
+            latest.merge(m.getCustomerNo() + "|" + m.getAccountNo() + "|" + m.getCcy(), m,
+                    (a, b) -> b.getBizDt().isAfter(a.getBizDt()) ? b : a);
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+    /** 同一 (ymd, 客户) 的增量在内存里累加成一行 */
+    static void addDelta(Map<String, DailyAggMapper.DeltaRow> rows, String ymd, String custNo, BigDecimal delta) {
+        DailyAggMapper.DeltaRow row = rows.computeIfAbsent(ymd + "|" + custNo, k -> {
+            DailyAggMapper.DeltaRow r = new DailyAggMapper.DeltaRow();
+            r.ymd = ymd;
+            r.custNo = custNo;
+            r.delta = BigDecimal.ZERO;
+            return r;
+        });
+        row.delta = row.delta.add(delta);
+    }
+
+    /** 事务外先算好分片与折算金额：数据问题在这里暴露，只影响这一条，不拖垮整批 */
+    private Prepared prepare(int index, TradeMessage msg) {
+        Prepared p = new Prepared();
+        p.index = index;
+        p.msg = msg;
+        p.suffix = shardSuffix(msg.getCustomerNo());
+        BigDecimal signed = "D".equalsIgnoreCase(msg.getCdFlag())
+                ? BigDecimal.valueOf(msg.getAmount())
+                : BigDecimal.valueOf(msg.getAmount()).negate();
+        if (signed.signum() != 0) {
+            p.deltaCny = signed.multiply(rateCache.getRate(msg.getCcy()));
+            p.ymd = msg.getBizDt().toLocalDate().format(DateTimeFormatter.BASIC_ISO_DATE);
+        }
+        return p;
+    }
+
+    private static final class Prepared {
+        int index;
+        TradeMessage msg;
+        String suffix;
+        String ymd;
+        BigDecimal deltaCny;   // null：金额为 0，不动日汇总
+    }
+
     private static String shardSuffix(String customerNo) {
         long customerId = Long.parseLong(customerNo);
         int shard = (int) (customerId % 16 + 1);
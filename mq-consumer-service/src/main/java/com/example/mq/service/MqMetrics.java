@@ -15,20 +15,36 @@ public class MqMetrics {
     private final AtomicLong ok = new AtomicLong();
     private final AtomicLong fail = new AtomicLong();
     private volatile long lastMsgNanos = System.nanoTime();
+    // 快照合并：参与合并的消息条数 / 实际 upsert 的行数
+    private final AtomicLong snapshotMsgs = new AtomicLong();
+    private final AtomicLong snapshotRows = new AtomicLong();
 
     private final Path okFile;
     private final Path failFile;
+    private final Path snapshotFile;
 
     public MqMetrics(@Value("${app.stat-dir:/tmp/8424227}") String dir){
         try { Files.createDirectories(Paths.get(dir)); } catch (Exception ignore){}
         this.okFile = Paths.get(dir, "mq.ok");
         this.failFile = Paths.get(dir, "mq.fail");
+        this.snapshotFile = Paths.get(dir, "mq.snapshot");
     }
 
     public void incOk(){ dump(okFile, ok.incrementAndGet()); touch(); }
     public void incFail(){ dump(failFile, fail.incrementAndGet()); touch(); }
     public void onReceive(){ touch(); }
 
+    /** 一次快照批写：msgs 条消息合并成 rows 行 upsert */
+    public void onSnapshotWrite(int msgs, int rows){
+        long m = snapshotMsgs.addAndGet(msgs);
+        long r = snapshotRows.addAndGet(rows);
+        String stat = "msgs=" + m + "\nrows=" + r + "\ncoalesceRatio=" + (r == 0 ? "n/a" : String.format("%.2f", (double) m / r)) + "\n";
+        try {
+            Files.write(snapshotFile, stat.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (Exception e){ log.warn("write metrics failed: {}", snapshotFile, e); }
+    }
+
     public long okCount(){ return ok.get(); }
     public long failCount(){ return fail.get(); }
 
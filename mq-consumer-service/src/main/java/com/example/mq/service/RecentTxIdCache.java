@@ -0,0 +1,192 @@
+package com.example.mq.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 最近已提交 txId 的进程内缓存，挡在 mq_inbox 前面：重投风暴里的重复消息命中即按成功 ack，不再查库。
+ * - 只放已提交的 txId（防冲表登记随事务提交后才 add），命中即一定是重复；未命中照常走防冲表，防冲表仍是准绳；
+ * - 不存字符串：每个 txId 存两段独立的 64 位哈希（共 128 位指纹，误判概率可忽略），
+ *   开放定址（线性探测，装载率 ≤ 0.5）的两个 long[]，外加同样大小的环形队列记插入顺序；
+ * - 满 mq.txid-cache.size 条后按先进先出淘汰最老的（删除用回移，不留墓碑）；
+ * - 命中率与内存占用定期打日志并写 ${app.stat-dir}/mq.txidcache。mq.txid-cache.size=0 关闭。
+ */
+@Slf4j
+@Component
+public class RecentTxIdCache {
+
+    @Value("${mq.txid-cache.size:200000}") private int capacity;
+    @Value("${app.stat-dir:/tmp/8424227}")  private String statDir;
+
+    private long[] hi;
+    private long[] lo;
+    private int mask;
+    private long[] ringHi;
+    private long[] ringLo;
+    private int ringPos;
+    private int size;
+
+    private long lookups;
+    private long hits;
+    private long evictions;
+    private long reportedLookups = -1;
+
+    private ScheduledExecutorService ticker;
+
+    @PostConstruct
+    public void start() {
+        init();
+        if (!enabled()) return;
+        ticker = Executors.newSingleThreadScheduledExecutor();
+        ticker.scheduleWithFixedDelay(this::report, 30, 30, TimeUnit.SECONDS);
+        log.info("txId cache on: capacity={} memory={} bytes", capacity, memoryBytes());
+    }
+
+    private void init() {
+        if (capacity <= 0) return;
+        int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1; // ≥ 2 × capacity 的 2 的幂
+        hi = new long[slots];
+        lo = new long[slots];
+        mask = slots - 1;
+        ringHi = new long[capacity];
+        ringLo = new long[capacity];
+    }
+
+    public boolean enabled() {
+        return capacity > 0;
+    }
+
+    /** 是否近期已提交过（命中计入命中率） */
+    public synchronized boolean contains(String txId) {
+        if (!enabled()) return false;
+        lookups++;
+        long h = hash1(txId);
+        long l = hash2(txId);
+        if (find(h, l) >= 0) {
+            hits++;
+            return true;
+        }
+        return false;
+    }
+
+    /** 登记一个已提交的 txId；已在则不动，满了先淘汰最老的 */
+    public synchronized void add(String txId) {
+        if (!enabled()) return;
+        long h = hash1(txId);
+        long l = hash2(txId);
+        if (find(h, l) >= 0) return;
+        if (size == capacity) {
+            remove(ringHi[ringPos], ringLo[ringPos]);
+            evictions++;
+        } else {
+            size++;
+        }
+        int i = (int) h & mask;
+        while (hi[i] != 0 || lo[i] != 0) i = (i + 1) & mask;
+        hi[i] = h;
+        lo[i] = l;
+        ringHi[ringPos] = h;
+        ringLo[ringPos] = l;
+        ringPos = ringPos + 1 == capacity ? 0 : ringPos + 1;
+    }
+
+    private int find(long h, long l) {
+        int i = (int) h & mask;
+        while (hi[i] != 0 || lo[i] != 0) {
+            if (hi[i] == h && lo[i] == l) return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /** 删除并把后面同一探测链上的元素往回移，保证查找不断链 */
+    private void remove(long h, long l) {
+        int i = find(h, l);
+        if (i < 0) return;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (hi[j] == 0 && lo[j] == 0) break;
+            int home = (int) hi[j] & mask;
+            // home 落在 (i, j] 内的元素不能前移
+            boolean stay = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (stay) continue;
+            hi[i] = hi[j];
+            lo[i] = lo[j];
+            i = j;
+        }
+        hi[i] = 0;
+        lo[i] = 0;
+    }
+
+    private static long hash1(String s) {
+        long h = 0xcbf29ce484222325L; // FNV-1a
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /** 与 hash1 独立的第二段；低位置 1，保证指纹不全为 0（全 0 表示空槽） */
+    private static long hash2(String s) {
+        long h = s.length();
+        for (int i = 0; i < s.length(); i++) h = (h + s.charAt(i)) * 0x9E3779B97F4A7C15L;
+        return mix(h ^ (h >>> 29)) | 1L;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    /** 定长数组占用的字节数 */
+    public long memoryBytes() {
+        if (!enabled()) return 0;
+        return 8L * (hi.length + lo.length + ringHi.length + ringLo.length);
+    }
+
+    private void report() {
+        String stat;
+        synchronized (this) {
+            if (lookups == reportedLookups) return;
+            reportedLookups = lookups;
+            stat = "lookups=" + lookups + "\n"
+                    + "hits=" + hits + "\n"
+                    + "hitRate=" + (lookups == 0 ? "n/a" : String.format("%.4f", (double) hits / lookups)) + "\n"
+                    + "size=" + size + "\n"
+                    + "capacity=" + capacity + "\n"
+                    + "evictions=" + evictions + "\n"
+                    + "memoryBytes=" + memoryBytes() + "\n";
+        }
+        log.info("txId cache: {}", stat.trim().replace('\n', ' '));
+        try {
+            Path dir = Paths.get(statDir);
+            Files.createDirectories(dir);
+            Files.write(dir.resolve("mq.txidcache"), stat.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (Exception e) {
+            log.warn("write txId cache stat failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!enabled()) return;
+        ticker.shutdownNow();
+        report();
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.mq.service;
+
+import java.util.List;
+
+/**
+ * 一批消息的落库结果回调：indexes 为批内下标，ack=true 应 ack，false 应 nAck。
+ * 同一批可能分几次、在别的线程回调（写后汇总按分片各自 flush），每条消息恰好回调一次。
+ */
+public interface Settlement {
+    void settle(List<Integer> indexes, boolean ack);
+
+    /** 第 index 条已交给写后汇总，之后由 flush 线程回调；handleBatch 随后抛异常时调用方不应再替它 nAck */
+    default void deferred(int index) { }
+}
@@ -0,0 +1,91 @@
+package com.example.mq.service;
+
+import com.example.mq.model.TradeMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 写后汇总：flush 失败时逐条重做只 nAck 坏消息；flush 进行中的消息仍计入 pending。
+ */
+class AggWriteBehindTest {
+
+    @TempDir
+    Path statDir;
+    private FakeMqStore store;
+    private MqMetrics metrics;
+    private AggWriteBehind writeBehind;
+    private final List<Integer> acked = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> nacked = Collections.synchronizedList(new ArrayList<>());
+    private final Settlement settlement = (indexes, ack) -> (ack ? acked : nacked).addAll(indexes);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new FakeMqStore();
+        metrics = new MqMetrics(statDir.toString());
+        RecentTxIdCache recentTxIds = new RecentTxIdCache(); // 容量 0：不启用
+        writeBehind = new AggWriteBehind(store.inboxMapper, store.equityMapper, store.dailyAggMapper,
+                store.txTemplate, metrics, recentTxIds);
+        FakeMqStore.inject(writeBehind, "flushKeys", 2000);
+        FakeMqStore.inject(writeBehind, "maxPending", 20000);
+        FakeMqStore.inject(writeBehind, "statDir", statDir.toString());
+    }
+
+    @Test
+    void failedFlushNacksOnlyThePoisonMessage() {
+        store.poison.add("0000000017");
+        // 客户 1、17、33 同在分片 02
+        add(0, "TX1", "1", "10.00");
+        add(1, "TX2", "17", "20.00");
+        add(2, "TX3", "33", "30.00");
+        add(3, "TX4", "1", "5.00");
+
+        writeBehind.flushAll();
+
+        assertEquals(Arrays.asList(0, 2, 3), sorted(acked));
+        assertEquals(Collections.singletonList(1), nacked);
+        assertEquals(3, metrics.okCount());
+        assertEquals(1, metrics.failCount());
+        assertFalse(store.inbox.contains("TX2"));
+        assertEquals(0, new BigDecimal("15.00").compareTo(store.agg.get("agg_cust_daily_02|20250601|0000000001")));
+        assertEquals(0, writeBehind.pending());
+    }
+
+    @Test
+    void pendingCountsMessagesUntilCommitted() {
+        add(0, "TX1", "1", "10.00");
+        add(1, "TX2", "2", "20.00");
+        assertEquals(2, writeBehind.pending());
+
+        // 分片 02 的事务里：它自己的 1 条在途，分片 03 的 1 条还在攒
+        List<Integer> seen = new ArrayList<>();
+        store.beforeCommit = () -> seen.add(writeBehind.pending());
+        writeBehind.flushAll();
+
+        assertEquals(Arrays.asList(2, 1), seen);
+        assertEquals(0, writeBehind.pending());
+    }
+
+    private void add(int index, String txId, String cust, String amount) {
+        TradeMessage m = TradeMessage.parse("2025-06-01 21:00:01|" + txId + "|" + cust
+                + "|123456789012345000|D|CNY|" + amount + "|100.00");
+        int shard = (int) (Long.parseLong(m.getCustomerNo()) % 16 + 1);
+        writeBehind.add(String.format("%02d", shard), settlement, index, m, "20250601", new BigDecimal(amount));
+    }
+
+    private static List<Integer> sorted(List<Integer> l) {
+        List<Integer> out = new ArrayList<>(l);
+        Collections.sort(out);
+        return out;
+    }
+}
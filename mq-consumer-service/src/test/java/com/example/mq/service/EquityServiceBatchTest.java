@@ -0,0 +1,112 @@
+package com.example.mq.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 批量消费的失败路径：整批事务失败后逐条重做，只有坏消息 nAck、计失败。
+ */
+class EquityServiceBatchTest {
+
+    @TempDir
+    Path statDir;
+    private FakeMqStore store;
+    private MqMetrics metrics;
+    private RecentTxIdCache recentTxIds;
+    private EquityService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new FakeMqStore();
+        metrics = new MqMetrics(statDir.toString());
+        recentTxIds = new RecentTxIdCache();
+        FakeMqStore.inject(recentTxIds, "capacity", 1000);
+        FakeMqStore.inject(recentTxIds, "statDir", statDir.toString());
+        recentTxIds.start();
+        AggWriteBehind aggWriteBehind = new AggWriteBehind(store.inboxMapper, store.equityMapper,
+                store.dailyAggMapper, store.txTemplate, metrics, recentTxIds); // 未开启
+
+        service = new EquityService();
+        FakeMqStore.inject(service, "equityMapper", store.equityMapper);
+        FakeMqStore.inject(service, "inboxMapper", store.inboxMapper);
+        FakeMqStore.inject(service, "dailyAggMapper", store.dailyAggMapper);
+        FakeMqStore.inject(service, "rateCache", new RateCacheService(store.rateMapper));
+        FakeMqStore.inject(service, "metrics", metrics);
+        FakeMqStore.inject(service, "txTemplate", store.txTemplate);
+        FakeMqStore.inject(service, "aggWriteBehind", aggWriteBehind);
+        FakeMqStore.inject(service, "recentTxIds", recentTxIds);
+    }
+
+    @AfterEach
+    void tearDown() {
+        recentTxIds.stop();
+    }
+
+    @Test
+    void poisonMessageOnlyNacksItself() {
+        store.poison.add("0000000666");
+        List<String> raws = Arrays.asList(
+                msg("TX1", "123", "10.00"),
+                msg("TX2", "456", "20.00"),
+                msg("TX3", "666", "30.00"),   // 写快照时报错
+                "not|a|valid|message",         // 脏数据：计失败但 ack
+                msg("TX4", "123", "40.00"));
+
+        boolean[] ack = service.handleBatch(raws);
+
+        assertArrayEquals(new boolean[]{true, true, false, true, true}, ack);
+        assertEquals(3, metrics.okCount());
+        assertEquals(2, metrics.failCount());
+        assertEquals(3, store.inbox.size());
+        assertFalse(store.inbox.contains("TX3"), "poison message must stay unregistered so redelivery is retried");
+        assertEquals(2, store.snapshots.size());
+        // 整批 1 次 + 合法的 4 条逐条各 1 次
+        assertEquals(5, store.transactions.get());
+        assertEquals(2, store.rollbacks.get());
+    }
+
+    @Test
+    void retriedBatchKeepsDuplicatesIdempotent() {
+        store.poison.add("0000000666");
+        List<String> raws = Arrays.asList(
+                msg("TX1", "123", "10.00"),
+                msg("TX1", "123", "10.00"),   // 批内重复
+                msg("TX3", "666", "30.00"));
+
+        boolean[] ack = service.handleBatch(raws);
+
+        assertArrayEquals(new boolean[]{true, true, false}, ack);
+        assertEquals(1, store.agg.size());
+        assertEquals(0, new java.math.BigDecimal("10.00").compareTo(store.agg.values().iterator().next()));
+
+        // 坏消息修好后重投：已提交的不再重复入账
+        store.poison.clear();
+        ack = service.handleBatch(raws);
+        assertArrayEquals(new boolean[]{true, true, true}, ack);
+        assertEquals(2, store.agg.size());
+        assertTrue(store.inbox.contains("TX3"));
+    }
+
+    @Test
+    void healthyBatchCommitsOnce() {
+        boolean[] ack = service.handleBatch(Arrays.asList(msg("TX1", "123", "1.00"), msg("TX2", "456", "2.00")));
+        assertArrayEquals(new boolean[]{true, true}, ack);
+        assertEquals(1, store.transactions.get());
+        assertEquals(0, metrics.failCount());
+    }
+
+    private static String msg(String txId, String cust, String amount) {
+        return "2025-06-01 21:00:01|" + txId + "|" + cust + "|123456789012345000|D|CNY|" + amount + "|100.00";
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.mq.service;
+
+import com.example.mq.mapper.DailyAggMapper;
+import com.example.mq.mapper.EquityMapper;
+import com.example.mq.mapper.InboxMapper;
+import com.example.mq.mapper.RateMapper;
+import com.example.mq.model.TradeMessage;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的内存库：mq_inbox、快照分表、日汇总分表，外加一个会整体回滚的 TransactionTemplate。
+ * poison 里的客户号写快照时抛错，模拟单条消息触发的约束/数据错误。
+ */
+final class FakeMqStore {
+
+    final Set<String> inbox = new HashSet<>();
+    /** table|客户|账号|币种 -> 快照 */
+    final Map<String, TradeMessage> snapshots = new HashMap<>();
+    /** table|ymd|客户 -> 累计增量 */
+    final Map<String, BigDecimal> agg = new HashMap<>();
+    final Set<String> poison = new HashSet<>();
+    final AtomicInteger transactions = new AtomicInteger();
+    final AtomicInteger rollbacks = new AtomicInteger();
+    /** 每个事务提交前调用（事务仍未结束） */
+    volatile Runnable beforeCommit = () -> { };
+
+    final InboxMapper inboxMapper = proxy(InboxMapper.class, (name, a) -> {
+        switch (name) {
+            case "tryInsert":
+                return inbox.add((String) a[0]);
+            case "insertNew":
+                Set<String> fresh = new HashSet<>();
+                for (Object id : (Collection<?>) a[0]) {
+                    if (inbox.add((String) id)) fresh.add((String) id);
+                }
+                return new java.util.ArrayList<>(fresh);
+            default:
+                throw new UnsupportedOperationException(name);
+        }
+    });
+
+    final EquityMapper equityMapper = proxy(EquityMapper.class, (name, a) -> {
+        switch (name) {
+            case "upsertLatestByTimeOnly":
+                upsertSnapshot((String) a[0], (TradeMessage) a[1]);
+                return null;
+            case "upsertLatestBatch":
+                for (Object m : (List<?>) a[1]) upsertSnapshot((String) a[0], (TradeMessage) m);
+                return null;
+            default:
+                throw new UnsupportedOperationException(name);
+        }
+    });
+
+    final DailyAggMapper dailyAggMapper = proxy(DailyAggMapper.class, (name, a) -> {
+        switch (name) {
+            case "upsertAdd":
+                agg.merge(a[0] + "|" + a[1] + "|" + a[2], (BigDecimal) a[3], BigDecimal::add);
+                return null;
+            case "upsertAddBatch":
+                for (Object o : (List<?>) a[1]) {
+                    DailyAggMapper.DeltaRow r = (DailyAggMapper.DeltaRow) o;
+                    agg.merge(a[0] + "|" + r.ymd + "|" + r.custNo, r.delta, BigDecimal::add);
+                }
+                return null;
+            default:
+                throw new UnsupportedOperationException(name);
+        }
+    });
+
+    final RateMapper rateMapper = proxy(RateMapper.class, (name, a) -> {
+        if (name.equals("findAll")) return new java.util.ArrayList<>();
+        return null;
+    });
+
+    /** 事务：开始时给三张表拍快照，回调抛错时整体恢复 */
+    final TransactionTemplate txTemplate = new TransactionTemplate() {
+        @Override
+        public <T> T execute(TransactionCallback<T> action) {
+            synchronized (FakeMqStore.this) {
+                transactions.incrementAndGet();
+                Set<String> inboxBefore = new HashSet<>(inbox);
+                Map<String, TradeMessage> snapshotsBefore = new HashMap<>(snapshots);
+                Map<String, BigDecimal> aggBefore = new HashMap<>(agg);
+                try {
+                    T result = action.doInTransaction(null);
+                    beforeCommit.run();
+                    return result;
+                } catch (RuntimeException e) {
+                    rollbacks.incrementAndGet();
+                    inbox.retainAll(inboxBefore);
+                    snapshots.clear();
+                    snapshots.putAll(snapshotsBefore);
+                    agg.clear();
+                    agg.putAll(aggBefore);
+                    throw e;
+                }
+            }
+        }
+    };
+
+    private void upsertSnapshot(String table, TradeMessage m) {
+        if (poison.contains(m.getCustomerNo())) {
+            throw new IllegalStateException("constraint violation on customer " + m.getCustomerNo());
+        }
+        snapshots.merge(table + "|" + m.getCustomerNo() + "|" + m.getAccountNo() + "|" + m.getCcy(), m,
+                (old, now) -> now.getBizDt().isAfter(old.getBizDt()) ? now : old);
+    }
+
+    /** 给 Spring 注入的字段赋值 */
+    static void inject(Object target, String field, Object value) throws ReflectiveOperationException {
+        Field f = target.getClass().getDeclaredField(field);
+        f.setAccessible(true);
+        f.set(target, value);
+    }
+
+    private interface Call {
+        Object apply(String name, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Call call) {
+        return (T) Proxy.newProxyInstance(FakeMqStore.class.getClassLoader(), new Class<?>[]{type}, (p, m, a) -> {
+            if (m.getDeclaringClass() == Object.class) {
+                return m.getName().equals("equals") ? p == a[0] : m.getName().equals("hashCode")
+                        ? System.identityHashCode(p) : type.getSimpleName();
+            }
+            return call.apply(m.getName(), a);
+        });
+    }
+}
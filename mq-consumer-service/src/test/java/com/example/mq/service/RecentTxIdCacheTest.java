@@ -0,0 +1,73 @@
+package com.example.mq.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 近期 txId 缓存：满了按先进先出淘汰，淘汰（回移删除）后其余条目仍能查到；容量 0 时关闭。
+ */
+class RecentTxIdCacheTest {
+
+    @TempDir
+    Path statDir;
+    private RecentTxIdCache cache;
+
+    @AfterEach
+    void tearDown() {
+        if (cache != null) cache.stop();
+    }
+
+    @Test
+    void evictsOldestFirst() throws Exception {
+        cache = cache(3);
+        cache.add("tx-a");
+        cache.add("tx-b");
+        cache.add("tx-c");
+        cache.add("tx-a"); // 已在：不动，也不刷新先后
+        cache.add("tx-d");
+        assertFalse(cache.contains("tx-a"));
+        assertTrue(cache.contains("tx-b"));
+        assertTrue(cache.contains("tx-c"));
+        assertTrue(cache.contains("tx-d"));
+
+        cache.add("tx-e");
+        assertFalse(cache.contains("tx-b"));
+        assertTrue(cache.contains("tx-e"));
+    }
+
+    @Test
+    void keepsExactlyTheLatestAfterManyEvictions() throws Exception {
+        int capacity = 100;
+        cache = cache(capacity);
+        int total = 20_000;
+        for (int i = 0; i < total; i++) cache.add("T" + i);
+        for (int i = 0; i < total; i++) {
+            assertEquals(i >= total - capacity, cache.contains("T" + i), "T" + i);
+        }
+        assertEquals(8L * (256 + 256 + capacity + capacity), cache.memoryBytes());
+    }
+
+    @Test
+    void zeroCapacityDisables() throws Exception {
+        cache = cache(0);
+        cache.add("tx-a");
+        assertFalse(cache.enabled());
+        assertFalse(cache.contains("tx-a"));
+        assertEquals(0, cache.memoryBytes());
+    }
+
+    private RecentTxIdCache cache(int capacity) throws ReflectiveOperationException {
+        RecentTxIdCache c = new RecentTxIdCache();
+        FakeMqStore.inject(c, "capacity", capacity);
+        FakeMqStore.inject(c, "statDir", statDir.toString());
+        c.start();
+        return c;
+    }
+}
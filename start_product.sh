@@ -5,7 +5,7 @@ set -euo pipefail
 ROOT_DIR="$(cd "$(dirname "$0")" && pwd)"
 LOG_DIR="/tmp/8424227"
 LOG_FILE="$LOG_DIR/8424227.log"
-APP_JAR="$ROOT_DIR/equity-loader/target/equity-loader-1.0.0.jar"
+APP_JAR="$ROOT_DIR/equity-loader/target/equity-loader-1.0.0-exec.jar"
 
 mkdir -p "$LOG_DIR"
 